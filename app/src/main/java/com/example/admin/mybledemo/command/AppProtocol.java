@@ -74,8 +74,7 @@ public class AppProtocol {
         data[1] = (byte) commandBean.getCommand_type();
         data[2] = (byte) commandBean.getMusic_type();
         data[3] = (byte) commandBean.getPlay_status();
-        data[4] = ByteUtils.short2Bytes(commandBean.getMusic_index())[0];
-        data[5] = ByteUtils.short2Bytes(commandBean.getMusic_index())[1];
+        ByteUtils.short2Bytes(commandBean.getMusic_index(), data, 4);
         write(device, data);
     }
 
@@ -47,11 +47,18 @@ public class ByteUtils {
     //3.short转换为byte数组
     public static byte[] short2Bytes(short value) {
         byte[] data = new byte[2];
-        data[0] = (byte) (value >> 8 & 0xff);
-        data[1] = (byte) (value & 0xFF);
+        short2Bytes(value, data, 0);
         return data;
     }
 
+    /**
+     * short按大端写入dst的offset处,不分配数组
+     */
+    public static void short2Bytes(short value, byte[] dst, int offset) {
+        dst[offset] = (byte) (value >> 8 & 0xff);
+        dst[offset + 1] = (byte) (value & 0xFF);
+    }
+
     /**
      * 将int转化成byte[]
      *
@@ -9,7 +9,9 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.support.annotation.IntRange;
 import android.support.annotation.RequiresApi;
+import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
@@ -26,13 +28,16 @@ import cn.com.heaton.blelibrary.ble.callback.BleWriteEntityCallback;
 import cn.com.heaton.blelibrary.ble.callback.wrapper.BluetoothChangedObserver;
 import cn.com.heaton.blelibrary.ble.exception.BleException;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.model.BleScanFilter;
 import cn.com.heaton.blelibrary.ble.model.EntityData;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
+import cn.com.heaton.blelibrary.ble.queue.GattOperation;
+import cn.com.heaton.blelibrary.ble.queue.NotifyBuffer;
 import cn.com.heaton.blelibrary.ble.queue.RequestTask;
 import cn.com.heaton.blelibrary.ble.queue.WriteQueue;
 import cn.com.heaton.blelibrary.ble.request.ConnectRequest;
 import cn.com.heaton.blelibrary.ble.proxy.RequestImpl;
 import cn.com.heaton.blelibrary.ble.proxy.RequestLisenter;
-import cn.com.heaton.blelibrary.ble.proxy.RequestProxy;
 import cn.com.heaton.blelibrary.ble.request.Rproxy;
 import cn.com.heaton.blelibrary.ble.request.ScanRequest;
 
@@ -76,9 +81,8 @@ public final class Ble<T extends BleDevice> {
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         Ble.options = (options == null ? options() : options);
         BleLog.init();
-        //设置动态代理
-        request = (RequestLisenter) RequestProxy.newProxy()
-                .bindProxy(context, RequestImpl.newRequestImpl());
+        //直接调用,请求对象在第一次使用时创建
+        request = RequestImpl.newRequestImpl();
         bleRequestImpl = BleRequestImpl.getBleRequest();
         bleRequestImpl.initialize(context);
         BleLog.i(TAG, "Ble init success!");
@@ -145,28 +149,28 @@ public final class Ble<T extends BleDevice> {
     }
 
     public void connects(List<T> devices, BleConnectCallback<T> callback) {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             request.connect(devices, callback);
         }
     }
 
     public void cancelConnectting(T device){
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             request.cancelConnectting(device);
         }
     }
 
     public void cancelConnecttings(List<T> devices){
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             request.cancelConnecttings(devices);
         }
     }
 
     public void resetReConnect(T device, boolean autoConnect){
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             request.resetReConnect(device, autoConnect);
         }
@@ -207,6 +211,26 @@ public final class Ble<T extends BleDevice> {
         request.cancelNotify(device, callback);
     }
 
+    /**
+     * 开启指定特征的通知
+     * @param device 蓝牙设备对象
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID
+     * @param callback 通知回调
+     * @return 是否找到该特征
+     */
+    public boolean startNotify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback){
+        return request.notify(device, serviceUuid, characteristicUuid, callback);
+    }
+
+    /**
+     * 关闭指定特征的通知
+     * @return 是否找到该特征
+     */
+    public boolean cancelNotify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback){
+        return request.cancelNotify(device, serviceUuid, characteristicUuid, callback);
+    }
+
     /**
      * 读取数据
      * @param device 蓝牙设备对象
@@ -216,6 +240,35 @@ public final class Ble<T extends BleDevice> {
         return request.read(device, callback);
     }
 
+    /**
+     * 异步读取数据,返回的句柄可添加回调、设置超时或取消,
+     * 多个读取(同一设备或不同设备)可以同时发起,结果互不覆盖
+     * @param device 蓝牙设备对象
+     * @return 结果为读取到的数据
+     */
+    public BleFuture<byte[]> readAsync(T device){
+        return request.readAsync(device);
+    }
+
+    /**
+     * 读取指定特征
+     * @param device 蓝牙设备对象
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID
+     * @param callback 读取结果回调
+     */
+    public boolean read(T device, UUID serviceUuid, UUID characteristicUuid, BleReadCallback<T> callback){
+        return request.read(device, serviceUuid, characteristicUuid, callback);
+    }
+
+    /**
+     * 异步读取指定特征
+     * @return 结果为读取到的数据
+     */
+    public BleFuture<byte[]> readAsync(T device, UUID serviceUuid, UUID characteristicUuid){
+        return request.readAsync(device, serviceUuid, characteristicUuid);
+    }
+
     /**
      * 读取远程RSSI
      * @param device 蓝牙设备对象
@@ -225,6 +278,15 @@ public final class Ble<T extends BleDevice> {
         request.readRssi(device, callback);
     }
 
+    /**
+     * 异步读取远程RSSI
+     * @param device 蓝牙设备对象
+     * @return 结果为rssi
+     */
+    public BleFuture<Integer> readRssiAsync(T device){
+        return request.readRssiAsync(device);
+    }
+
     /**
      * 设置MTU
      * @param address 蓝牙设备地址
@@ -235,6 +297,25 @@ public final class Ble<T extends BleDevice> {
         return request.setMtu(address, mtu, callback);
     }
 
+    /**
+     * 异步设置MTU
+     * @param address 蓝牙设备地址
+     * @param mtu mtu大小
+     * @return 结果为协商后的mtu
+     */
+    public BleFuture<Integer> setMTUAsync(String address, int mtu){
+        return request.setMtuAsync(address, mtu);
+    }
+
+    /**
+     * 获取已协商的MTU
+     * @param address 蓝牙设备地址
+     * @return mtu大小(未协商时为23)
+     */
+    public int getMTU(String address){
+        return bleRequestImpl.getMtu(address);
+    }
+
     /**
      * 写入数据
      * @param device 蓝牙设备对象
@@ -246,6 +327,57 @@ public final class Ble<T extends BleDevice> {
         return request.write(device, data, callback);
     }
 
+    /**
+     * 按优先级写入数据,控制指令使用{@link GattOperation#PRIORITY_CONTROL},
+     * 即使正在写入大数据也只需等待当前一个数据包完成
+     * @param device 蓝牙设备对象
+     * @param data 写入数据字节数组
+     * @param priority 优先级
+     * @param callback 写入结果回调
+     * @return 写入是否成功
+     */
+    public boolean write(T device, byte[]data, int priority, BleWriteCallback<T> callback){
+        return request.write(device, data, priority, callback);
+    }
+
+    /**
+     * 异步写入数据
+     * @param device 蓝牙设备对象
+     * @param data 写入数据字节数组
+     * @return 写入完成(收到协议栈回调)时成功
+     */
+    public BleFuture<Void> writeAsync(T device, byte[]data){
+        return writeAsync(device, data, GattOperation.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * 按优先级异步写入数据
+     * @param priority 优先级,如{@link GattOperation#PRIORITY_CONTROL}
+     */
+    public BleFuture<Void> writeAsync(T device, byte[]data, int priority){
+        return request.writeAsync(device, data, priority);
+    }
+
+    /**
+     * 写入指定特征,如命令、大数据、日志分别使用不同的特征
+     * @param device 蓝牙设备对象
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID
+     * @param data 写入数据字节数组
+     * @param callback 写入结果回调
+     * @return 写入是否成功
+     */
+    public boolean write(T device, UUID serviceUuid, UUID characteristicUuid, byte[]data, BleWriteCallback<T> callback){
+        return request.write(device, serviceUuid, characteristicUuid, data, GattOperation.PRIORITY_INTERACTIVE, callback);
+    }
+
+    /**
+     * 按优先级异步写入指定特征
+     */
+    public BleFuture<Void> writeAsync(T device, UUID serviceUuid, UUID characteristicUuid, byte[]data, int priority){
+        return request.writeAsync(device, serviceUuid, characteristicUuid, data, priority);
+    }
+
     public void writeQueueDelay(long delay, RequestTask task){
         WriteQueue.getInstance().put(delay, task);
     }
@@ -254,16 +386,32 @@ public final class Ble<T extends BleDevice> {
         writeQueueDelay(DEFALUT_WRITE_DELAY, task);
     }
 
+    /**
+     * 取消该设备队列中未执行的写入(断开连接时会自动取消)
+     * @param address 蓝牙设备地址
+     */
+    public void cancelWriteQueue(String address){
+        WriteQueue.getInstance().remove(address);
+    }
+
+    /**
+     * 取消队列中所有tag相同的未执行写入
+     * @param tag {@link RequestTask#setTag(Object)}
+     */
+    public void cancelWriteQueueByTag(Object tag){
+        WriteQueue.getInstance().removeTag(tag);
+    }
+
     /**
      * 写入大数据量的数据（分包）
      * @param device 蓝牙设备对象
      * @param data 写入的总字节数组（如整个文件的字节数组）
-     * @param packLength 每包需要发送的长度
+     * @param packLength 每包需要发送的长度,不超过属性值的最大长度512(按MTU分包见EntityData.autoPackLength)
      * @param delay 每包之间的时间间隔
      * @param callback 发送结果回调
      */
     @Deprecated
-    public void writeEntity(T device, final byte[]data, @IntRange(from = 1,to = 20)int packLength, int delay, BleWriteEntityCallback<T> callback){
+    public void writeEntity(T device, final byte[]data, @IntRange(from = 1,to = 512)int packLength, int delay, BleWriteEntityCallback<T> callback){
         request.writeEntity(device, data, packLength, delay, callback);
     }
 
@@ -321,7 +469,7 @@ public final class Ble<T extends BleDevice> {
      * @return 指定位置蓝牙对象
      */
     public T getBleDevice(int index) {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             return request.getBleDevice(index);
         }
@@ -334,7 +482,7 @@ public final class Ble<T extends BleDevice> {
      * @return 对应的蓝牙对象
      */
     public T getBleDevice(String address){
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             return request.getBleDevice(address);
         }
@@ -347,7 +495,7 @@ public final class Ble<T extends BleDevice> {
      * @return 对应蓝牙对象
      */
     public T getBleDevice(BluetoothDevice device) {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             return request.getBleDevice(device);
         }
@@ -365,7 +513,7 @@ public final class Ble<T extends BleDevice> {
      * 是否正在扫描
      */
     public boolean isScanning() {
-        ScanRequest request = Rproxy.getRequest(ScanRequest.class);
+        ScanRequest request = Rproxy.getScanRequest();
         return request.isScanning();
     }
 
@@ -375,7 +523,7 @@ public final class Ble<T extends BleDevice> {
      */
 
     public List<T> getConnetedDevices() {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         if(request != null){
             return request.getConnetedDevices();
         }
@@ -475,6 +623,38 @@ public final class Ble<T extends BleDevice> {
         return false;
     }
 
+    /**
+     * 导出最近记录的GATT事件(需设置Options.gattEventLogSize)
+     * @return 每行一个事件,按时间顺序
+     */
+    public String dumpGattEvents() {
+        return GattEventLog.dump();
+    }
+
+    /**
+     * 获取设备的通知缓冲区统计
+     * @param address 蓝牙设备地址
+     * @return 未开启通知缓冲或还没有收到通知时为null
+     */
+    public NotifyBuffer getNotifyBuffer(String address) {
+        if (bleRequestImpl != null) {
+            return bleRequestImpl.getNotifyBuffer(address);
+        }
+        return null;
+    }
+
+    /**
+     * 清理设备的系统GATT缓存,设备固件升级(服务或特征改变)后调用一次
+     * @param address 蓝牙设备地址
+     * @return 系统GATT缓存是否清理成功
+     */
+    public boolean invalidateServiceCache(String address) {
+        if (bleRequestImpl != null) {
+            return bleRequestImpl.invalidateServiceCache(address);
+        }
+        return false;
+    }
+
     public static Options options(){
         if(options == null){
             options = new Options();
@@ -494,6 +674,14 @@ public final class Ble<T extends BleDevice> {
          * 是否打印蓝牙日志
          */
         public boolean logBleEnable = true;
+        /**
+         * 日志输出的最低级别(android.util.Log.VERBOSE ~ ERROR)
+         */
+        public int logLevel = Log.VERBOSE;
+        /**
+         * GATT事件环形记录的条数,大于0时记录连接、读写、通知等事件,可通过dumpGattEvents()导出
+         */
+        public int gattEventLogSize = 0;
         /**
          * 日志TAG，用于过滤日志信息
          */
@@ -535,6 +723,46 @@ public final class Ble<T extends BleDevice> {
          */
         @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
         public int manufacturerId = 65520; // 0xfff0
+        /**
+         * 自动模式分包发送时,每个设备允许同时未确认的数据包数(流控窗口)
+         */
+        public int writeWindowSize = 1;
+        /**
+         * 分包发送时进度回调的最小间隔(百分比),默认每1%回调一次
+         */
+        public int progressGranularity = 1;
+        /**
+         * 单次扫描最多缓存的设备数(超出时淘汰最久未出现的设备),小于等于0时不限制
+         */
+        public int maxScanDevices = 0;
+        /**
+         * 扫描结果批量回调间隔(ms),大于0时通过onBatchScanned合并回调,0为逐个回调onLeScan
+         */
+        public long scanBatchInterval = 0;
+        /**
+         * 扫描过滤条件(满足任意一个即可),能由蓝牙芯片过滤的条件会下发给芯片,其余在回调中过滤
+         */
+        public List<BleScanFilter> scanFilters = new ArrayList<>();
+        /**
+         * 自适应扫描:根据新设备发现情况、连接状态和电量间歇扫描,开启后扫描持续到stopScan(忽略scanPeriod)
+         */
+        public boolean adaptiveScan = false;
+        /**
+         * 连接多个设备时,同时处于连接中的最大设备数
+         */
+        public int maxConnectingCount = 3;
+        /**
+         * 自动重连的初始延迟(ms),连续失败时按指数增长
+         */
+        public long reconnectBaseDelay = 2000L;
+        /**
+         * 自动重连的最大延迟(ms)
+         */
+        public long reconnectMaxDelay = 60 * 1000L;
+        /**
+         * 每个设备缓冲的通知数,大于0时通知先复制到缓冲区,由专用线程回调(缓冲区满时丢弃);0为在binder线程中直接回调
+         */
+        public int notifyBufferSize = 0;
 
         public Options setScanPeriod(long scanPeriod){
             this.scanPeriod = scanPeriod;
@@ -559,6 +787,24 @@ public final class Ble<T extends BleDevice> {
             return this;
         }
 
+        public int getLogLevel() {
+            return logLevel;
+        }
+
+        public Options setLogLevel(int logLevel) {
+            this.logLevel = logLevel;
+            return this;
+        }
+
+        public int getGattEventLogSize() {
+            return gattEventLogSize;
+        }
+
+        public Options setGattEventLogSize(int gattEventLogSize) {
+            this.gattEventLogSize = gattEventLogSize;
+            return this;
+        }
+
         public boolean isThrowBleException() {
             return throwBleException;
         }
@@ -626,6 +872,101 @@ public final class Ble<T extends BleDevice> {
             return this;
         }
 
+        public int getWriteWindowSize() {
+            return writeWindowSize;
+        }
+
+        public Options setWriteWindowSize(int writeWindowSize) {
+            this.writeWindowSize = writeWindowSize;
+            return this;
+        }
+
+        public int getProgressGranularity() {
+            return progressGranularity;
+        }
+
+        public Options setProgressGranularity(int progressGranularity) {
+            this.progressGranularity = progressGranularity;
+            return this;
+        }
+
+        public int getMaxScanDevices() {
+            return maxScanDevices;
+        }
+
+        public Options setMaxScanDevices(int maxScanDevices) {
+            this.maxScanDevices = maxScanDevices;
+            return this;
+        }
+
+        public long getScanBatchInterval() {
+            return scanBatchInterval;
+        }
+
+        public Options setScanBatchInterval(long scanBatchInterval) {
+            this.scanBatchInterval = scanBatchInterval;
+            return this;
+        }
+
+        public List<BleScanFilter> getScanFilters() {
+            return scanFilters;
+        }
+
+        public Options setScanFilters(List<BleScanFilter> scanFilters) {
+            this.scanFilters = scanFilters;
+            return this;
+        }
+
+        public Options addScanFilter(BleScanFilter scanFilter) {
+            this.scanFilters.add(scanFilter);
+            return this;
+        }
+
+        public boolean isAdaptiveScan() {
+            return adaptiveScan;
+        }
+
+        public Options setAdaptiveScan(boolean adaptiveScan) {
+            this.adaptiveScan = adaptiveScan;
+            return this;
+        }
+
+        public int getMaxConnectingCount() {
+            return maxConnectingCount;
+        }
+
+        public Options setMaxConnectingCount(int maxConnectingCount) {
+            this.maxConnectingCount = maxConnectingCount;
+            return this;
+        }
+
+        public long getReconnectBaseDelay() {
+            return reconnectBaseDelay;
+        }
+
+        public Options setReconnectBaseDelay(long reconnectBaseDelay) {
+            this.reconnectBaseDelay = reconnectBaseDelay;
+            return this;
+        }
+
+        public long getReconnectMaxDelay() {
+            return reconnectMaxDelay;
+        }
+
+        public Options setReconnectMaxDelay(long reconnectMaxDelay) {
+            this.reconnectMaxDelay = reconnectMaxDelay;
+            return this;
+        }
+
+        public int getNotifyBufferSize() {
+            return notifyBufferSize;
+        }
+
+        public Options setNotifyBufferSize(int notifyBufferSize) {
+            this.notifyBufferSize = notifyBufferSize;
+            return this;
+        }
+
         @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
         public int getManufacturerId() {
             return manufacturerId;
@@ -4,9 +4,13 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 蓝牙日志类
+ * 参数中有拼接或十六进制转换的热点日志应先用{@link #isLoggable(Object, int)}判断,或使用格式化参数的重载,
+ * 关闭日志时不再产生字符串
  * Created by LiuLei on 2017/5/16.
  */
 
@@ -14,12 +18,45 @@ public class BleLog {
 
     public static String TAG = "AndroidBLE";
     public static boolean isDebug;
+    //输出的最低级别,同android.util.Log的级别
+    public static int level = Log.VERBOSE;
+    //按子模块(subTag)单独设置的最低级别
+    private static final Map<String, Integer> tagLevels = new ConcurrentHashMap<>();
 
     public static void init(){
         Ble.Options options = Ble.options();
         isDebug = options.logBleEnable;
+        level = options.logLevel;
         if (!TextUtils.isEmpty(options.logTAG))
             TAG = options.logTAG;
+        GattEventLog.init(options.gattEventLogSize);
+    }
+
+    /**
+     * 单独设置子模块的日志级别,如只输出WriteQueue的警告
+     * @param subTag 子模块TAG
+     * @param level android.util.Log的级别
+     */
+    public static void setTagLevel(String subTag, int level){
+        tagLevels.put(subTag, level);
+    }
+
+    public static void clearTagLevels(){
+        tagLevels.clear();
+    }
+
+    /**
+     * @return 该子模块的该级别日志是否会输出
+     */
+    public static boolean isLoggable(Object o, int level){
+        if (!isDebug) return false;
+        if (!tagLevels.isEmpty()) {
+            Integer tagLevel = tagLevels.get(getSubTag(o));
+            if (tagLevel != null) {
+                return level >= tagLevel;
+            }
+        }
+        return level >= BleLog.level;
     }
 
     private static String getSubTag(Object o){
@@ -35,29 +72,65 @@ public class BleLog {
     }
 
     public static void e(Object o, String msg){
-        if(isDebug){
+        if(isLoggable(o, Log.ERROR)){
             Log.e(TAG,buildMessge(getSubTag(o), msg));
         }
     }
 
+    /**
+     * 不输出时不格式化
+     */
+    public static void e(Object o, String format, Object... args){
+        if(isLoggable(o, Log.ERROR)){
+            Log.e(TAG,buildMessge(getSubTag(o), String.format(Locale.CHINA, format, args)));
+        }
+    }
+
     public static void i(Object o, String msg){
-        if(isDebug){
+        if(isLoggable(o, Log.INFO)){
             Log.i(TAG,buildMessge(getSubTag(o), msg));
         }
     }
 
+    /**
+     * 不输出时不格式化
+     */
+    public static void i(Object o, String format, Object... args){
+        if(isLoggable(o, Log.INFO)){
+            Log.i(TAG,buildMessge(getSubTag(o), String.format(Locale.CHINA, format, args)));
+        }
+    }
+
     public static void w(Object o, String msg){
-        if(isDebug){
+        if(isLoggable(o, Log.WARN)){
             Log.w(TAG,buildMessge(getSubTag(o), msg));
         }
     }
 
+    /**
+     * 不输出时不格式化
+     */
+    public static void w(Object o, String format, Object... args){
+        if(isLoggable(o, Log.WARN)){
+            Log.w(TAG,buildMessge(getSubTag(o), String.format(Locale.CHINA, format, args)));
+        }
+    }
+
     public static void d(Object o, String msg){
-        if(isDebug){
+        if(isLoggable(o, Log.DEBUG)){
             Log.d(TAG,buildMessge(getSubTag(o), msg));
         }
     }
 
+    /**
+     * 不输出时不格式化
+     */
+    public static void d(Object o, String format, Object... args){
+        if(isLoggable(o, Log.DEBUG)){
+            Log.d(TAG,buildMessge(getSubTag(o), String.format(Locale.CHINA, format, args)));
+        }
+    }
+
     private static String buildMessge(String subTag, String msg){
         return String.format(Locale.CHINA, "[%d] %s: %s",
                 Thread.currentThread().getId(), subTag, msg);
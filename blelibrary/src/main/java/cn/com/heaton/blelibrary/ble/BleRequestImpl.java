@@ -12,32 +12,37 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Build;
-import android.os.Handler;
-import android.support.v4.os.HandlerCompat;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import cn.com.heaton.blelibrary.BuildConfig;
+import cn.com.heaton.blelibrary.ble.callback.BleFutureCallback;
 import cn.com.heaton.blelibrary.ble.callback.wrapper.ConnectWrapperCallback;
-import cn.com.heaton.blelibrary.ble.callback.wrapper.MtuWrapperCallback;
 import cn.com.heaton.blelibrary.ble.callback.wrapper.NotifyWrapperCallback;
-import cn.com.heaton.blelibrary.ble.callback.wrapper.ReadRssiWrapperCallback;
-import cn.com.heaton.blelibrary.ble.callback.wrapper.ReadWrapperCallback;
-import cn.com.heaton.blelibrary.ble.callback.wrapper.WriteWrapperCallback;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.model.CharacteristicTable;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
+import cn.com.heaton.blelibrary.ble.queue.GattOperation;
+import cn.com.heaton.blelibrary.ble.queue.GattPipeline;
+import cn.com.heaton.blelibrary.ble.queue.NotifyBuffer;
+import cn.com.heaton.blelibrary.ble.queue.NotifyDispatcher;
+import cn.com.heaton.blelibrary.ble.queue.TimerWheel;
+import cn.com.heaton.blelibrary.ble.queue.WriteOperation;
+import cn.com.heaton.blelibrary.ble.queue.WriteQueue;
+import cn.com.heaton.blelibrary.ble.queue.WriteWindow;
 import cn.com.heaton.blelibrary.ble.request.ConnectRequest;
-import cn.com.heaton.blelibrary.ble.request.MtuRequest;
 import cn.com.heaton.blelibrary.ble.request.NotifyRequest;
-import cn.com.heaton.blelibrary.ble.request.ReadRequest;
 import cn.com.heaton.blelibrary.ble.request.Rproxy;
-import cn.com.heaton.blelibrary.ble.request.WriteRequest;
 import cn.com.heaton.blelibrary.ble.utils.ByteUtils;
 import cn.com.heaton.blelibrary.ota.OtaListener;
 
@@ -45,30 +50,41 @@ import cn.com.heaton.blelibrary.ota.OtaListener;
 public final class BleRequestImpl<T extends BleDevice> {
 
     private final static String TAG = BleRequestImpl.class.getSimpleName();
+    //写入时不修改特征的写入类型
+    public static final int WRITE_TYPE_UNCHANGED = 0;
+    //未协商时的默认MTU
+    public static final int DEFAULT_MTU = 23;
+    //ATT写入操作头部长度(opcode + handle)
+    public static final int ATT_HEADER_LENGTH = 3;
+    //属性值的最大长度
+    public static final int MAX_ATTRIBUTE_LENGTH = 512;
+    //Client Characteristic Configuration Descriptor
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
     private static BleRequestImpl instance;
-    private Handler handler = BleHandler.of();
     private Ble.Options options;
     private Context context;
     private BluetoothManager bluetoothManager;
     private BluetoothAdapter bluetoothAdapter;
-    private final Object locker = new Object();
-    private List<BluetoothGattCharacteristic> notifyCharacteristics = new ArrayList<>();//Notification attribute callback array
-    private int notifyIndex = 0;//Notification feature callback list
     private BluetoothGattCharacteristic otaWriteCharacteristic;//Ota ble send the object
     private boolean otaUpdating = false;//Whether the OTA is updated
-    private Map<String, BluetoothGattCharacteristic> writeCharacteristicMap = new HashMap<>();
-    private Map<String, BluetoothGattCharacteristic> readCharacteristicMap = new HashMap<>();
+    private Map<String, BluetoothGattCharacteristic> writeCharacteristicMap = new ConcurrentHashMap<>();
+    private Map<String, BluetoothGattCharacteristic> readCharacteristicMap = new ConcurrentHashMap<>();
+    //The characteristic routing table (and notify characteristics) of each device
+    private Map<String, CharacteristicTable> characteristicTables = new ConcurrentHashMap<>();
+    //Buffers notifications of each device and delivers them off the binder thread (null: deliver inline),
+    //nulled by release() on another thread, read it once into a local
+    private volatile NotifyDispatcher notifyDispatcher;
     //Multiple device connections must put the gatt object in the collection
-    private Map<String, BluetoothGatt> gattHashMap = new HashMap<>();
+    private Map<String, BluetoothGatt> gattHashMap = new ConcurrentHashMap<>();
+    //Serialized gatt operation queue of each device, no monitor is shared between devices
+    private Map<String, GattPipeline> pipelineMap = new ConcurrentHashMap<>();
+    //The negotiated mtu of each device
+    private Map<String, Integer> mtuMap = new ConcurrentHashMap<>();
     //The address of the connected device
-    private List<String> connectedAddressList = new ArrayList<>();
+    private List<String> connectedAddressList = new CopyOnWriteArrayList<>();
     private ConnectWrapperCallback connectWrapperCallback;
-    private NotifyWrapperCallback notifyWrapperCallback;
-    private MtuWrapperCallback mtuWrapperCallback;
-    private ReadRssiWrapperCallback readRssiWrapperCallback;
-    private ReadWrapperCallback readWrapperCallback;
-    private WriteWrapperCallback writeWrapperCallback;
+    private volatile NotifyWrapperCallback notifyWrapperCallback;
     private OtaListener otaListener;//Ota update operation listener
 
     private BleRequestImpl(){}
@@ -79,6 +95,7 @@ public final class BleRequestImpl<T extends BleDevice> {
         public void onConnectionStateChange(BluetoothGatt gatt, int status,
                                             int newState) {
             BluetoothDevice device = gatt.getDevice();
+            GattEventLog.record(GattEventLog.CONNECTION_STATE, device.getAddress(), null, status, newState);
             //remove timeout callback
             cancelTimeout(device.getAddress());
             //There is a problem here Every time a new object is generated that causes the same device to be disconnected and the connection produces two objects
@@ -117,65 +134,62 @@ public final class BleRequestImpl<T extends BleDevice> {
         @TargetApi(Build.VERSION_CODES.LOLLIPOP)
         public void onMtuChanged(android.bluetooth.BluetoothGatt gatt, int mtu, int status){
             if (gatt != null && gatt.getDevice() != null) {
-                BleLog.e(TAG, "onMtuChanged mtu=" + mtu + ",status=" + status);
-                if (null != mtuWrapperCallback){
-                    mtuWrapperCallback.onMtuChanged(gatt.getDevice(), mtu, status);
+                GattEventLog.record(GattEventLog.MTU_CHANGED, gatt.getDevice().getAddress(), null, status, mtu);
+                BleLog.e(TAG, "onMtuChanged mtu=%d,status=%d", mtu, status);
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    mtuMap.put(gatt.getDevice().getAddress(), mtu);
                 }
+                completeOperation(gatt, GattEventLog.MTU_CHANGED, null, status, mtu);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            GattEventLog.record(GattEventLog.SERVICES_DISCOVERED, gatt.getDevice().getAddress(), null, status, 0);
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (connectWrapperCallback != null) {
                     connectWrapperCallback.onServicesDiscovered(gatt.getDevice());
                 }
-                //Empty the notification attribute list
-                notifyCharacteristics.clear();
-                notifyIndex = 0;
                 //Start setting notification feature
                 displayGattServices(gatt.getDevice(), getSupportedGattServices(gatt.getDevice().getAddress()));
             } else {
                 BleLog.e(TAG, "onServicesDiscovered received: " + status);
+                //没有服务的连接无法使用,断开后由断开回调释放连接名额(并按设置重连)
+                if (connectWrapperCallback != null) {
+                    connectWrapperCallback.onConnectException(gatt.getDevice());
+                }
+                disconnect(gatt.getDevice().getAddress());
             }
         }
 
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic, int status) {
-            BleLog.d(TAG, "onCharacteristicRead:" + status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (null != readWrapperCallback){
-                    readWrapperCallback.onReadSuccess(gatt.getDevice(), characteristic);
-                }
-            }else {
-                if (null != readWrapperCallback){
-                    readWrapperCallback.onReadFailed(gatt.getDevice(), "读取失败,status:"+status);
-                }
+            byte[] value = characteristic.getValue();
+            GattEventLog.record(GattEventLog.CHARACTERISTIC_READ, gatt.getDevice().getAddress(),
+                    characteristic.getUuid(), status, value != null ? value.length : 0);
+            if (BleLog.isLoggable(TAG, Log.DEBUG)) {
+                BleLog.d(TAG, "onCharacteristicRead:%d", status);
             }
+            completeOperation(gatt, GattEventLog.CHARACTERISTIC_READ, characteristic.getUuid(), status, value != null ? value.clone() : null);
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt,
                                           BluetoothGattCharacteristic characteristic, int status) {
-            BleLog.i(TAG, "--------write success----- status:" + status);
-            synchronized (locker) {
-                BleLog.i(TAG, gatt.getDevice().getAddress() + " -- onCharacteristicWrite: " + status);
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    if (null != writeWrapperCallback){
-                        writeWrapperCallback.onWriteSuccess(gatt.getDevice(), characteristic);
-                    }
-                    if (options.uuid_ota_write_cha.equals(characteristic.getUuid())) {
-                        if (otaListener != null) {
-                            otaListener.onWrite();
-                        }
-                    }
-                }else {
-                    if (null != writeWrapperCallback){
-                        writeWrapperCallback.onWiteFailed(gatt.getDevice(), "写入失败,status:"+status);
+            GattEventLog.record(GattEventLog.CHARACTERISTIC_WRITE, gatt.getDevice().getAddress(),
+                    characteristic.getUuid(), status, 0);
+            if (BleLog.isLoggable(TAG, Log.INFO)) {
+                BleLog.i(TAG, "%s -- onCharacteristicWrite: %d", gatt.getDevice().getAddress(), status);
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                if (options.uuid_ota_write_cha.equals(characteristic.getUuid())) {
+                    if (otaListener != null) {
+                        otaListener.onWrite();
                     }
                 }
             }
+            completeOperation(gatt, GattEventLog.CHARACTERISTIC_WRITE, characteristic.getUuid(), status, null);
         }
 
         /**
@@ -187,17 +201,26 @@ public final class BleRequestImpl<T extends BleDevice> {
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
-            synchronized (locker) {
-                if (gatt.getDevice() == null)return;
-                BleLog.i(TAG, gatt.getDevice().getAddress() + " -- onCharacteristicChanged: "
-                        + (characteristic.getValue() != null ? ByteUtils.BinaryToHexString(characteristic.getValue()) : ""));
-                if (notifyWrapperCallback != null) {
-                    notifyWrapperCallback.onChanged(gatt.getDevice(), characteristic);
-                }
-                if (options.uuid_ota_write_cha.equals(characteristic.getUuid()) || options.uuid_ota_notify_cha.equals(characteristic.getUuid())) {
-                    if (otaListener != null) {
-                        otaListener.onChange(characteristic.getValue());
-                    }
+            if (gatt.getDevice() == null)return;
+            byte[] value = characteristic.getValue();
+            GattEventLog.record(GattEventLog.CHARACTERISTIC_CHANGED, gatt.getDevice().getAddress(),
+                    characteristic.getUuid(), BluetoothGatt.GATT_SUCCESS, value != null ? value.length : 0);
+            //高频通知时避免在binder线程格式化整包数据
+            if (BleLog.isLoggable(TAG, Log.DEBUG)) {
+                BleLog.d(TAG, gatt.getDevice().getAddress() + " -- onCharacteristicChanged: "
+                        + (value != null ? ByteUtils.BinaryToHexString(value) : ""));
+            }
+            NotifyDispatcher dispatcher = notifyDispatcher;
+            NotifyWrapperCallback callback = notifyWrapperCallback;
+            if (dispatcher != null) {
+                //只复制到设备的环形缓冲区,立即返回
+                dispatcher.dispatch(gatt.getDevice(), characteristic, value);
+            } else if (callback != null) {
+                callback.onChanged(gatt.getDevice(), characteristic, value);
+            }
+            if (options.uuid_ota_write_cha.equals(characteristic.getUuid()) || options.uuid_ota_notify_cha.equals(characteristic.getUuid())) {
+                if (otaListener != null) {
+                    otaListener.onChange(characteristic.getValue());
                 }
             }
         }
@@ -206,27 +229,16 @@ public final class BleRequestImpl<T extends BleDevice> {
         public void onDescriptorWrite(BluetoothGatt gatt,
                                       BluetoothGattDescriptor descriptor, int status) {
             UUID uuid = descriptor.getCharacteristic().getUuid();
-            BleLog.i(TAG, "onDescriptorWrite");
-            BleLog.i(TAG, "descriptor_uuid:" + uuid);
-            synchronized (locker) {
-                BleLog.w(TAG, " -- onDescriptorWrite: " + status);
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    if (notifyCharacteristics.size() > 0 && notifyIndex < notifyCharacteristics.size()) {
-                        setCharacteristicNotification(gatt.getDevice().getAddress(), true);
-                    } else {
-                        BleLog.i(TAG, "====setCharacteristicNotification is completed===");
-                        if (notifyWrapperCallback != null) {
-                            if (Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)
-                                    || Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.ENABLE_INDICATION_VALUE)){
-                                notifyWrapperCallback.onNotifySuccess(gatt.getDevice());
-                            }else if (Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)){
-                                notifyWrapperCallback.onNotifyCanceled(gatt.getDevice());
-                            }
-
-                        }
-                    }
-                }
+            GattEventLog.record(GattEventLog.DESCRIPTOR_WRITE, gatt.getDevice().getAddress(), uuid, status, 0);
+            if (BleLog.isLoggable(TAG, Log.INFO)) {
+                BleLog.i(TAG, "onDescriptorWrite");
+                BleLog.i(TAG, "descriptor_uuid:%s", uuid);
             }
+            if (BleLog.isLoggable(TAG, Log.WARN)) {
+                BleLog.w(TAG, " -- onDescriptorWrite: %d", status);
+            }
+            //结果由本次通知设置(NotifySetup)统一汇总
+            completeOperation(gatt, GattEventLog.DESCRIPTOR_WRITE, uuid, status, null);
         }
 
         @Override
@@ -239,13 +251,45 @@ public final class BleRequestImpl<T extends BleDevice> {
 
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            BleLog.i(TAG, "rssi="+rssi);
-            if (null != readRssiWrapperCallback){
-                readRssiWrapperCallback.onReadRssiSuccess(gatt.getDevice(), rssi);
+            GattEventLog.record(GattEventLog.READ_RSSI, gatt.getDevice().getAddress(), null, status, rssi);
+            if (BleLog.isLoggable(TAG, Log.INFO)) {
+                BleLog.i(TAG, "rssi=%d", rssi);
             }
+            completeOperation(gatt, GattEventLog.READ_RSSI, null, status, rssi);
         }
     };
 
+    /**
+     * 当前GATT操作的回调已经到达,继续执行该设备队列中的下一个操作
+     * @param gatt 回调所属的gatt对象
+     * @param event 回调事件,用于识别超时后才到达的回调
+     * @param uuid 回调所属的特征UUID,可为null
+     * @param status 回调状态
+     * @param value 操作结果,交给操作绑定的{@link BleFuture}
+     */
+    private void completeOperation(BluetoothGatt gatt, int event, UUID uuid, int status, Object value) {
+        if (gatt == null || gatt.getDevice() == null) return;
+        GattPipeline pipeline = pipelineMap.get(gatt.getDevice().getAddress());
+        if (pipeline != null) {
+            pipeline.complete(event, uuid, status, value);
+        }
+    }
+
+    /**
+     * 将GATT操作加入对应设备的操作队列
+     * @param address 蓝牙地址
+     * @param operation GATT操作
+     * @return 是否提交成功(排队中的操作视为成功)
+     */
+    private boolean enqueueOperation(String address, GattOperation operation) {
+        GattPipeline pipeline = pipelineMap.get(address);
+        if (pipeline == null) {
+            BleLog.e(TAG, address + " -- gatt pipeline is null");
+            return false;
+        }
+        return pipeline.enqueue(operation);
+    }
+
     /**
      *
      * @return 已经连接的设备集合
@@ -263,14 +307,21 @@ public final class BleRequestImpl<T extends BleDevice> {
     }
 
     boolean initialize(Context context) {
-        this.connectWrapperCallback = Rproxy.getRequest(ConnectRequest.class);
-        this.notifyWrapperCallback = Rproxy.getRequest(NotifyRequest.class);
-        this.mtuWrapperCallback = Rproxy.getRequest(MtuRequest.class);
-        this.readWrapperCallback = Rproxy.getRequest(ReadRequest.class);
-        this.readRssiWrapperCallback = Rproxy.getRequest(ReadRssiWrapperCallback.class);
-        this.writeWrapperCallback = Rproxy.getRequest(WriteRequest.class);
+        this.connectWrapperCallback = Rproxy.getConnectRequest();
+        this.notifyWrapperCallback = Rproxy.getNotifyRequest();
         this.context = context;
         this.options = Ble.options();
+        if (notifyDispatcher == null && options.notifyBufferSize > 0) {
+            notifyDispatcher = new NotifyDispatcher(options.notifyBufferSize, new NotifyDispatcher.Receiver() {
+                @Override
+                public void onChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value) {
+                    NotifyWrapperCallback callback = notifyWrapperCallback;
+                    if (callback != null) {
+                        callback.onChanged(device, characteristic, value);
+                    }
+                }
+            });
+        }
 
         if (bluetoothManager == null) {
             bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
@@ -289,17 +340,20 @@ public final class BleRequestImpl<T extends BleDevice> {
 
     void release() {
         connectWrapperCallback = null;
-        mtuWrapperCallback = null;
         notifyWrapperCallback = null;
-        readRssiWrapperCallback = null;
-        readWrapperCallback = null;
-        writeWrapperCallback = null;
-        handler.removeCallbacksAndMessages(null);
+        for (String address : gattHashMap.keySet()) {
+            cancelTimeout(address);
+        }
+        NotifyDispatcher dispatcher = notifyDispatcher;
+        notifyDispatcher = null;
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
         BleLog.e(TAG, "BleRequestImpl is released");
     }
 
     public void cancelTimeout(String address){
-        handler.removeCallbacksAndMessages(address);
+        TimerWheel.getInstance().cancel(address);
     }
 
     /**
@@ -330,13 +384,13 @@ public final class BleRequestImpl<T extends BleDevice> {
             return false;
         }
         //10s after the timeout prompt
-        HandlerCompat.postDelayed(handler, new Runnable() {
+        TimerWheel.getInstance().schedule(new Runnable() {
             @Override
             public void run() {
                 connectWrapperCallback.onConnectTimeOut(device);
                 close(device.getAddress());
             }
-        }, device.getAddress(), options.connectTimeout);
+        }, options.connectTimeout, device.getAddress());
         if (connectWrapperCallback != null){
             connectWrapperCallback.onConnectionChanged(device, BleStates.BleStatus.CONNECTING);
         }
@@ -344,6 +398,7 @@ public final class BleRequestImpl<T extends BleDevice> {
         BluetoothGatt bluetoothGatt = device.connectGatt(context, this.options.autoConnect, gattCallback);
         if (bluetoothGatt != null) {
             gattHashMap.put(address, bluetoothGatt);
+            pipelineMap.put(address, new GattPipeline(address, bluetoothGatt));
             BleLog.d(TAG, "Trying to create a new connection.");
             return true;
         }
@@ -363,8 +418,7 @@ public final class BleRequestImpl<T extends BleDevice> {
             return;
         }
         gattHashMap.get(address).disconnect();
-        notifyIndex = 0;
-        notifyCharacteristics.clear();
+        characteristicTables.remove(address);
         writeCharacteristicMap.remove(address);
         readCharacteristicMap.remove(address);
         otaWriteCharacteristic = null;
@@ -377,27 +431,74 @@ public final class BleRequestImpl<T extends BleDevice> {
      */
     public void close(String address) {
         connectedAddressList.remove(address);
-        if (gattHashMap.get(address) != null) {
-            gattHashMap.get(address).close();
-            gattHashMap.remove(address);
+        mtuMap.remove(address);
+        characteristicTables.remove(address);
+        NotifyDispatcher dispatcher = notifyDispatcher;
+        if (dispatcher != null) {
+            dispatcher.remove(address);
+        }
+        //断开后排队中的写入不再执行
+        WriteQueue.getInstance().remove(address);
+        GattPipeline pipeline = pipelineMap.remove(address);
+        if (pipeline != null) {
+            pipeline.release();
+        }
+        BluetoothGatt gatt = gattHashMap.remove(address);
+        if (gatt != null) {
+            gatt.close();
         }
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    public boolean setMtu(String address, int mtu){
+    public boolean setMtu(String address, final int mtu){
+        return setMtu(address, mtu, null);
+    }
+
+    /**
+     * @param future 结果句柄,结果为协商后的mtu,可为null
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public boolean setMtu(String address, final int mtu, BleFuture<Integer> future){
         if (verifyParams(address)) return false;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP){
             if(mtu>20){
-                if (gattHashMap.get(address) != null) {
-                    boolean result = gattHashMap.get(address).requestMtu(mtu);
-                    BleLog.d(TAG,"requestMTU "+mtu+" result="+result);
-                    return result;
-                }
+                boolean result = enqueueOperation(address, new GattOperation() {
+                    @Override
+                    public boolean execute(BluetoothGatt gatt) {
+                        return gatt.requestMtu(mtu);
+                    }
+                }.expect(GattEventLog.MTU_CHANGED, null).setFuture(future));
+                BleLog.d(TAG,"requestMTU "+mtu+" result="+result);
+                return result;
             }
         }
         return false;
     }
 
+    /**
+     * @return 是否有已连接的设备
+     */
+    public boolean hasConnectedDevice() {
+        return !connectedAddressList.isEmpty();
+    }
+
+    /**
+     * 获取设备当前协商的MTU
+     * @param address 蓝牙地址
+     * @return 已协商的MTU,未协商时返回{@link #DEFAULT_MTU}
+     */
+    public int getMtu(String address) {
+        Integer mtu = mtuMap.get(address);
+        return mtu != null ? mtu : DEFAULT_MTU;
+    }
+
+    /**
+     * @return 单次写入的最大数据长度,即MTU-3,不超过属性值最大长度512
+     */
+    public int getMaxWriteLength(String address) {
+        return Math.min(getMtu(address) - ATT_HEADER_LENGTH, MAX_ATTRIBUTE_LENGTH);
+    }
+
     /**
      * 清除所有可连接的设备
      */
@@ -407,7 +508,17 @@ public final class BleRequestImpl<T extends BleDevice> {
             if (gattHashMap.get(address) != null) {
                 gattHashMap.get(address).close();
             }
+            NotifyDispatcher dispatcher = notifyDispatcher;
+            if (dispatcher != null) {
+                dispatcher.remove(address);
+            }
+        }
+        for (GattPipeline pipeline : pipelineMap.values()) {
+            pipeline.release();
         }
+        pipelineMap.clear();
+        mtuMap.clear();
+        WriteQueue.getInstance().clear();
         gattHashMap.clear();
         connectedAddressList.clear();
     }
@@ -433,6 +544,22 @@ public final class BleRequestImpl<T extends BleDevice> {
         return false;
     }
 
+    /**
+     * @return 设备的通知缓冲区统计(丢弃数、延迟),未开启通知缓冲或还没有收到通知时为null
+     */
+    public NotifyBuffer getNotifyBuffer(String address) {
+        NotifyDispatcher dispatcher = notifyDispatcher;
+        return dispatcher != null ? dispatcher.getBuffer(address) : null;
+    }
+
+    /**
+     * 清理系统的GATT缓存,设备固件升级(服务或特征改变)后调用,下次发现服务时重新读取设备的服务
+     * @return 系统GATT缓存是否清理成功(设备未连接时为false)
+     */
+    public boolean invalidateServiceCache(String address) {
+        return refreshDeviceCache(address);
+    }
+
 
     /**
      * 写入数据
@@ -442,17 +569,82 @@ public final class BleRequestImpl<T extends BleDevice> {
      * @return 写入是否成功(这个是客户端的主观认为)
      */
     public boolean wirteCharacteristic(String address, byte[] value) {
+        return wirteCharacteristic(address, value, GattOperation.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * 按指定优先级写入数据
+     *
+     * @param address  蓝牙地址
+     * @param value    发送的字节数组
+     * @param priority 优先级,如{@link GattOperation#PRIORITY_CONTROL}
+     * @return 写入是否成功(这个是客户端的主观认为)
+     */
+    public boolean wirteCharacteristic(String address, byte[] value, int priority) {
+        return wirteCharacteristic(address, value, WRITE_TYPE_UNCHANGED, null, priority);
+    }
+
+    /**
+     * 写入数据(流控模式)
+     *
+     * @param address   蓝牙地址
+     * @param value     发送的字节数组
+     * @param writeType 写入类型,如{@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE},
+     *                  {@link #WRITE_TYPE_UNCHANGED}表示使用特征当前的写入类型
+     * @param window    写入窗口,该包被确认或失败后归还信用,可为null
+     * @param priority  优先级,大数据分包使用{@link GattOperation#PRIORITY_BULK}
+     * @return 写入是否成功(这个是客户端的主观认为)
+     */
+    public boolean wirteCharacteristic(String address, byte[] value, int writeType, WriteWindow window, int priority) {
+        return wirteCharacteristic(address, value, writeType, window, priority, null);
+    }
+
+    /**
+     * @param future 结果句柄,可为null
+     */
+    public boolean wirteCharacteristic(String address, byte[] value, int writeType, WriteWindow window, int priority,
+                                       BleFuture<Void> future) {
+        return wirteCharacteristic(address, null, null, value, writeType, window, priority, future);
+    }
+
+    /**
+     * 向指定特征写入数据
+     *
+     * @param address            蓝牙地址
+     * @param serviceUuid        服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID,为null时使用Options中配置的写入特征
+     * @param value              发送的字节数组
+     * @param writeType          写入类型,{@link #WRITE_TYPE_UNCHANGED}表示使用特征当前的写入类型
+     * @param window             写入窗口,可为null
+     * @param priority           优先级
+     * @param future             结果句柄,可为null
+     * @return 写入是否成功(这个是客户端的主观认为)
+     */
+    public boolean wirteCharacteristic(String address, UUID serviceUuid, UUID characteristicUuid, byte[] value,
+                                       int writeType, WriteWindow window, int priority, BleFuture<Void> future) {
+        return wirteCharacteristic(address, serviceUuid, characteristicUuid, new WriteOperation(priority),
+                value, writeType, window, future);
+    }
+
+    /**
+     * 使用复用的写入操作写入数据(大数据分包,见{@link WriteOperation#obtain(WriteOperation[], int, int)})
+     *
+     * @param operation 写入操作,回调到达前不能再次使用
+     * @return 写入是否成功(这个是客户端的主观认为)
+     */
+    public boolean wirteCharacteristic(String address, UUID serviceUuid, UUID characteristicUuid, WriteOperation operation,
+                                       byte[] value, int writeType, WriteWindow window, BleFuture<Void> future) {
         if (verifyParams(address)) return false;
-        BluetoothGattCharacteristic gattCharacteristic = writeCharacteristicMap.get(address);
+        BluetoothGattCharacteristic gattCharacteristic = characteristicUuid == null
+                ? writeCharacteristicMap.get(address) : getCharacteristic(address, serviceUuid, characteristicUuid);
         if (gattCharacteristic != null) {
             try {
-                if (options.uuid_write_cha.equals(gattCharacteristic.getUuid())) {
-                    gattCharacteristic.setValue(value);
-                    boolean result = gattHashMap.get(address).writeCharacteristic(gattCharacteristic);
+                boolean result = enqueueOperation(address, operation.set(gattCharacteristic, value, writeType, window).setFuture(future));
+                if (BleLog.isLoggable(TAG, Log.DEBUG)) {
                     BleLog.d(TAG, address + " -- write data:" + Arrays.toString(value));
-                    BleLog.d(TAG, address + " -- write result:" + result);
-                    return result;
+                    BleLog.d(TAG, "%s -- write result:%b", address, result);
                 }
+                return result;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -461,6 +653,10 @@ public final class BleRequestImpl<T extends BleDevice> {
 
     }
 
+    private GattOperation newWriteOperation(BluetoothGattCharacteristic characteristic, byte[] value, int priority) {
+        return new WriteOperation(priority).set(characteristic, value, WRITE_TYPE_UNCHANGED, null);
+    }
+
     /**
      * 读取数据
      *
@@ -468,15 +664,41 @@ public final class BleRequestImpl<T extends BleDevice> {
      * @return 读取是否成功(这个是客户端的主观认为)
      */
     public boolean readCharacteristic(String address) {
+        return readCharacteristic(address, null);
+    }
+
+    /**
+     * @param future 结果句柄,结果为读取到的数据,可为null
+     */
+    public boolean readCharacteristic(String address, BleFuture<byte[]> future) {
+        return readCharacteristic(address, null, null, future);
+    }
+
+    /**
+     * 读取指定特征
+     *
+     * @param address            蓝牙地址
+     * @param serviceUuid        服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID,为null时使用Options中配置的读取特征
+     * @param future             结果句柄,结果为读取到的数据,可为null
+     * @return 读取是否成功(这个是客户端的主观认为)
+     */
+    public boolean readCharacteristic(String address, UUID serviceUuid, UUID characteristicUuid, BleFuture<byte[]> future) {
         if (verifyParams(address)) return false;
-        BluetoothGattCharacteristic gattCharacteristic = readCharacteristicMap.get(address);
-        if (gattCharacteristic != null) {
+        final BluetoothGattCharacteristic characteristic = characteristicUuid == null
+                ? readCharacteristicMap.get(address) : getCharacteristic(address, serviceUuid, characteristicUuid);
+        if (characteristic != null) {
             try {
-                if (options.uuid_read_cha.equals(gattCharacteristic.getUuid())) {
-                    boolean result = gattHashMap.get(address).readCharacteristic(gattCharacteristic);
-                    BleLog.d(TAG, address + " -- read result:" + result);
-                    return result;
+                boolean result = enqueueOperation(address, new GattOperation() {
+                    @Override
+                    public boolean execute(BluetoothGatt gatt) {
+                        return gatt.readCharacteristic(characteristic);
+                    }
+                }.expect(GattEventLog.CHARACTERISTIC_READ, characteristic.getUuid()).setFuture(future));
+                if (BleLog.isLoggable(TAG, Log.DEBUG)) {
+                    BleLog.d(TAG, "%s -- read result:%b", address, result);
                 }
+                return result;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -498,12 +720,26 @@ public final class BleRequestImpl<T extends BleDevice> {
      * @return 是否读取RSSI成功(这个是客户端的主观认为)
      */
     public boolean readRssi(String address) {
+        return readRssi(address, null);
+    }
+
+    /**
+     * @param future 结果句柄,结果为rssi,可为null
+     */
+    public boolean readRssi(String address, BleFuture<Integer> future) {
         if (verifyParams(address)) return false;
         BluetoothGattCharacteristic gattCharacteristic = readCharacteristicMap.get(address);
         if (gattCharacteristic != null) {
             try {
-                boolean result = gattHashMap.get(address).readRemoteRssi();
-                BleLog.d(TAG, address + " -- read result:" + result);
+                boolean result = enqueueOperation(address, new GattOperation() {
+                    @Override
+                    public boolean execute(BluetoothGatt gatt) {
+                        return gatt.readRemoteRssi();
+                    }
+                }.expect(GattEventLog.READ_RSSI, null).setFuture(future));
+                if (BleLog.isLoggable(TAG, Log.DEBUG)) {
+                    BleLog.d(TAG, "%s -- read result:%b", address, result);
+                }
                 return result;
             } catch (Exception e) {
                 e.printStackTrace();
@@ -521,29 +757,130 @@ public final class BleRequestImpl<T extends BleDevice> {
      */
     public void setCharacteristicNotification(String address, boolean enabled) {
         if (verifyParams(address)) return;
-        if (notifyCharacteristics.size() > 0 && notifyIndex < notifyCharacteristics.size()){
-            BluetoothGattCharacteristic characteristic = notifyCharacteristics.get(notifyIndex++);
-            setCharacteristicNotificationInternal(gattHashMap.get(address), characteristic, enabled);
-        }
-    }
-
-    private void setCharacteristicNotificationInternal(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, boolean enabled){
-        gatt.setCharacteristicNotification(characteristic, enabled);
-        //If the number of descriptors in the eigenvalue of the notification is greater than zero
-        if (characteristic.getDescriptors().size() > 0) {
-            //Filter descriptors based on the uuid of the descriptor
-            List<BluetoothGattDescriptor> descriptors = characteristic.getDescriptors();
-            for(BluetoothGattDescriptor descriptor : descriptors){
-                if (descriptor != null) {
-                    //Write the description value
-                    if((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0){
-                        descriptor.setValue(enabled?BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE:BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                    }else if((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0){
-                        descriptor.setValue(enabled?BluetoothGattDescriptor.ENABLE_INDICATION_VALUE:BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                    }
-                    gatt.writeDescriptor(descriptor);
-                    BleLog.i(TAG, "setCharacteristicNotificationInternal is "+enabled);
+        CharacteristicTable table = characteristicTables.get(address);
+        if (table != null) {
+            setNotification(address, null, table.getNotifyCharacteristics(), enabled);
+        }
+    }
+
+    /**
+     * 启用或禁用指定特征的通知
+     *
+     * @param address            蓝牙地址
+     * @param serviceUuid        服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID
+     * @param enabled            是否设置通知使能
+     * @return 是否找到该特征
+     */
+    public boolean setCharacteristicNotification(String address, UUID serviceUuid, UUID characteristicUuid, boolean enabled) {
+        if (verifyParams(address)) return false;
+        BluetoothGattCharacteristic characteristic = getCharacteristic(address, serviceUuid, characteristicUuid);
+        if (characteristic == null) {
+            BleLog.e(TAG, address + " -- characteristic not found: " + characteristicUuid);
+            return false;
+        }
+        setNotification(address, characteristicUuid, Collections.singletonList(characteristic), enabled);
+        return true;
+    }
+
+    /**
+     * 所有特征的CCCD写入一次性提交到该设备的GATT队列,由队列连续执行,不再等上一个回调后才提交下一个;
+     * 全部完成后只回调一次结果(包含耗时)
+     */
+    private void setNotification(String address, UUID characteristicUuid, List<BluetoothGattCharacteristic> characteristics, final boolean enabled) {
+        BluetoothGatt gatt = gattHashMap.get(address);
+        if (gatt == null) return;
+        NotifySetup setup = new NotifySetup(gatt.getDevice(), characteristicUuid, enabled);
+        for (BluetoothGattCharacteristic characteristic : characteristics) {
+            final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+            if (descriptor == null) {
+                BleLog.w(TAG, address + " -- no CCCD for " + characteristic.getUuid());
+                continue;
+            }
+            gatt.setCharacteristicNotification(characteristic, enabled);
+            final byte[] value;
+            if (!enabled) {
+                value = BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+            } else if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+                value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+            } else {
+                value = BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+            }
+            BleFuture<Void> future = new BleFuture<>();
+            setup.add(future);
+            boolean result = enqueueOperation(address, new GattOperation() {
+                @Override
+                public boolean execute(BluetoothGatt gatt) {
+                    descriptor.setValue(value);
+                    return gatt.writeDescriptor(descriptor);
                 }
+            }.expect(GattEventLog.DESCRIPTOR_WRITE, characteristic.getUuid()).setFuture(future));
+            if (!result && !future.isDone()) {
+                //没有操作队列(已断开),不会再有回调
+                setup.onFailure("gatt pipeline is null");
+            }
+        }
+        BleLog.i(TAG, address + " -- set notification " + enabled + ", count:" + setup.count);
+        setup.arm();
+    }
+
+    /**
+     * 一次通知设置的状态,每个设备、每次设置独立,所有CCCD写入完成(成功或失败)后回调一次
+     */
+    private final class NotifySetup extends BleFutureCallback<Void> {
+        private final BluetoothDevice device;
+        //只设置单个特征时为该特征的UUID,结果交给该特征的回调
+        private final UUID characteristicUuid;
+        private final boolean enabled;
+        private final long startTime = SystemClock.elapsedRealtime();
+        //未完成的写入数,初始的1在全部提交后才减去,避免提交过程中提前完成
+        private int pending = 1;
+        private int count;
+        private int failed;
+
+        NotifySetup(BluetoothDevice device, UUID characteristicUuid, boolean enabled) {
+            this.device = device;
+            this.characteristicUuid = characteristicUuid;
+            this.enabled = enabled;
+        }
+
+        synchronized void add(BleFuture<Void> future) {
+            pending++;
+            count++;
+            future.addCallback(this);
+        }
+
+        void arm() {
+            onWritten(true, false);
+        }
+
+        @Override
+        public void onSuccess(Void value) {
+            onWritten(true, true);
+        }
+
+        @Override
+        public void onFailure(String message) {
+            BleLog.e(TAG, device.getAddress() + " -- CCCD write failed: " + message);
+            onWritten(false, true);
+        }
+
+        private void onWritten(boolean success, boolean counted) {
+            synchronized (this) {
+                if (counted && !success) failed++;
+                if (--pending > 0) return;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - startTime;
+            BleLog.i(TAG, device.getAddress() + " -- notification " + (enabled ? "enabled" : "disabled")
+                    + ", count:" + count + ", failed:" + failed + ", elapsed:" + elapsed + "ms");
+            NotifyWrapperCallback callback = notifyWrapperCallback;
+            if (callback == null) return;
+            if (!enabled) {
+                callback.onNotifyCanceled(device, characteristicUuid);
+            } else if (failed == 0) {
+                callback.onNotifySuccess(device, characteristicUuid, elapsed);
+            } else {
+                callback.onNotifyFailed(device, characteristicUuid, failed + "/" + count + " notify characteristics failed");
             }
         }
     }
@@ -563,11 +900,14 @@ public final class BleRequestImpl<T extends BleDevice> {
             disconnect(device.getAddress());
             return;
         }
+        //所有服务的特征都进入路由表,可按(服务UUID, 特征UUID)访问
+        CharacteristicTable table = new CharacteristicTable(gattServices);
+        characteristicTables.put(device.getAddress(), table);
         // Loops through available GATT Services.
         for (BluetoothGattService gattService : gattServices) {
-            String uuid = gattService.getUuid().toString();
+            UUID uuid = gattService.getUuid();
             BleLog.d(TAG, "discovered gattServices: " + uuid);
-            if (uuid.equals(options.uuid_service.toString()) || isContainUUID(uuid)) {
+            if (uuid.equals(options.uuid_service) || isContainUUID(uuid)) {
                 BleLog.d(TAG, "service_uuid: " + uuid);
                 List<BluetoothGattCharacteristic> gattCharacteristics = gattService.getCharacteristics();
                 for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
@@ -588,58 +928,64 @@ public final class BleRequestImpl<T extends BleDevice> {
                         Log.e(TAG, "The PROPERTY_INDICATE characteristic's UUID:" + gattCharacteristic.getUuid());
                         mNotifyCharacteristics.add(gattCharacteristic);
                     }*/
-                    uuid = gattCharacteristic.getUuid().toString();
+                    uuid = gattCharacteristic.getUuid();
                     BleLog.d(TAG, "Characteristic_uuid: " + uuid);
-                    if (uuid.equals(options.uuid_write_cha.toString())) {
-                        BleLog.e("mWriteCharacteristic", uuid);
+                    if (uuid.equals(options.uuid_write_cha)) {
+                        BleLog.e("mWriteCharacteristic", uuid.toString());
                         writeCharacteristicMap.put(device.getAddress(), gattCharacteristic);
                         //Notification feature
-                    } if (uuid.equals(options.uuid_read_cha.toString())) {
-                        BleLog.e("mReadCharacteristic", uuid);
+                    } if (uuid.equals(options.uuid_read_cha)) {
+                        BleLog.e("mReadCharacteristic", uuid.toString());
                         readCharacteristicMap.put(device.getAddress(), gattCharacteristic);
                         //Notification feature
                     } if ((gattCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-                        notifyCharacteristics.add(gattCharacteristic);
+                        table.addNotifyCharacteristic(gattCharacteristic);
                         BleLog.e("mNotifyCharacteristics", "PROPERTY_NOTIFY");
                     } if((gattCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0){
-                        notifyCharacteristics.add(gattCharacteristic);
+                        table.addNotifyCharacteristic(gattCharacteristic);
                         BleLog.e("mNotifyCharacteristics", "PROPERTY_INDICATE");
                     }
                 }
-                /*//Really set up notifications
-                if (notifyCharacteristics != null && notifyCharacteristics.size() > 0) {
-                    BleLog.e("setCharaNotification", "setCharaNotification");
-                    setCharacteristicNotification(address, notifyCharacteristics.get(notifyIndex++), true);
-                }*/
-                if (null != connectWrapperCallback){
-                    connectWrapperCallback.onReady(device);
-                }
             }
         }
+        //所有服务处理完成后只回调一次
+        if (null != connectWrapperCallback){
+            connectWrapperCallback.onReady(device);
+        }
     }
 
     //是否包含该uuid
-    private boolean isContainUUID(String uuid) {
+    private boolean isContainUUID(UUID uuid) {
         for (UUID u : options.uuid_services_extra){
-            if(u != null && uuid.equals(u.toString())){
+            if(uuid.equals(u)){
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * 从设备的特征路由表中查找特征
+     * @param address 蓝牙地址
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID
+     * @return 特征对象,未发现服务或不存在时为null
+     */
+    public BluetoothGattCharacteristic getCharacteristic(String address, UUID serviceUuid, UUID characteristicUuid) {
+        CharacteristicTable table = characteristicTables.get(address);
+        return table != null ? table.get(serviceUuid, characteristicUuid) : null;
+    }
+
     /**
      * 获取可写特征对象
      * @param address 蓝牙地址
      * @return  可写特征对象
      */
     public BluetoothGattCharacteristic getWriteCharacteristic(String address) {
-        synchronized (locker) {
-            if (writeCharacteristicMap != null) {
-                return writeCharacteristicMap.get(address);
-            }
-            return null;
+        if (writeCharacteristicMap != null) {
+            return writeCharacteristicMap.get(address);
         }
+        return null;
     }
 
     /**
@@ -648,12 +994,10 @@ public final class BleRequestImpl<T extends BleDevice> {
      * @return  可读特征对象
      */
     public BluetoothGattCharacteristic getReadCharacteristic(String address) {
-        synchronized (locker) {
-            if (readCharacteristicMap != null) {
-                return readCharacteristicMap.get(address);
-            }
-            return null;
+        if (readCharacteristicMap != null) {
+            return readCharacteristicMap.get(address);
         }
+        return null;
     }
 
     /**
@@ -696,10 +1040,11 @@ public final class BleRequestImpl<T extends BleDevice> {
 
             }
             if (otaWriteCharacteristic != null && options.uuid_ota_write_cha.equals(otaWriteCharacteristic.getUuid())) {
-                otaWriteCharacteristic.setValue(value);
-                boolean result = writeCharacteristic(gattHashMap.get(address), otaWriteCharacteristic);
-                BleLog.d(TAG, address + " -- write data:" + Arrays.toString(value));
-                BleLog.d(TAG, address + " -- write result:" + result);
+                boolean result = enqueueOperation(address, newWriteOperation(otaWriteCharacteristic, value, GattOperation.PRIORITY_BULK));
+                if (BleLog.isLoggable(TAG, Log.DEBUG)) {
+                    BleLog.d(TAG, address + " -- write data:" + Arrays.toString(value));
+                    BleLog.d(TAG, "%s -- write result:%b", address, result);
+                }
                 return result;
             }
             return true;
@@ -714,9 +1059,9 @@ public final class BleRequestImpl<T extends BleDevice> {
 
     //The basic method of writing data
     public boolean writeCharacteristic(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        synchronized (locker) {
-            return !(gatt == null || characteristic == null) && gatt.writeCharacteristic(characteristic);
-        }
+        if (gatt == null || characteristic == null || gatt.getDevice() == null) return false;
+        String address = gatt.getDevice().getAddress();
+        return enqueueOperation(address, newWriteOperation(characteristic, characteristic.getValue(), GattOperation.PRIORITY_INTERACTIVE));
     }
 
     /**
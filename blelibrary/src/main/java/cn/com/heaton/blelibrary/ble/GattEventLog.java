@@ -0,0 +1,125 @@
+package cn.com.heaton.blelibrary.ble;
+
+import android.os.SystemClock;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * GATT事件的环形记录,只保存事件码、状态、数值和引用,记录时不拼接字符串
+ * 需要排查问题时通过{@link #dump()}导出最近的事件
+ * created by jerry on 2019/9/18.
+ */
+public final class GattEventLog {
+
+    public static final int CONNECTION_STATE = 1;
+    public static final int SERVICES_DISCOVERED = 2;
+    public static final int CHARACTERISTIC_READ = 3;
+    public static final int CHARACTERISTIC_WRITE = 4;
+    public static final int CHARACTERISTIC_CHANGED = 5;
+    public static final int DESCRIPTOR_WRITE = 6;
+    public static final int MTU_CHANGED = 7;
+    public static final int READ_RSSI = 8;
+
+    private static final String[] NAMES = {"", "CONNECTION_STATE", "SERVICES_DISCOVERED", "CHARACTERISTIC_READ",
+            "CHARACTERISTIC_WRITE", "CHARACTERISTIC_CHANGED", "DESCRIPTOR_WRITE", "MTU_CHANGED", "READ_RSSI"};
+
+    private static volatile Ring ring;
+
+    private GattEventLog() {}
+
+    /**
+     * @param size 记录条数,小于等于0时关闭记录
+     */
+    static void init(int size) {
+        ring = size > 0 ? new Ring(size) : null;
+    }
+
+    public static boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * @param event  事件码,如{@link #CHARACTERISTIC_WRITE}
+     * @param uuid   特征UUID,可为null
+     * @param status GATT状态
+     * @param value  数据长度、MTU、RSSI或连接状态等
+     */
+    public static void record(int event, String address, UUID uuid, int status, int value) {
+        Ring current = ring;
+        if (current != null) {
+            current.add(event, address, uuid, status, value);
+        }
+    }
+
+    /**
+     * @return 每行一个事件(时间为elapsedRealtime,ms),按时间顺序;未开启时为空字符串
+     */
+    public static String dump() {
+        Ring current = ring;
+        return current != null ? current.dump() : "";
+    }
+
+    public static void clear() {
+        Ring current = ring;
+        if (current != null) {
+            current.clear();
+        }
+    }
+
+    private static final class Ring {
+        private final long[] times;
+        private final int[] events;
+        private final String[] addresses;
+        private final UUID[] uuids;
+        private final int[] statuses;
+        private final int[] values;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            times = new long[capacity];
+            events = new int[capacity];
+            addresses = new String[capacity];
+            uuids = new UUID[capacity];
+            statuses = new int[capacity];
+            values = new int[capacity];
+        }
+
+        synchronized void add(int event, String address, UUID uuid, int status, int value) {
+            times[next] = SystemClock.elapsedRealtime();
+            events[next] = event;
+            addresses[next] = address;
+            uuids[next] = uuid;
+            statuses[next] = status;
+            values[next] = value;
+            next = (next + 1) % times.length;
+            if (size < times.length) {
+                size++;
+            }
+        }
+
+        synchronized String dump() {
+            StringBuilder builder = new StringBuilder();
+            int start = (next - size + times.length) % times.length;
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % times.length;
+                int event = events[index];
+                builder.append(String.format(Locale.CHINA, "%d %s %s %s status=%d value=%d\n",
+                        times[index], addresses[index],
+                        event > 0 && event < NAMES.length ? NAMES[event] : String.valueOf(event),
+                        uuids[index] != null ? uuids[index] : "-", statuses[index], values[index]));
+            }
+            return builder.toString();
+        }
+
+        synchronized void clear() {
+            next = 0;
+            size = 0;
+            for (int i = 0; i < times.length; i++) {
+                addresses[i] = null;
+                uuids[i] = null;
+            }
+        }
+    }
+}
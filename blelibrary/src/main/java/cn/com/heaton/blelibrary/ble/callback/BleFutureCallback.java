@@ -0,0 +1,17 @@
+package cn.com.heaton.blelibrary.ble.callback;
+
+/**
+ * {@link cn.com.heaton.blelibrary.ble.queue.BleFuture}的结果回调,在回调到达的线程执行
+ * created by jerry on 2019/9/12.
+ */
+public abstract class BleFutureCallback<V> {
+
+    public void onSuccess(V value){}
+
+    /**
+     * 操作失败、超时或被取消
+     * @param message 失败原因
+     */
+    public void onFailure(String message){}
+
+}
@@ -18,8 +18,30 @@ public abstract class BleNotiftCallback<T> {
      */
     public abstract void onChanged(T device, BluetoothGattCharacteristic characteristic);
 
+    /**
+     * 开启通知缓冲(Options.notifyBufferSize)后在消费者线程中回调,
+     * characteristic.getValue()可能已被后续通知覆盖,应使用value
+     * @param value 本次通知的数据
+     */
+    public void onChanged(T device, BluetoothGattCharacteristic characteristic, byte[] value){
+        onChanged(device, characteristic);
+    }
+
     public void onNotifySuccess(T device){}
 
+    /**
+     * 设备所有通知特征均已开启,每次设置只回调一次
+     * @param elapsed 通知设置耗时(ms)
+     */
+    public void onNotifySuccess(T device, long elapsed){
+        onNotifySuccess(device);
+    }
+
+    /**
+     * 部分通知特征开启失败
+     */
+    public void onNotifyFailed(T device, String message){}
+
     public void onNotifyCanceled(T device){}
 
     public void onNotifySuccess(BleDevice device, BluetoothGatt gatt){}
@@ -3,6 +3,8 @@ package cn.com.heaton.blelibrary.ble.callback;
 import android.os.Build;
 import android.support.annotation.RequiresApi;
 
+import java.util.List;
+
 import cn.com.heaton.blelibrary.ble.model.ScanRecord;
 
 /**
@@ -28,6 +30,14 @@ public abstract class BleScanCallback<T> {
      */
     public abstract void onLeScan(T device, int rssi, byte[] scanRecord);
 
+    /**
+     * Batch mode ({@code Options.scanBatchInterval > 0}): devices seen in the last interval,
+     * deduplicated by address, rssi is the latest one ({@code BleDevice.getRssi()}).
+     * Called on the main thread instead of {@link #onLeScan}
+     * @param devices ble device objects
+     */
+    public void onBatchScanned(List<T> devices){}
+
     /**
      * errorCode=1;Fails to start scan as BLE scan with the same settings is already started by the app.
      * errorCode=2;Fails to start scan as app cannot be registered.
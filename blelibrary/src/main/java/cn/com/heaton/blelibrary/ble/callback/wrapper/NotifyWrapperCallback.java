@@ -4,15 +4,27 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import java.util.UUID;
+
 /**
  * Created by jerry on 2019/1/29.
  */
 
 public interface NotifyWrapperCallback {
 
-    void onChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic);
+    /**
+     * @param value 本次通知的数据(开启通知缓冲时为副本,不随后续通知改变)
+     */
+    void onChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value);
+
+    /**
+     * 该设备本次所有特征的通知均已开启
+     * @param characteristicUuid 只设置了单个特征时为该特征的UUID,设置设备所有通知特征时为null
+     * @param elapsed 从提交到全部完成的耗时(ms)
+     */
+    void onNotifySuccess(BluetoothDevice device, UUID characteristicUuid, long elapsed);
 
-    void onNotifySuccess(BluetoothDevice device);
+    void onNotifyFailed(BluetoothDevice device, UUID characteristicUuid, String message);
 
-    void onNotifyCanceled(BluetoothDevice device);
+    void onNotifyCanceled(BluetoothDevice device, UUID characteristicUuid);
 }
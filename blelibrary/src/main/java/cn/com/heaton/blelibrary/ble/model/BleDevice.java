@@ -43,6 +43,9 @@ public class BleDevice implements Parcelable {
     /*解析后的广播包数据*/
     private ScanRecord scanRecord;
 
+    /*最近一次扫描到的信号强度*/
+    private int rssi;
+
     /**
      * Use the address and name of the BluetoothDevice object
      * to construct the address and name of the {@code BleDevice} object
@@ -146,6 +149,14 @@ public class BleDevice implements Parcelable {
         this.scanRecord = scanRecord;
     }
 
+    public int getRssi() {
+        return rssi;
+    }
+
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
+
     @Override
     public String toString() {
         return "BleDevice{" +
@@ -0,0 +1,281 @@
+package cn.com.heaton.blelibrary.ble.model;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.support.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 扫描过滤条件,同一个过滤器内的条件需全部满足,多个过滤器之间满足任意一个即可
+ * 能由蓝牙芯片完成的条件(服务UUID、厂商数据、完整名称、单个地址)编译为{@link ScanFilter},
+ * 名称前缀、地址区间等只能在扫描回调中软件过滤
+ * created by jerry on 2019/9/6.
+ */
+public final class BleScanFilter {
+
+    private final UUID serviceUuid;
+    private final int manufacturerId;
+    private final byte[] manufacturerData;
+    private final byte[] manufacturerDataMask;
+    private final String deviceName;
+    private final String namePrefix;
+    private final long addressFrom;
+    private final long addressTo;
+
+    private BleScanFilter(Builder builder) {
+        this.serviceUuid = builder.serviceUuid;
+        this.manufacturerId = builder.manufacturerId;
+        this.manufacturerData = builder.manufacturerData;
+        this.manufacturerDataMask = builder.manufacturerDataMask;
+        this.deviceName = builder.deviceName;
+        this.namePrefix = builder.namePrefix;
+        this.addressFrom = builder.addressFrom;
+        this.addressTo = builder.addressTo;
+    }
+
+    /**
+     * @return 是否所有条件都能由蓝牙芯片过滤
+     */
+    public boolean isHardwareOnly() {
+        return namePrefix == null && addressFrom == addressTo;
+    }
+
+    /**
+     * 编译为系统的扫描过滤器,只包含芯片支持的条件(比本过滤器宽松或相同)
+     * @return 没有任何芯片支持的条件时返回null
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public ScanFilter toScanFilter() {
+        boolean empty = true;
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (serviceUuid != null) {
+            builder.setServiceUuid(new ParcelUuid(serviceUuid));
+            empty = false;
+        }
+        if (manufacturerId >= 0) {
+            builder.setManufacturerData(manufacturerId, manufacturerData, manufacturerDataMask);
+            empty = false;
+        }
+        if (deviceName != null) {
+            builder.setDeviceName(deviceName);
+            empty = false;
+        }
+        if (addressFrom >= 0 && addressFrom == addressTo) {
+            builder.setDeviceAddress(toAddress(addressFrom));
+            empty = false;
+        }
+        return empty ? null : builder.build();
+    }
+
+    /**
+     * 软件过滤
+     * @param address 设备地址
+     * @param name 系统缓存的设备名称(可为null),广播包中有名称时以广播包为准
+     * @param record 广播包(可为null)
+     */
+    public boolean matches(String address, String name, ScanRecord record) {
+        return matchesAddress(address) && matchesRecord(null, name, record);
+    }
+
+    private boolean matchesAddress(String address) {
+        if (addressFrom >= 0) {
+            long mac = toLong(address);
+            if (mac < addressFrom || mac > addressTo) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //除地址以外的条件
+    private boolean needsRecord() {
+        return deviceName != null || namePrefix != null || serviceUuid != null || manufacturerId >= 0;
+    }
+
+    /**
+     * @param device 不为null时,只有需要比较名称且广播包中没有名称时才读取系统缓存的名称(跨进程调用)
+     */
+    private boolean matchesRecord(BluetoothDevice device, String name, ScanRecord record) {
+        if (deviceName != null || namePrefix != null) {
+            if (record != null && record.getDeviceName() != null) {
+                //优先使用广播包中的名称,系统缓存的名称可能为空或已过期
+                name = record.getDeviceName();
+            } else if (device != null) {
+                name = device.getName();
+            }
+        }
+        if (deviceName != null && !deviceName.equals(name)) {
+            return false;
+        }
+        if (namePrefix != null && (name == null || !name.startsWith(namePrefix))) {
+            return false;
+        }
+        if (serviceUuid != null && (record == null || !record.hasServiceUuid(serviceUuid))) {
+            return false;
+        }
+        if (manufacturerId >= 0 && (record == null ||
+                !record.matchManufacturerData(manufacturerId, manufacturerData, manufacturerDataMask))) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把过滤器列表编译为系统过滤器,任意一个过滤器无法完全由芯片支持时返回空列表(全部交给软件过滤)
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public static List<ScanFilter> toScanFilters(List<BleScanFilter> filters) {
+        List<ScanFilter> scanFilters = new ArrayList<>();
+        for (BleScanFilter filter : filters) {
+            ScanFilter scanFilter = filter.toScanFilter();
+            if (scanFilter == null) {
+                scanFilters.clear();
+                break;
+            }
+            scanFilters.add(scanFilter);
+        }
+        return scanFilters;
+    }
+
+    /**
+     * @return 是否满足任意一个过滤器(列表为空时不过滤)
+     */
+    public static boolean matchesAny(List<BleScanFilter> filters, String address, String name, ScanRecord record) {
+        if (filters.isEmpty()) return true;
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).matches(address, name, record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 扫描回调中使用:先比较地址,只有需要时才包装广播包、读取系统缓存的名称
+     * @return 是否满足任意一个过滤器(列表为空时不过滤)
+     */
+    public static boolean matchesAny(List<BleScanFilter> filters, BluetoothDevice device, byte[] scanRecord) {
+        if (filters.isEmpty()) return true;
+        String address = device.getAddress();
+        ScanRecord record = null;
+        for (int i = 0; i < filters.size(); i++) {
+            BleScanFilter filter = filters.get(i);
+            if (!filter.matchesAddress(address)) continue;
+            if (record == null && filter.needsRecord()) {
+                record = ScanRecord.parseFromBytes(scanRecord);
+            }
+            if (filter.matchesRecord(device, null, record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 48-bit mac "AA:BB:CC:DD:EE:FF" to long, -1 if invalid.
+    static long toLong(String address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+        long mac = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') return -1;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) return -1;
+            mac = (mac << 4) | digit;
+        }
+        return mac;
+    }
+
+    static String toAddress(long mac) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (mac >> shift) & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(b >> 4, 16)))
+                    .append(Character.toUpperCase(Character.forDigit(b & 0x0F, 16)));
+            if (shift > 0) {
+                builder.append(':');
+            }
+        }
+        return builder.toString();
+    }
+
+    public static class Builder {
+        private UUID serviceUuid;
+        private int manufacturerId = -1;
+        private byte[] manufacturerData;
+        private byte[] manufacturerDataMask;
+        private String deviceName;
+        private String namePrefix;
+        private long addressFrom = -1;
+        private long addressTo = -1;
+
+        public Builder setServiceUuid(UUID serviceUuid) {
+            this.serviceUuid = serviceUuid;
+            return this;
+        }
+
+        public Builder setManufacturerData(int manufacturerId, byte[] data) {
+            return setManufacturerData(manufacturerId, data, null);
+        }
+
+        /**
+         * @param manufacturerId 厂商id
+         * @param data 厂商数据(不含厂商id)
+         * @param mask 掩码,为1的位需与data相同,为null时data需完全相同
+         */
+        public Builder setManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+            if (manufacturerId < 0) {
+                throw new IllegalArgumentException("invalid manufacture id");
+            }
+            if (mask != null && (data == null || mask.length != data.length)) {
+                throw new IllegalArgumentException("size mismatch for data and mask");
+            }
+            this.manufacturerId = manufacturerId;
+            this.manufacturerData = data;
+            this.manufacturerDataMask = mask;
+            return this;
+        }
+
+        public Builder setDeviceName(String deviceName) {
+            this.deviceName = deviceName;
+            return this;
+        }
+
+        public Builder setNamePrefix(String namePrefix) {
+            this.namePrefix = namePrefix;
+            return this;
+        }
+
+        public Builder setDeviceAddress(String address) {
+            return setAddressRange(address, address);
+        }
+
+        /**
+         * @param from 起始地址(含),如"AA:BB:CC:00:00:00"
+         * @param to 结束地址(含)
+         */
+        public Builder setAddressRange(String from, String to) {
+            long fromMac = toLong(from);
+            long toMac = toLong(to);
+            if (fromMac < 0 || toMac < 0 || fromMac > toMac) {
+                throw new IllegalArgumentException("invalid address range: " + from + " - " + to);
+            }
+            this.addressFrom = fromMac;
+            this.addressTo = toMac;
+            return this;
+        }
+
+        public BleScanFilter build() {
+            return new BleScanFilter(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package cn.com.heaton.blelibrary.ble.model;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 单个设备的特征路由表,服务发现后建立
+ * 按(服务UUID, 特征UUID)直接比较UUID查找特征,同一设备的命令、大数据、日志等特征可以分别读写和开启通知;
+ * 同时保存该设备需要开启通知的特征列表
+ * created by jerry on 2019/9/14.
+ */
+public final class CharacteristicTable {
+
+    private final Map<UUID, Map<UUID, BluetoothGattCharacteristic>> services = new HashMap<>();
+    //未指定服务时按特征UUID查找,多个服务包含相同特征时取先发现的
+    private final Map<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<>();
+    private final List<BluetoothGattCharacteristic> notifyCharacteristics = new ArrayList<>();
+
+    public CharacteristicTable(List<BluetoothGattService> gattServices) {
+        for (BluetoothGattService gattService : gattServices) {
+            Map<UUID, BluetoothGattCharacteristic> map = services.get(gattService.getUuid());
+            if (map == null) {
+                map = new HashMap<>();
+                services.put(gattService.getUuid(), map);
+            }
+            for (BluetoothGattCharacteristic characteristic : gattService.getCharacteristics()) {
+                UUID uuid = characteristic.getUuid();
+                if (!map.containsKey(uuid)) {
+                    map.put(uuid, characteristic);
+                }
+                if (!characteristics.containsKey(uuid)) {
+                    characteristics.put(uuid, characteristic);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID
+     * @return 对应的特征,不存在时为null
+     */
+    public BluetoothGattCharacteristic get(UUID serviceUuid, UUID characteristicUuid) {
+        if (characteristicUuid == null) return null;
+        if (serviceUuid == null) {
+            return characteristics.get(characteristicUuid);
+        }
+        Map<UUID, BluetoothGattCharacteristic> map = services.get(serviceUuid);
+        return map != null ? map.get(characteristicUuid) : null;
+    }
+
+    public boolean hasService(UUID serviceUuid) {
+        return services.containsKey(serviceUuid);
+    }
+
+    /**
+     * 添加需要开启通知的特征
+     */
+    public synchronized void addNotifyCharacteristic(BluetoothGattCharacteristic characteristic) {
+        if (!notifyCharacteristics.contains(characteristic)) {
+            notifyCharacteristics.add(characteristic);
+        }
+    }
+
+    /**
+     * @return 需要开启通知的特征(副本)
+     */
+    public synchronized List<BluetoothGattCharacteristic> getNotifyCharacteristics() {
+        return new ArrayList<>(notifyCharacteristics);
+    }
+}
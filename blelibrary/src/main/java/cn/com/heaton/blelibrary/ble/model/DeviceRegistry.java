@@ -0,0 +1,99 @@
+package cn.com.heaton.blelibrary.ble.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按蓝牙地址索引的设备集合,查找为O(1)
+ * capacity大于0时按最近访问顺序淘汰最久未出现的设备(LRU)
+ * created by jerry on 2019/9/5.
+ */
+public final class DeviceRegistry<T extends BleDevice> {
+
+    private final LinkedHashMap<String, T> devices;
+
+    /**
+     * 不限容量,按添加顺序保存
+     */
+    public DeviceRegistry() {
+        this(0);
+    }
+
+    /**
+     * @param capacity 最大设备数,小于等于0时不限容量
+     */
+    public DeviceRegistry(final int capacity) {
+        devices = new LinkedHashMap<String, T>(16, 0.75f, capacity > 0) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return capacity > 0 && size() > capacity;
+            }
+        };
+    }
+
+    public synchronized T get(String address) {
+        if (address == null) return null;
+        return devices.get(address);
+    }
+
+    /**
+     * 按添加(LRU模式下为访问)顺序获取第index个设备
+     */
+    public synchronized T get(int index) {
+        if (index < 0 || index >= devices.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + devices.size());
+        }
+        Iterator<T> iterator = devices.values().iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * 地址不存在时添加
+     * @return 已存在的设备,不存在时返回null
+     */
+    public synchronized T putIfAbsent(T device) {
+        T exist = devices.get(device.getBleAddress());
+        if (exist == null) {
+            devices.put(device.getBleAddress(), device);
+        }
+        return exist;
+    }
+
+    public synchronized T remove(String address) {
+        return devices.remove(address);
+    }
+
+    public synchronized boolean contains(String address) {
+        return devices.containsKey(address);
+    }
+
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    public synchronized void clear() {
+        devices.clear();
+    }
+
+    /**
+     * @return 当前设备的快照
+     */
+    public synchronized List<T> values() {
+        return new ArrayList<>(devices.values());
+    }
+
+    /**
+     * @return 当前设备的快照,并清空集合
+     */
+    public synchronized List<T> drain() {
+        List<T> values = new ArrayList<>(devices.values());
+        devices.clear();
+        return values;
+    }
+}
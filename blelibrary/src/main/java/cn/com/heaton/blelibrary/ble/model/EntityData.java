@@ -2,6 +2,9 @@ package cn.com.heaton.blelibrary.ble.model;
 
 import android.text.TextUtils;
 
+import java.util.UUID;
+
+import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.exception.BleWriteException;
 
 /**
@@ -23,6 +26,15 @@ public class EntityData {
     private long delay;
     //最后一包是否自动补零
     private boolean lastPackComplete;
+    //自动模式下允许同时未确认的数据包数(流控窗口)
+    private int windowSize = Ble.options().writeWindowSize;
+    //自动模式下是否使用无响应写入(WRITE_TYPE_NO_RESPONSE)
+    private boolean noResponse;
+    //已协商MTU时是否自动按MTU-3分包(最大512字节),默认关闭,严格按packLength分包
+    private boolean autoPackLength;
+    //写入的服务和特征,为null时使用Options中配置的写入特征(可将大数据发往单独的特征)
+    private UUID serviceUuid;
+    private UUID characteristicUuid;
 
     public EntityData(boolean autoWriteMode, String address, byte[] data, int packLength, long delay, boolean lastPackComplete) {
         this.autoWriteMode = autoWriteMode;
@@ -98,6 +110,46 @@ public class EntityData {
         this.lastPackComplete = lastPackComplete;
     }
 
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public boolean isNoResponse() {
+        return noResponse;
+    }
+
+    public void setNoResponse(boolean noResponse) {
+        this.noResponse = noResponse;
+    }
+
+    public boolean isAutoPackLength() {
+        return autoPackLength;
+    }
+
+    public void setAutoPackLength(boolean autoPackLength) {
+        this.autoPackLength = autoPackLength;
+    }
+
+    public UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    public void setServiceUuid(UUID serviceUuid) {
+        this.serviceUuid = serviceUuid;
+    }
+
+    public UUID getCharacteristicUuid() {
+        return characteristicUuid;
+    }
+
+    public void setCharacteristicUuid(UUID characteristicUuid) {
+        this.characteristicUuid = characteristicUuid;
+    }
+
     public static class Builder {
         private boolean autoWriteMode;
         private String address;
@@ -105,6 +157,11 @@ public class EntityData {
         private int packLength = DEFAULT_LENGTH;
         private long delay;
         private boolean lastPackComplete;
+        private int windowSize = Ble.options().writeWindowSize;
+        private boolean noResponse;
+        private boolean autoPackLength;
+        private UUID serviceUuid;
+        private UUID characteristicUuid;
 
         public boolean isAutoWriteMode() {
             return autoWriteMode;
@@ -160,8 +217,59 @@ public class EntityData {
             return this;
         }
 
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        public Builder setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        public boolean isNoResponse() {
+            return noResponse;
+        }
+
+        public Builder setNoResponse(boolean noResponse) {
+            this.noResponse = noResponse;
+            return this;
+        }
+
+        public boolean isAutoPackLength() {
+            return autoPackLength;
+        }
+
+        public Builder setAutoPackLength(boolean autoPackLength) {
+            this.autoPackLength = autoPackLength;
+            return this;
+        }
+
+        public UUID getServiceUuid() {
+            return serviceUuid;
+        }
+
+        public Builder setServiceUuid(UUID serviceUuid) {
+            this.serviceUuid = serviceUuid;
+            return this;
+        }
+
+        public UUID getCharacteristicUuid() {
+            return characteristicUuid;
+        }
+
+        public Builder setCharacteristicUuid(UUID characteristicUuid) {
+            this.characteristicUuid = characteristicUuid;
+            return this;
+        }
+
         public EntityData build(){
-            return new EntityData(autoWriteMode, address, data, packLength, delay, lastPackComplete);
+            EntityData entityData = new EntityData(autoWriteMode, address, data, packLength, delay, lastPackComplete);
+            entityData.windowSize = windowSize;
+            entityData.noResponse = noResponse;
+            entityData.autoPackLength = autoPackLength;
+            entityData.serviceUuid = serviceUuid;
+            entityData.characteristicUuid = characteristicUuid;
+            return entityData;
         }
     }
 
@@ -176,6 +284,9 @@ public class EntityData {
         if (entityData.packLength <= 0){
             exception = "The data length per packet cannot be less than 0";
         }
+        if (entityData.autoWriteMode && entityData.windowSize <= 0){
+            exception = "The write window size cannot be less than 1";
+        }
         if (!TextUtils.isEmpty(exception)){
             throw new BleWriteException(exception);
         }
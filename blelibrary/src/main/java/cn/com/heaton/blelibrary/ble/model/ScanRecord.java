@@ -15,18 +15,19 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import cn.com.heaton.blelibrary.ble.BleLog;
+import cn.com.heaton.blelibrary.ble.utils.HexCodec;
 
 /**
  * description $desc$
  * created by jerry on 2019/02/21.
  */
 
-@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class ScanRecord {
 
     /**
@@ -91,75 +92,233 @@ public class ScanRecord {
     private static final int DATA_TYPE_SERVICE_DATA = 0x16;
     private static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
 
-    // Flags of the advertising data.
-    private final int mAdvertiseFlags;
-
-    @Nullable
-    private final List<ParcelUuid> mServiceUuids;
-
-    private final SparseArray<byte[]> mManufacturerSpecificData;
-
-    private final Map<ParcelUuid, byte[]> mServiceData;
-
-    // Transmission power level(in dB).
-    private final int mTxPowerLevel;
-
-    // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
+    // Bluetooth base uuid (00000000-0000-1000-8000-00805F9B34FB) as two longs.
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
 
     // Raw bytes of scan record.
     private final byte[] mBytes;
 
+    // Lazily parsed on first access, the raw bytes are never modified so a race only parses twice.
+    private List<ParcelUuid> mServiceUuids;
+    private SparseArray<byte[]> mManufacturerSpecificData;
+    private Map<ParcelUuid, byte[]> mServiceData;
+    private String mDeviceName;
+    private boolean mServiceUuidsParsed;
+    private boolean mDeviceNameParsed;
+
     /**
      * Returns the advertising flags indicating the discoverable mode and capability of the device.
      * Returns -1 if the flag field is not set.
      */
     public int getAdvertiseFlags() {
-        return mAdvertiseFlags;
+        int pos = findField(0, DATA_TYPE_FLAGS);
+        if (pos < 0 || fieldLength(pos) < 1) {
+            return -1;
+        }
+        return mBytes[pos] & 0xFF;
     }
 
     /**
      * Returns a list of service UUIDs within the advertisement that are used to identify the
      * bluetooth GATT services.
      */
+    @Nullable
     public List<ParcelUuid> getServiceUuids() {
+        if (!mServiceUuidsParsed) {
+            List<UUID> uuids = parseServiceUuids();
+            List<ParcelUuid> serviceUuids = null;
+            if (!uuids.isEmpty()) {
+                serviceUuids = new ArrayList<ParcelUuid>(uuids.size());
+                for (UUID uuid : uuids) {
+                    serviceUuids.add(new ParcelUuid(uuid));
+                }
+            }
+            mServiceUuids = serviceUuids;
+            mServiceUuidsParsed = true;
+        }
         return mServiceUuids;
     }
 
+    // Service uuids of the 16, 32 and 128 bit lists in that order, without android types.
+    List<UUID> parseServiceUuids() {
+        List<UUID> serviceUuids = new ArrayList<UUID>();
+        for (int type = DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL;
+             type <= DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE; type++) {
+            int width = uuidWidth(type);
+            int pos = findField(0, type);
+            while (pos >= 0) {
+                int end = pos + fieldLength(pos);
+                for (int i = pos; i + width <= end; i += width) {
+                    serviceUuids.add(new UUID(uuidMsbAt(i, width), uuidLsbAt(i, width)));
+                }
+                pos = findField(end, type);
+            }
+        }
+        return serviceUuids;
+    }
+
+    /**
+     * Returns whether the advertisement contains {@code uuid} in its 16, 32 or 128 bit service
+     * uuid lists, without allocating.
+     */
+    public boolean hasServiceUuid(UUID uuid) {
+        if (uuid == null) {
+            return false;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int type = DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL;
+             type <= DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE; type++) {
+            int width = uuidWidth(type);
+            int pos = findField(0, type);
+            while (pos >= 0) {
+                int end = pos + fieldLength(pos);
+                for (int i = pos; i + width <= end; i += width) {
+                    if (uuidLsbAt(i, width) == lsb && uuidMsbAt(i, width) == msb) {
+                        return true;
+                    }
+                }
+                pos = findField(end, type);
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns a sparse array of manufacturer identifier and its corresponding manufacturer specific
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
+        if (mManufacturerSpecificData == null) {
+            SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
+            for (Map.Entry<Integer, byte[]> entry : parseManufacturerData().entrySet()) {
+                manufacturerData.put(entry.getKey(), entry.getValue());
+            }
+            mManufacturerSpecificData = manufacturerData;
+        }
         return mManufacturerSpecificData;
     }
 
+    // Manufacturer id to its data, a later structure of the same id replaces the earlier one.
+    Map<Integer, byte[]> parseManufacturerData() {
+        Map<Integer, byte[]> manufacturerData = new LinkedHashMap<Integer, byte[]>();
+        int pos = findField(0, DATA_TYPE_MANUFACTURER_SPECIFIC_DATA);
+        while (pos >= 0) {
+            int dataLength = fieldLength(pos);
+            if (dataLength >= 2) {
+                manufacturerData.put(manufacturerIdAt(pos),
+                        extractBytes(mBytes, pos + 2, dataLength - 2));
+            }
+            pos = findField(pos + dataLength, DATA_TYPE_MANUFACTURER_SPECIFIC_DATA);
+        }
+        return manufacturerData;
+    }
+
     /**
      * Returns the manufacturer specific data associated with the manufacturer id. Returns
      * {@code null} if the {@code manufacturerId} is not found.
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        return mManufacturerSpecificData.get(manufacturerId);
+        return getManufacturerSpecificData().get(manufacturerId);
+    }
+
+    /**
+     * Copies the manufacturer specific data associated with the manufacturer id into {@code out}
+     * without allocating.
+     *
+     * @return the number of bytes copied, or -1 if the {@code manufacturerId} is not found
+     * @throws java.nio.BufferOverflowException if {@code out} has not enough remaining space
+     */
+    public int manufacturerData(int manufacturerId, ByteBuffer out) {
+        int pos = findManufacturerData(manufacturerId);
+        if (pos < 0) {
+            return -1;
+        }
+        int dataLength = fieldLength(pos) - 2;
+        out.put(mBytes, pos + 2, dataLength);
+        return dataLength;
+    }
+
+    // Whether manufacturer data of manufacturerId matches data under mask, without allocating.
+    boolean matchManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+        int pos = findManufacturerData(manufacturerId);
+        if (pos < 0) {
+            return false;
+        }
+        if (data == null) {
+            return true;
+        }
+        if (fieldLength(pos) - 2 < data.length) {
+            return false;
+        }
+        for (int i = 0; i < data.length; i++) {
+            int m = mask == null ? 0xFF : mask[i];
+            if ((mBytes[pos + 2 + i] & m) != (data[i] & m)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Data start of the last manufacturer structure of manufacturerId (same entry as the sparse array), -1 if none.
+    private int findManufacturerData(int manufacturerId) {
+        int found = -1;
+        int pos = findField(0, DATA_TYPE_MANUFACTURER_SPECIFIC_DATA);
+        while (pos >= 0) {
+            int dataLength = fieldLength(pos);
+            if (dataLength >= 2 && manufacturerIdAt(pos) == manufacturerId) {
+                found = pos;
+            }
+            pos = findField(pos + dataLength, DATA_TYPE_MANUFACTURER_SPECIFIC_DATA);
+        }
+        return found;
     }
 
     /**
      * Returns a map of service UUID and its corresponding service data.
      */
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     public Map<ParcelUuid, byte[]> getServiceData() {
+        if (mServiceData == null) {
+            Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
+            for (Map.Entry<UUID, byte[]> entry : parseServiceData().entrySet()) {
+                serviceData.put(new ParcelUuid(entry.getKey()), entry.getValue());
+            }
+            mServiceData = serviceData;
+        }
         return mServiceData;
     }
 
+    // 16 bit service data uuid to its data, without android types.
+    Map<UUID, byte[]> parseServiceData() {
+        Map<UUID, byte[]> serviceData = new LinkedHashMap<UUID, byte[]>();
+        int pos = findField(0, DATA_TYPE_SERVICE_DATA);
+        while (pos >= 0) {
+            // The first two bytes of the service data are service data UUID in little
+            // endian. The rest bytes are service data.
+            int dataLength = fieldLength(pos);
+            if (dataLength >= 2) {
+                serviceData.put(new UUID(uuidMsbAt(pos, 2), uuidLsbAt(pos, 2)),
+                        extractBytes(mBytes, pos + 2, dataLength - 2));
+            }
+            pos = findField(pos + dataLength, DATA_TYPE_SERVICE_DATA);
+        }
+        return serviceData;
+    }
+
     /**
      * Returns the service data byte array associated with the {@code serviceUuid}. Returns
      * {@code null} if the {@code serviceDataUuid} is not found.
      */
     @Nullable
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     public byte[] getServiceData(ParcelUuid serviceDataUuid) {
         if (serviceDataUuid == null) {
             return null;
         }
-        return mServiceData.get(serviceDataUuid);
+        return getServiceData().get(serviceDataUuid);
     }
 
     /**
@@ -170,7 +329,11 @@ public class ScanRecord {
      * <code>pathloss = txPowerLevel - rssi</code>
      */
     public int getTxPowerLevel() {
-        return mTxPowerLevel;
+        int pos = findField(0, DATA_TYPE_TX_POWER_LEVEL);
+        if (pos < 0 || fieldLength(pos) < 1) {
+            return Integer.MIN_VALUE;
+        }
+        return mBytes[pos];
     }
 
     /**
@@ -178,6 +341,16 @@ public class ScanRecord {
      */
     @Nullable
     public String getDeviceName() {
+        if (!mDeviceNameParsed) {
+            int pos = findField(0, DATA_TYPE_LOCAL_NAME_COMPLETE);
+            if (pos < 0) {
+                pos = findField(0, DATA_TYPE_LOCAL_NAME_SHORT);
+            }
+            if (pos >= 0) {
+                mDeviceName = new String(mBytes, pos, fieldLength(pos));
+            }
+            mDeviceNameParsed = true;
+        }
         return mDeviceName;
     }
 
@@ -188,27 +361,17 @@ public class ScanRecord {
         return mBytes;
     }
 
-    private ScanRecord(List<ParcelUuid> serviceUuids,
-                       SparseArray<byte[]> manufacturerData,
-                       Map<ParcelUuid, byte[]> serviceData,
-                       int advertiseFlags, int txPowerLevel,
-                       String localName, byte[] bytes) {
-        mServiceUuids = serviceUuids;
-        mManufacturerSpecificData = manufacturerData;
-        mServiceData = serviceData;
-        mDeviceName = localName;
-        mAdvertiseFlags = advertiseFlags;
-        mTxPowerLevel = txPowerLevel;
+    private ScanRecord(byte[] bytes) {
         mBytes = bytes;
     }
 
     /**
-     * Parse scan record bytes to {@link android.bluetooth.le.ScanRecord}.
+     * Wrap scan record bytes as a {@link ScanRecord}, AD structures are parsed on first access.
      * <p>
      * The format is defined in Bluetooth 4.1 specification, Volume 3, Part C, Section 11 and 18.
      * <p>
      * All numerical multi-byte entities and values shall use little-endian <strong>byte</strong>
-     * order.
+     * order. Parsing stops at the first malformed AD structure.
      *
      * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response.
      * @hide
@@ -217,129 +380,87 @@ public class ScanRecord {
         if (scanRecord == null) {
             return null;
         }
-        int currentPos = 0;
-        int advertiseFlag = -1;
-        List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
-        String localName = null;
-        int txPowerLevel = Integer.MIN_VALUE;
-
-        SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
-        Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
-
-        try {
-            while (currentPos < scanRecord.length) {
-                // length is unsigned int.
-                int length = scanRecord[currentPos++] & 0xFF;
-                if (length == 0) {
-                    break;
-                }
-                // Note the length includes the length of the field type itself.
-                int dataLength = length - 1;
-                // fieldType is unsigned int.
-                int fieldType = scanRecord[currentPos++] & 0xFF;
-                switch (fieldType) {
-                    case DATA_TYPE_FLAGS:
-                        advertiseFlag = scanRecord[currentPos] & 0xFF;
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos,
-                                dataLength,16, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                32, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                128, serviceUuids);
-                        break;
-                    case DATA_TYPE_LOCAL_NAME_SHORT:
-                    case DATA_TYPE_LOCAL_NAME_COMPLETE:
-                        localName = new String(
-                                extractBytes(scanRecord, currentPos, dataLength));
-                        break;
-                    case DATA_TYPE_TX_POWER_LEVEL:
-                        txPowerLevel = scanRecord[currentPos];
-                        break;
-                    case DATA_TYPE_SERVICE_DATA:
-                        // The first two bytes of the service data are service data UUID in little
-                        // endian. The rest bytes are service data.
-                        int serviceUuidLength = 16;
-                        byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos,
-                                serviceUuidLength);
-                        ParcelUuid serviceDataUuid = parseUuidFrom(
-                                serviceDataUuidBytes);
-                        byte[] serviceDataArray = extractBytes(scanRecord,
-                                currentPos + serviceUuidLength, dataLength - serviceUuidLength);
-                        serviceData.put(serviceDataUuid, serviceDataArray);
-                        break;
-                    case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
-                        // The first two bytes of the manufacturer specific data are
-                        // manufacturer ids in little endian.
-                        int manufacturerId = ((scanRecord[currentPos + 1] & 0xFF) << 8) +
-                                (scanRecord[currentPos] & 0xFF);
-                        byte[] manufacturerDataBytes = extractBytes(scanRecord, currentPos + 2,
-                                dataLength - 2);
-                        manufacturerData.put(manufacturerId, manufacturerDataBytes);
-                        break;
-                    default:
-                        // Just ignore, we don't handle such data type.
-                        break;
-                }
-                currentPos += dataLength;
-            }
+        return new ScanRecord(scanRecord);
+    }
 
-            if (serviceUuids.isEmpty()) {
-                serviceUuids = null;
+    // Returns the data start of the first AD structure of fieldType at or after from, -1 if none.
+    private int findField(int from, int fieldType) {
+        int pos = from;
+        while (pos < mBytes.length) {
+            // length is unsigned int and includes the length of the field type itself.
+            int length = mBytes[pos] & 0xFF;
+            if (length == 0 || pos + length >= mBytes.length) {
+                return -1;
             }
-            return new ScanRecord(serviceUuids, manufacturerData, serviceData,
-                    advertiseFlag, txPowerLevel, localName, scanRecord);
-        } catch (Exception e) {
-            BleLog.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord));
-            // As the record is invalid, ignore all the parsed results for this packet
-            // and return an empty record with raw scanRecord bytes in results
-            return new ScanRecord(null, manufacturerData, null, -1, Integer.MIN_VALUE, null, scanRecord);
+            if ((mBytes[pos + 1] & 0xFF) == fieldType) {
+                return pos + 2;
+            }
+            pos += length + 1;
         }
+        return -1;
     }
 
-    @Override
-    public String toString() {
-        return "ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags + ", mServiceUuids=" + mServiceUuids
-                + ", mManufacturerSpecificData=" + ScanRecord.toString(mManufacturerSpecificData)
-                + ", mServiceData=" + ScanRecord.toString(mServiceData)
-                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + mDeviceName + "]";
+    // Data length of the AD structure whose data starts at pos.
+    private int fieldLength(int pos) {
+        return (mBytes[pos - 2] & 0xFF) - 1;
     }
 
-    /**
-     * byte数组转化为string
-     */
-    static final char[] hexArray = "0123456789ABCDEF".toCharArray();
+    private int manufacturerIdAt(int pos) {
+        return ((mBytes[pos + 1] & 0xFF) << 8) + (mBytes[pos] & 0xFF);
+    }
 
-    public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+    private static int uuidWidth(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                return 2;
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                return 4;
+            default:
+                return 16;
         }
-        return new String(hexChars);
     }
 
-    // Parse service UUIDs.
-    private static int parseServiceUuid(byte[] scanRecord, int currentPos, int dataLength,
-                                        int uuidLength, List<ParcelUuid> serviceUuids) {
-        while (dataLength > 0) {
-            byte[] uuidBytes = extractBytes(scanRecord, currentPos,
-                    uuidLength);
-            serviceUuids.add(parseUuidFrom(uuidBytes));
-            dataLength -= uuidLength;
-            currentPos += uuidLength;
+    // For 16 bit and 32 bit UUID: 128_bit_value = uuid * 2^96 + BASE_UUID
+    private long uuidMsbAt(int pos, int width) {
+        if (width == 16) {
+            return longAt(pos + 8);
+        }
+        long shortUuid = (mBytes[pos] & 0xFF) | ((mBytes[pos + 1] & 0xFF) << 8);
+        if (width == 4) {
+            shortUuid |= ((long) (mBytes[pos + 2] & 0xFF) << 16) | ((long) (mBytes[pos + 3] & 0xFF) << 24);
+        }
+        return BASE_UUID_MSB + (shortUuid << 32);
+    }
+
+    private long uuidLsbAt(int pos, int width) {
+        return width == 16 ? longAt(pos) : BASE_UUID_LSB;
+    }
 
+    // Little endian long at pos.
+    private long longAt(int pos) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (mBytes[pos + i] & 0xFF);
         }
-        return currentPos;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanRecord [mAdvertiseFlags=" + getAdvertiseFlags() + ", mServiceUuids=" + getServiceUuids()
+                + ", mManufacturerSpecificData=" + ScanRecord.toString(getManufacturerSpecificData())
+                + ", mServiceData=" + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? ScanRecord.toString(getServiceData()) : "null")
+                + ", mTxPowerLevel=" + getTxPowerLevel() + ", mDeviceName=" + getDeviceName() + "]";
+    }
+
+    /**
+     * byte数组转化为string
+     */
+    public static String bytesToHex(byte[] bytes) {
+        return HexCodec.encode(bytes);
     }
 
     // Helper method to extract bytes from byte array.
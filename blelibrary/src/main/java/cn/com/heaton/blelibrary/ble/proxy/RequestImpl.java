@@ -3,6 +3,8 @@ package cn.com.heaton.blelibrary.ble.proxy;
 import android.os.Build;
 import android.support.annotation.RequiresApi;
 
+import java.util.UUID;
+
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.callback.BleConnectCallback;
@@ -14,6 +16,7 @@ import cn.com.heaton.blelibrary.ble.callback.BleScanCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleWriteCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleWriteEntityCallback;
 import cn.com.heaton.blelibrary.ble.model.EntityData;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
 import cn.com.heaton.blelibrary.ble.request.AdvertiserRequest;
 import cn.com.heaton.blelibrary.ble.request.*;
 
@@ -30,105 +33,171 @@ public class RequestImpl<T extends BleDevice> implements RequestLisenter<T>{
 
     @Override
     public void startScan(BleScanCallback<T> callback) {
-        ScanRequest<T> request = Rproxy.getRequest(ScanRequest.class);
+        ScanRequest<T> request = Rproxy.getScanRequest();
         request.startScan(callback, Ble.options().scanPeriod);
     }
 
     @Override
     public void stopScan() {
-        ScanRequest request = Rproxy.getRequest(ScanRequest.class);
+        ScanRequest request = Rproxy.getScanRequest();
         request.stopScan();
     }
 
     @Override
     public boolean connect(T device, BleConnectCallback<T> callback) {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         return request.connect(device, callback);
     }
 
     @Override
     public boolean connect(String address, BleConnectCallback<T> callback) {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         return request.connect(address, callback);
     }
 
     @Override
     public void notify(T device, BleNotiftCallback<T> callback) {
-        NotifyRequest<T> request = Rproxy.getRequest(NotifyRequest.class);
+        NotifyRequest<T> request = Rproxy.getNotifyRequest();
         request.notify(device, callback);
     }
 
     @Override
     public void cancelNotify(T device, BleNotiftCallback<T> callback) {
-        NotifyRequest<T> request = Rproxy.getRequest(NotifyRequest.class);
+        NotifyRequest<T> request = Rproxy.getNotifyRequest();
         request.cancelNotify(device, callback);
     }
 
+    @Override
+    public boolean notify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback) {
+        NotifyRequest<T> request = Rproxy.getNotifyRequest();
+        return request.notify(device, serviceUuid, characteristicUuid, callback);
+    }
+
+    @Override
+    public boolean cancelNotify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback) {
+        NotifyRequest<T> request = Rproxy.getNotifyRequest();
+        return request.cancelNotify(device, serviceUuid, characteristicUuid, callback);
+    }
+
     @Override
     public void disconnect(T device) {
-        ConnectRequest request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest request = Rproxy.getConnectRequest();
         request.disconnect(device);
     }
 
     @Override
     public void disconnect(T device, BleConnectCallback<T> callback) {
-        ConnectRequest<T> request = Rproxy.getRequest(ConnectRequest.class);
+        ConnectRequest<T> request = Rproxy.getConnectRequest();
         request.disconnect(device, callback);
     }
 
     @Override
     public boolean read(T device, BleReadCallback<T> callback) {
-        ReadRequest<T> request = Rproxy.getRequest(ReadRequest.class);
+        ReadRequest<T> request = Rproxy.getReadRequest();
         return request.read(device, callback);
     }
 
+    @Override
+    public BleFuture<byte[]> readAsync(T device) {
+        ReadRequest<T> request = Rproxy.getReadRequest();
+        return request.readAsync(device);
+    }
+
+    @Override
+    public boolean read(T device, UUID serviceUuid, UUID characteristicUuid, BleReadCallback<T> callback) {
+        ReadRequest<T> request = Rproxy.getReadRequest();
+        return request.read(device, serviceUuid, characteristicUuid, callback);
+    }
+
+    @Override
+    public BleFuture<byte[]> readAsync(T device, UUID serviceUuid, UUID characteristicUuid) {
+        ReadRequest<T> request = Rproxy.getReadRequest();
+        return request.readAsync(device, serviceUuid, characteristicUuid);
+    }
+
     @Override
     public boolean readRssi(T device, BleReadRssiCallback<T> callback) {
-        ReadRssiRequest<T> request = Rproxy.getRequest(ReadRssiRequest.class);
+        ReadRssiRequest<T> request = Rproxy.getReadRssiRequest();
         return request.readRssi(device, callback);
     }
 
+    @Override
+    public BleFuture<Integer> readRssiAsync(T device) {
+        ReadRssiRequest<T> request = Rproxy.getReadRssiRequest();
+        return request.readRssiAsync(device);
+    }
+
     @Override
     public boolean write(T device, byte[] data, BleWriteCallback<T> callback) {
-        WriteRequest<T> request = Rproxy.getRequest(WriteRequest.class);
+        WriteRequest<T> request = Rproxy.getWriteRequest();
         return request.write(device, data, callback);
     }
 
+    @Override
+    public boolean write(T device, byte[] data, int priority, BleWriteCallback<T> callback) {
+        WriteRequest<T> request = Rproxy.getWriteRequest();
+        return request.write(device, data, priority, callback);
+    }
+
+    @Override
+    public BleFuture<Void> writeAsync(T device, byte[] data, int priority) {
+        WriteRequest<T> request = Rproxy.getWriteRequest();
+        return request.writeAsync(device, data, priority);
+    }
+
+    @Override
+    public boolean write(T device, UUID serviceUuid, UUID characteristicUuid, byte[] data, int priority, BleWriteCallback<T> callback) {
+        WriteRequest<T> request = Rproxy.getWriteRequest();
+        return request.write(device, serviceUuid, characteristicUuid, data, priority, callback);
+    }
+
+    @Override
+    public BleFuture<Void> writeAsync(T device, UUID serviceUuid, UUID characteristicUuid, byte[] data, int priority) {
+        WriteRequest<T> request = Rproxy.getWriteRequest();
+        return request.writeAsync(device, serviceUuid, characteristicUuid, data, priority);
+    }
+
     @Override
     public void writeEntity(T device, byte[] data, int packLength, int delay, BleWriteEntityCallback<T> callback) {
-        WriteRequest<T> request = Rproxy.getRequest(WriteRequest.class);
+        WriteRequest<T> request = Rproxy.getWriteRequest();
         request.writeEntity(device, data, packLength, delay, callback);
     }
 
     @Override
     public void writeEntity(EntityData entityData, BleWriteEntityCallback<T> callback) {
-        WriteRequest<T> request = Rproxy.getRequest(WriteRequest.class);
+        WriteRequest<T> request = Rproxy.getWriteRequest();
         request.writeEntity(entityData, callback);
     }
 
     @Override
     public void cancelWriteEntity() {
-        WriteRequest<T> request = Rproxy.getRequest(WriteRequest.class);
+        WriteRequest<T> request = Rproxy.getWriteRequest();
         request.cancelWriteEntity();
     }
 
     @Override
     public boolean setMtu(String address, int mtu, BleMtuCallback<T> callback) {
-        MtuRequest<T> request = Rproxy.getRequest(MtuRequest.class);
+        MtuRequest<T> request = Rproxy.getMtuRequest();
         return request.setMtu(address, mtu, callback);
     }
 
+    @Override
+    public BleFuture<Integer> setMtuAsync(String address, int mtu) {
+        MtuRequest<T> request = Rproxy.getMtuRequest();
+        return request.setMtuAsync(address, mtu);
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void startAdvertising(byte[] payload) {
-        AdvertiserRequest<T> request = Rproxy.getRequest(AdvertiserRequest.class);
+        AdvertiserRequest<T> request = Rproxy.getAdvertiserRequest();
         request.startAdvertising(payload);
     }
 
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void stopAdvertising() {
-        AdvertiserRequest<T> request = Rproxy.getRequest(AdvertiserRequest.class);
+        AdvertiserRequest<T> request = Rproxy.getAdvertiserRequest();
         request.stopAdvertising();
     }
 }
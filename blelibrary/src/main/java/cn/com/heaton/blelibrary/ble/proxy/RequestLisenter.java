@@ -1,4 +1,6 @@
 package cn.com.heaton.blelibrary.ble.proxy;
+import java.util.UUID;
+
 import cn.com.heaton.blelibrary.ble.callback.BleConnectCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleMtuCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleNotiftCallback;
@@ -8,6 +10,7 @@ import cn.com.heaton.blelibrary.ble.callback.BleScanCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleWriteCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleWriteEntityCallback;
 import cn.com.heaton.blelibrary.ble.model.EntityData;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
 
 /**
  *
@@ -28,16 +31,36 @@ public interface RequestLisenter<T> {
 
     void cancelNotify(T device, BleNotiftCallback<T> callback);
 
+    boolean notify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback);
+
+    boolean cancelNotify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback);
+
     void disconnect(T device);
 
     void disconnect(T device, BleConnectCallback<T> callback);
 
     boolean read(T device, BleReadCallback<T> callback);
 
+    BleFuture<byte[]> readAsync(T device);
+
+    boolean read(T device, UUID serviceUuid, UUID characteristicUuid, BleReadCallback<T> callback);
+
+    BleFuture<byte[]> readAsync(T device, UUID serviceUuid, UUID characteristicUuid);
+
     boolean readRssi(T device, BleReadRssiCallback<T> callback);
 
+    BleFuture<Integer> readRssiAsync(T device);
+
     boolean write(T device, byte[]data, BleWriteCallback<T> callback);
 
+    boolean write(T device, byte[]data, int priority, BleWriteCallback<T> callback);
+
+    BleFuture<Void> writeAsync(T device, byte[]data, int priority);
+
+    boolean write(T device, UUID serviceUuid, UUID characteristicUuid, byte[]data, int priority, BleWriteCallback<T> callback);
+
+    BleFuture<Void> writeAsync(T device, UUID serviceUuid, UUID characteristicUuid, byte[]data, int priority);
+
     void writeEntity(T device, final byte[]data, int packLength, int delay, BleWriteEntityCallback<T> callback);
 
     void writeEntity(EntityData entityData, BleWriteEntityCallback<T> callback);
@@ -46,6 +69,8 @@ public interface RequestLisenter<T> {
 
     boolean setMtu(String address, int mtu, BleMtuCallback<T> callback);
 
+    BleFuture<Integer> setMtuAsync(String address, int mtu);
+
     void startAdvertising(byte[] payload);
 
     void stopAdvertising();
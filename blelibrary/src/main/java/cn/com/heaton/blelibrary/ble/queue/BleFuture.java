@@ -0,0 +1,204 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import cn.com.heaton.blelibrary.ble.callback.BleFutureCallback;
+import cn.com.heaton.blelibrary.ble.exception.BleException;
+
+/**
+ * 单个异步GATT操作的结果句柄,每个操作持有自己的回调、超时和取消,
+ * 多个设备、同一设备的多个操作可以同时发起而互不覆盖回调
+ * 回调在协议栈回调(或超时)到达的线程执行,不要在回调线程中调用阻塞的{@link #get()}
+ * created by jerry on 2019/9/12.
+ */
+public final class BleFuture<V> implements Future<V> {
+
+    public static final String MESSAGE_TIMEOUT = "timeout";
+    public static final String MESSAGE_CANCELLED = "cancelled";
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCESS = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<BleFutureCallback<V>> callbacks = new ArrayList<>(1);
+    private int state = STATE_PENDING;
+    private V value;
+    private String message;
+    private TimerWheel.Timeout timeout;
+    //取消时将尚未执行的操作从队列中移除
+    private Runnable cancelHook;
+
+    /**
+     * @return 已经失败的句柄,用于无法提交的操作
+     */
+    public static <V> BleFuture<V> failed(String message) {
+        BleFuture<V> future = new BleFuture<>();
+        future.setFailure(message);
+        return future;
+    }
+
+    /**
+     * 添加结果回调,已完成时立即回调
+     */
+    public BleFuture<V> addCallback(BleFutureCallback<V> callback) {
+        if (callback == null) return this;
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        dispatch(callback);
+        return this;
+    }
+
+    /**
+     * 设置超时时间,到期仍未完成时以{@link #MESSAGE_TIMEOUT}失败,
+     * 与{@link #cancel(boolean)}相同,尚未提交给协议栈的操作会从队列中移除,不会在失败之后再执行
+     * @param timeoutMs 从现在开始计算的超时时间(ms)
+     */
+    public BleFuture<V> timeout(long timeoutMs) {
+        synchronized (this) {
+            if (state != STATE_PENDING) return this;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            timeout = TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    finishAndUnqueue(STATE_FAILED, MESSAGE_TIMEOUT);
+                }
+            }, timeoutMs, null);
+        }
+        return this;
+    }
+
+    /**
+     * 取消操作,尚未提交给协议栈的操作不会再执行;已提交的操作无法撤回,但其结果会被忽略
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finishAndUnqueue(STATE_CANCELLED, MESSAGE_CANCELLED);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != STATE_PENDING;
+    }
+
+    public synchronized boolean isSuccess() {
+        return state == STATE_SUCCESS;
+    }
+
+    /**
+     * @return 失败原因,未完成或成功时为null
+     */
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public V get(long time, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(time, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    synchronized void setCancelHook(Runnable cancelHook) {
+        this.cancelHook = cancelHook;
+    }
+
+    boolean setSuccess(V value) {
+        return finish(STATE_SUCCESS, value, null);
+    }
+
+    boolean setFailure(String message) {
+        return finish(STATE_FAILED, null, message);
+    }
+
+    // 取消或超时:完成句柄,并把尚未执行的操作从队列中移除
+    private boolean finishAndUnqueue(int state, String message) {
+        Runnable hook;
+        synchronized (this) {
+            hook = cancelHook;
+        }
+        if (!finish(state, null, message)) {
+            return false;
+        }
+        if (hook != null) {
+            hook.run();
+        }
+        return true;
+    }
+
+    private boolean finish(int state, V value, String message) {
+        List<BleFutureCallback<V>> pending;
+        synchronized (this) {
+            if (this.state != STATE_PENDING) {
+                return false;
+            }
+            this.state = state;
+            this.value = value;
+            this.message = message;
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+            cancelHook = null;
+            pending = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        done.countDown();
+        for (BleFutureCallback<V> callback : pending) {
+            dispatch(callback);
+        }
+        return true;
+    }
+
+    private void dispatch(BleFutureCallback<V> callback) {
+        V result;
+        String reason;
+        boolean success;
+        synchronized (this) {
+            result = value;
+            reason = message;
+            success = state == STATE_SUCCESS;
+        }
+        if (success) {
+            callback.onSuccess(result);
+        } else {
+            callback.onFailure(reason);
+        }
+    }
+
+    private synchronized V report() throws ExecutionException {
+        if (state == STATE_SUCCESS) {
+            return value;
+        }
+        if (state == STATE_CANCELLED) {
+            throw new CancellationException(message);
+        }
+        throw new ExecutionException(new BleException(message));
+    }
+}
@@ -0,0 +1,97 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cn.com.heaton.blelibrary.ble.Ble;
+import cn.com.heaton.blelibrary.ble.BleHandler;
+
+/**
+ * 连接名额,首次连接(BleConnectTask)和自动重连(ConnectQueue)共用,
+ * 同时处于连接中的设备总数不超过Options.maxConnectingCount
+ * 名额按设备地址占用,同一设备的连接结束时无论由谁发起都只释放一次
+ * created by jerry on 2019/9/10.
+ */
+public final class ConnectLimiter {
+
+    private static volatile ConnectLimiter sInstance;
+    private final Set<String> connectingAddress = new HashSet<>();
+    //名额释放后通知等待中的调度方,在BleHandler中执行,不持有本对象的锁
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private ConnectLimiter() {}
+
+    @NonNull
+    public static ConnectLimiter getInstance() {
+        if (sInstance != null) {
+            return sInstance;
+        }
+        synchronized (ConnectLimiter.class) {
+            if (sInstance == null) {
+                sInstance = new ConnectLimiter();
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 占用一个名额
+     * @return 是否占用成功,名额已满或该设备已在连接中时返回false
+     */
+    public synchronized boolean tryAcquire(String address) {
+        if (isFull() || connectingAddress.contains(address)) {
+            return false;
+        }
+        connectingAddress.add(address);
+        return true;
+    }
+
+    /**
+     * @return 名额是否已满,未满时tryAcquire失败说明只是该设备已在连接中,调度方应跳过它继续
+     */
+    public synchronized boolean isFull() {
+        return connectingAddress.size() >= Math.max(1, Ble.options().maxConnectingCount);
+    }
+
+    /**
+     * 设备连接完成或失败,释放其名额
+     * @return 该设备是否占用了名额
+     */
+    public boolean release(String address) {
+        boolean removed;
+        synchronized (this) {
+            removed = connectingAddress.remove(address);
+        }
+        if (removed) {
+            notifyListeners();
+        }
+        return removed;
+    }
+
+    public synchronized int getConnectingCount() {
+        return connectingAddress.size();
+    }
+
+    /**
+     * @param listener 有名额释放时回调(在BleHandler线程)
+     */
+    public void addListener(Runnable listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) {
+            BleHandler.of().post(listener);
+        }
+    }
+}
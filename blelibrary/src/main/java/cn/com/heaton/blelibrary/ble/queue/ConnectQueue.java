@@ -1,17 +1,47 @@
 package cn.com.heaton.blelibrary.ble.queue;
 
+import android.os.Handler;
 import android.support.annotation.NonNull;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import cn.com.heaton.blelibrary.ble.Ble;
+import cn.com.heaton.blelibrary.ble.BleHandler;
+import cn.com.heaton.blelibrary.ble.BleLog;
 import cn.com.heaton.blelibrary.ble.request.ConnectRequest;
 import cn.com.heaton.blelibrary.ble.request.Rproxy;
 
-public final class ConnectQueue extends Queue{
+/**
+ * 自动重连调度:每个设备独立计算重连延迟(带随机抖动的指数退避,有上限),
+ * 到期的设备并行重连,与首次连接共用{@link ConnectLimiter}的名额,连接中的设备总数不超过Options.maxConnectingCount
+ */
+public final class ConnectQueue {
 
+    private static final String TAG = "ConnectQueue";
     private static volatile ConnectQueue sInstance;
     protected ConnectRequest connectRequest;
+    private final Handler handler = BleHandler.of();
+    private final Random random = new Random();
+    //每个设备的重连状态
+    private final Map<String, ReconnectState> states = new HashMap<>();
+    //已到期但超出并行数量限制,等待空出名额的设备
+    private final LinkedList<String> readyAddress = new LinkedList<>();
+    private final ConnectLimiter limiter = ConnectLimiter.getInstance();
 
     private ConnectQueue() {
-        connectRequest = Rproxy.getRequest(ConnectRequest.class);
+        connectRequest = Rproxy.getConnectRequest();
+        limiter.addListener(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectQueue.this) {
+                    drain();
+                }
+            }
+        });
     }
 
     @NonNull
@@ -28,28 +58,117 @@ public final class ConnectQueue extends Queue{
     }
 
     /**
-     * 添加任务，
-     * time 延迟时间,时间是毫秒
-     * q 问题
-     * 用户为问题设置延迟时间
+     * 安排一次重连,连续失败时延迟按指数增长
+     * @param address 设备地址
      */
-    /*@Override
-    public void put(long time, RequestTask requestTask) {
-        super.put(time, requestTask);
-    }*/
+    public synchronized void put(String address) {
+        ReconnectState state = states.get(address);
+        if (state == null) {
+            state = new ReconnectState(address);
+            states.put(address, state);
+        }
+        if (state.connecting) {
+            //上一次重连失败,让出名额
+            state.connecting = false;
+            limiter.release(address);
+        }
+        if (state.scheduled || readyAddress.contains(address)) return;
+        long delay = nextDelay(state.attempt++);
+        state.scheduled = true;
+        BleLog.i(TAG, address + " -- reconnect attempt " + state.attempt + " after " + delay + "ms");
+        state.timeout = TimerWheel.getInstance().schedule(state, delay, null);
+    }
 
-    /*@Override
-    public void remove(RequestTask requestTask) {
-        super.remove(requestTask);
-    }*/
+    /**
+     * 设备已连接或不再需要重连,清除其重连状态
+     */
+    public synchronized void remove(String address) {
+        ReconnectState state = states.remove(address);
+        readyAddress.remove(address);
+        if (state != null) {
+            state.cancel();
+            if (state.connecting) {
+                limiter.release(address);
+            }
+        }
+    }
 
-    @Override
-    public void execute(RequestTask requestTask) {
-        connectRequest.reconnect(requestTask.getAddress());
+    public synchronized void clear() {
+        for (ReconnectState state : states.values()) {
+            state.cancel();
+            if (state.connecting) {
+                limiter.release(state.address);
+            }
+        }
+        states.clear();
+        readyAddress.clear();
+    }
+
+    // base * 2^attempt, capped, with equal jitter to spread out devices dropped at the same time
+    private long nextDelay(int attempt) {
+        Ble.Options options = Ble.options();
+        long delay = options.reconnectBaseDelay;
+        for (int i = 0; i < attempt && delay < options.reconnectMaxDelay; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, options.reconnectMaxDelay);
+        long half = delay / 2;
+        return half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
     }
 
-    /*@Override
-    public void clear(){
-        super.clear();
-    }*/
+    private synchronized void onDue(String address) {
+        ReconnectState state = states.get(address);
+        if (state == null) return;
+        state.scheduled = false;
+        readyAddress.add(address);
+        drain();
+    }
+
+    private void drain() {
+        Iterator<String> iterator = readyAddress.iterator();
+        while (iterator.hasNext() && !limiter.isFull()) {
+            final String address = iterator.next();
+            final ReconnectState state = states.get(address);
+            if (state == null) {
+                iterator.remove();
+                continue;
+            }
+            //该设备正由首次连接占用名额,留在队列中等它释放,后面的设备继续
+            if (!limiter.tryAcquire(address)) continue;
+            iterator.remove();
+            state.connecting = true;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!connectRequest.reconnect(address)) {
+                        remove(address);
+                    }
+                }
+            });
+        }
+    }
+
+    private final class ReconnectState implements Runnable {
+        final String address;
+        int attempt;
+        boolean scheduled;
+        boolean connecting;
+        TimerWheel.Timeout timeout;
+
+        ReconnectState(String address) {
+            this.address = address;
+        }
+
+        void cancel() {
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            onDue(address);
+        }
+    }
 }
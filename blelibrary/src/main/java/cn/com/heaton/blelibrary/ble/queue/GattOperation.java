@@ -0,0 +1,90 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.UUID;
+
+/**
+ * 单个GATT操作(写、读、描述符写入、RSSI、MTU等)
+ * 由所属设备的{@link GattPipeline}串行执行
+ * created by jerry on 2019/9/2.
+ */
+public abstract class GattOperation {
+
+    //控制指令,当前操作完成后优先执行(最多等待一个数据包的时间)
+    public static final int PRIORITY_CONTROL = 0;
+    //普通读写、RSSI、MTU、通知开关等
+    public static final int PRIORITY_INTERACTIVE = 1;
+    //大数据分包写入、OTA
+    public static final int PRIORITY_BULK = 2;
+
+    private final int priority;
+    //异步调用的结果句柄,可为null
+    private BleFuture<Object> future;
+    //期望的回调事件(GattEventLog中的事件码)和特征UUID,0表示任意回调都视为本操作完成
+    private int event;
+    private UUID uuid;
+
+    public GattOperation() {
+        this(PRIORITY_INTERACTIVE);
+    }
+
+    public GattOperation(int priority) {
+        if (priority < PRIORITY_CONTROL || priority > PRIORITY_BULK) {
+            throw new IllegalArgumentException("invalid priority: " + priority);
+        }
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 绑定结果句柄,协议栈回调、失败或超时时完成该句柄
+     */
+    @SuppressWarnings("unchecked")
+    public GattOperation setFuture(BleFuture<?> future) {
+        this.future = (BleFuture<Object>) future;
+        return this;
+    }
+
+    BleFuture<Object> getFuture() {
+        return future;
+    }
+
+    /**
+     * 声明本操作对应的协议栈回调,超时之后才到达的其他操作的回调不会误完成本操作
+     * @param event 回调事件,如{@link cn.com.heaton.blelibrary.ble.GattEventLog#CHARACTERISTIC_WRITE}
+     * @param uuid  特征UUID,为null时不比较
+     */
+    public GattOperation expect(int event, UUID uuid) {
+        this.event = event;
+        this.uuid = uuid;
+        return this;
+    }
+
+    boolean accepts(int event, UUID uuid) {
+        if (this.event == 0 || event == 0) return true;
+        return this.event == event && (this.uuid == null || uuid == null || this.uuid.equals(uuid));
+    }
+
+    /**
+     * 向协议栈提交该操作
+     * @param gatt 设备对应的gatt对象
+     * @return 是否提交成功(提交成功后需等待协议栈回调才会执行下一个操作)
+     */
+    public abstract boolean execute(BluetoothGatt gatt);
+
+    /**
+     * 协议栈回调已经到达且状态为成功,操作完成
+     */
+    public void onCompleted() {}
+
+    /**
+     * 操作在排队之后才提交失败、超时或协议栈回调的状态不是成功时回调,
+     * 立即执行失败的结果已经通过返回值告知调用者
+     */
+    public void onFailed() {}
+
+}
@@ -0,0 +1,320 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.heaton.blelibrary.ble.BleLog;
+
+/**
+ * 每个已连接设备(BluetoothGatt)独立的GATT操作队列
+ * 协议栈同一时刻只允许一个未完成的GATT操作,这里串行执行,
+ * 上一个操作的回调到达后才提交下一个,不同设备之间不共享任何锁
+ * 操作按优先级分为控制、交互、批量三类,同类按提交顺序执行;不同类之间按权重轮转,
+ * 高优先级连续执行达到权重后让低优先级执行一个,避免大数据写入阻塞控制指令,也避免控制指令饿死其他操作
+ * 排队和超时都不为每个操作分配对象:队列为数组实现,超时只记录截止时间,由一个常驻的检查任务在到期时比对
+ * created by jerry on 2019/9/2.
+ */
+public final class GattPipeline {
+
+    private static final String TAG = "GattPipeline";
+    //单个操作等待协议栈回调的最长时间
+    private static final long OPERATION_TIMEOUT = 5000L;
+    //各优先级在有低优先级操作等待时最多连续执行的个数
+    private static final int[] WEIGHTS = {8, 4, 1};
+
+    private final String address;
+    private final BluetoothGatt gatt;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<GattOperation>[] operations = new ArrayDeque[WEIGHTS.length];
+    //自上次低优先级操作执行以来,各优先级已连续执行的个数
+    private final int[] served = new int[WEIGHTS.length];
+    private GattOperation current;
+    //当前操作的序号,每次更换当前操作时递增;布置超时时记录序号,序号不一致说明该操作已经完成
+    private long generation;
+    //已布置超时的操作序号(-1表示没有)及其截止时间(ms)
+    private long armedGeneration = -1;
+    private long deadline;
+    //时间轮中等待的检查任务,为null时需要重新布置
+    private TimerWheel.Timeout timeout;
+    private boolean released;
+
+    /**
+     * 操作超时检查,到期时当前操作被更换过就按新的截止时间重新布置,
+     * 只有序号仍一致(操作还未完成)且已过截止时间时才认领并失败该操作
+     */
+    private final Runnable timeoutCheck = new Runnable() {
+        @Override
+        public void run() {
+            GattOperation expired;
+            GattOperation next;
+            synchronized (GattPipeline.this) {
+                timeout = null;
+                if (released || armedGeneration != generation || current == null) return;
+                long remaining = deadline - now();
+                if (remaining > 0) {
+                    timeout = TimerWheel.getInstance().schedule(this, remaining, null);
+                    return;
+                }
+                expired = current;
+                armedGeneration = -1;
+                next = advance();
+            }
+            BleLog.e(TAG, address + " -- gatt operation timeout");
+            expired.onFailed();
+            fail(expired);
+            runNext(next);
+        }
+    };
+
+    public GattPipeline(String address, BluetoothGatt gatt) {
+        this.address = address;
+        this.gatt = gatt;
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new ArrayDeque<>();
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public BluetoothGatt getGatt() {
+        return gatt;
+    }
+
+    /**
+     * 提交一个操作,空闲时立即执行,否则排队等待
+     * @param operation GATT操作
+     * @return 立即执行时返回协议栈的提交结果,排队时返回true
+     */
+    public boolean enqueue(final GattOperation operation) {
+        boolean rejected;
+        synchronized (this) {
+            rejected = released;
+            if (!rejected && current != null) {
+                operations[operation.getPriority()].add(operation);
+                BleFuture<Object> future = operation.getFuture();
+                if (future != null) {
+                    future.setCancelHook(new Runnable() {
+                        @Override
+                        public void run() {
+                            remove(operation);
+                        }
+                    });
+                }
+                return true;
+            }
+            if (!rejected) {
+                current = operation;
+                generation++;
+            }
+        }
+        if (rejected) {
+            fail(operation);
+            return false;
+        }
+        if (execute(operation)) {
+            return true;
+        }
+        //立即执行失败的结果通过返回值告知调用者,不回调onFailed
+        GattOperation next;
+        synchronized (this) {
+            if (current != operation) return false;
+            next = advance();
+        }
+        fail(operation);
+        runNext(next);
+        return false;
+    }
+
+    /**
+     * 当前操作的协议栈回调已经到达,执行下一个操作
+     */
+    public void complete() {
+        complete(0, null, BluetoothGatt.GATT_SUCCESS, null);
+    }
+
+    /**
+     * 当前操作的协议栈回调已经到达,执行下一个操作
+     * @param status 协议栈回调的状态
+     * @param value 操作结果,交给操作绑定的{@link BleFuture}
+     */
+    public void complete(int status, Object value) {
+        complete(0, null, status, value);
+    }
+
+    /**
+     * 协议栈回调到达,与当前操作声明的回调一致时才完成该操作并执行下一个操作;
+     * 当前操作已超时(或已被释放)后才到达的回调直接忽略
+     * @param event 回调事件,如{@link cn.com.heaton.blelibrary.ble.GattEventLog#CHARACTERISTIC_WRITE},0表示不比较
+     * @param uuid 回调所属的特征UUID,可为null
+     * @param status 协议栈回调的状态
+     * @param value 操作结果,交给操作绑定的{@link BleFuture}
+     */
+    public void complete(int event, UUID uuid, int status, Object value) {
+        GattOperation completed;
+        GattOperation next;
+        synchronized (this) {
+            completed = current;
+            if (completed == null || !completed.accepts(event, uuid)) {
+                BleLog.w(TAG, "%s -- ignore stale gatt callback, event:%d", address, event);
+                return;
+            }
+            armedGeneration = -1;
+            next = advance();
+        }
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            completed.onCompleted();
+        } else {
+            completed.onFailed();
+        }
+        BleFuture<Object> future = completed.getFuture();
+        if (future != null) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                future.setSuccess(value);
+            } else {
+                future.setFailure("gatt status:" + status);
+            }
+        }
+        runNext(next);
+    }
+
+    /**
+     * 释放队列(断开连接时调用),未完成的操作全部回调失败
+     */
+    public void release() {
+        LinkedList<GattOperation> pending;
+        synchronized (this) {
+            released = true;
+            pending = new LinkedList<>();
+            if (current != null) {
+                pending.add(current);
+            }
+            current = null;
+            generation++;
+            cancelTimeout();
+            for (ArrayDeque<GattOperation> queue : operations) {
+                pending.addAll(queue);
+                queue.clear();
+            }
+        }
+        for (GattOperation operation : pending) {
+            operation.onFailed();
+            fail(operation);
+        }
+    }
+
+    public synchronized int size() {
+        int size = current != null ? 1 : 0;
+        for (ArrayDeque<GattOperation> queue : operations) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    // 排队中的操作被取消或超时,尚未提交给协议栈时直接移除,并释放其占用的资源(如写入信用)
+    private void remove(GattOperation operation) {
+        boolean removed;
+        synchronized (this) {
+            removed = operations[operation.getPriority()].remove(operation);
+        }
+        if (removed) {
+            operation.onFailed();
+        }
+    }
+
+    private void fail(GattOperation operation) {
+        BleFuture<Object> future = operation.getFuture();
+        if (future != null) {
+            future.setFailure("gatt operation failed");
+        }
+    }
+
+    // 按优先级取下一个操作,达到权重且有更低优先级在等待时让出一次
+    private GattOperation poll() {
+        for (int priority = 0; priority < operations.length; priority++) {
+            if (operations[priority].isEmpty()) continue;
+            if (served[priority] >= WEIGHTS[priority] && hasLower(priority)) continue;
+            served[priority]++;
+            for (int higher = 0; higher < priority; higher++) {
+                served[higher] = 0;
+            }
+            return operations[priority].poll();
+        }
+        return null;
+    }
+
+    private boolean hasLower(int priority) {
+        for (int lower = priority + 1; lower < operations.length; lower++) {
+            if (!operations[lower].isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // 更换当前操作,只能由清除当前操作的一方(回调、超时或提交失败)在锁内调用
+    private GattOperation advance() {
+        current = released ? null : poll();
+        generation++;
+        return current;
+    }
+
+    // 依次执行新的当前操作,提交失败时失败该操作并继续下一个
+    private void runNext(GattOperation operation) {
+        while (operation != null) {
+            if (execute(operation)) {
+                return;
+            }
+            GattOperation failed = operation;
+            synchronized (this) {
+                if (current != failed) return;
+                operation = advance();
+            }
+            failed.onFailed();
+            fail(failed);
+        }
+    }
+
+    private boolean execute(GattOperation operation) {
+        long armed;
+        synchronized (this) {
+            armed = generation;
+        }
+        boolean result;
+        try {
+            result = operation.execute(gatt);
+        } catch (Exception e) {
+            BleLog.e(TAG, address + " -- gatt operation error: " + e.getMessage());
+            result = false;
+        }
+        if (result) {
+            synchronized (this) {
+                //回调可能在提交返回前就已到达,此时不再布置超时
+                if (current == operation && generation == armed) {
+                    armedGeneration = armed;
+                    deadline = now() + OPERATION_TIMEOUT;
+                    //检查任务还在等待时只更新截止时间,到期后再按剩余时间重新布置
+                    if (timeout == null) {
+                        timeout = TimerWheel.getInstance().schedule(timeoutCheck, OPERATION_TIMEOUT, null);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private synchronized void cancelTimeout() {
+        armedGeneration = -1;
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,145 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+import cn.com.heaton.blelibrary.ble.BleLog;
+
+/**
+ * 单个设备的通知环形缓冲区,槽位预先分配
+ * 生产者(binder线程)只把数据复制进槽位后立即返回,缓冲区满时丢弃新数据并计数;
+ * 消费者线程取出后再回调
+ * created by jerry on 2019/9/17.
+ */
+public final class NotifyBuffer {
+
+    private static final String TAG = "NotifyBuffer";
+
+    //默认槽位大小,未协商MTU时通知的最大长度
+    private static final int SLOT_SIZE = 20;
+
+    private final BluetoothDevice device;
+    private final BluetoothGattCharacteristic[] characteristics;
+    private final byte[][] values;
+    private final int[] lengths;
+    private final long[] times;
+    private int head;
+    private int size;
+    //是否已安排消费者取数据
+    private boolean draining;
+    private long droppedCount;
+    private long deliveredCount;
+    private long lag;
+    private long maxLag;
+
+    NotifyBuffer(BluetoothDevice device, int capacity) {
+        this.device = device;
+        this.characteristics = new BluetoothGattCharacteristic[capacity];
+        this.values = new byte[capacity][];
+        this.lengths = new int[capacity];
+        this.times = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            values[i] = new byte[SLOT_SIZE];
+        }
+    }
+
+    /**
+     * 复制通知数据到下一个槽位,槽位不够大时才扩容(MTU增大后只发生一次)
+     * @return 是否需要安排消费者
+     */
+    synchronized boolean offer(BluetoothGattCharacteristic characteristic, byte[] value) {
+        int capacity = characteristics.length;
+        if (size == capacity) {
+            droppedCount++;
+            return false;
+        }
+        int tail = (head + size) % capacity;
+        int length = value != null ? value.length : 0;
+        if (values[tail].length < length) {
+            values[tail] = new byte[length];
+        }
+        if (length > 0) {
+            System.arraycopy(value, 0, values[tail], 0, length);
+        }
+        lengths[tail] = length;
+        characteristics[tail] = characteristic;
+        times[tail] = SystemClock.elapsedRealtime();
+        size++;
+        if (draining) return false;
+        draining = true;
+        return true;
+    }
+
+    /**
+     * 在消费者线程中依次回调缓冲区中的所有数据,回调时不持有锁
+     */
+    void drain(NotifyDispatcher.Receiver receiver) {
+        while (true) {
+            BluetoothGattCharacteristic characteristic;
+            byte[] value;
+            synchronized (this) {
+                if (size == 0) {
+                    draining = false;
+                    return;
+                }
+                characteristic = characteristics[head];
+                value = Arrays.copyOf(values[head], lengths[head]);
+                lag = SystemClock.elapsedRealtime() - times[head];
+                maxLag = Math.max(maxLag, lag);
+                characteristics[head] = null;
+                head = (head + 1) % characteristics.length;
+                size--;
+                deliveredCount++;
+            }
+            try {
+                receiver.onChanged(device, characteristic, value);
+            } catch (RuntimeException e) {
+                //回调异常只影响这一条通知,不能让缓冲区停留在draining状态而丢弃后续所有通知
+                BleLog.e(TAG, device.getAddress() + " -- notify callback error: " + e);
+            }
+        }
+    }
+
+    /**
+     * 消费者未能安排(已关闭)时恢复状态,下次收到通知时重新安排
+     */
+    synchronized void cancelDrain() {
+        draining = false;
+    }
+
+    /**
+     * @return 缓冲区满时丢弃的通知数
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return 等待回调的通知数
+     */
+    public synchronized int getPendingCount() {
+        return size;
+    }
+
+    /**
+     * @return 最近一次回调的通知从收到到回调的延迟(ms)
+     */
+    public synchronized long getLag() {
+        return lag;
+    }
+
+    public synchronized long getMaxLag() {
+        return maxLag;
+    }
+
+    public int getCapacity() {
+        return characteristics.length;
+    }
+}
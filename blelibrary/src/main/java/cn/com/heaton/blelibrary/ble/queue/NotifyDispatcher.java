@@ -0,0 +1,84 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 通知接收:binder线程只把数据写入设备的环形缓冲区,由专用的消费者线程按设备顺序回调
+ * created by jerry on 2019/9/17.
+ */
+public final class NotifyDispatcher {
+
+    public interface Receiver {
+        /**
+         * @param value 本次通知数据的副本
+         */
+        void onChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value);
+    }
+
+    private final int capacity;
+    private final Receiver receiver;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ConcurrentMap<String, NotifyBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity 每个设备缓冲的通知数
+     */
+    public NotifyDispatcher(int capacity, Receiver receiver) {
+        this.capacity = capacity;
+        this.receiver = receiver;
+    }
+
+    /**
+     * 在binder线程中调用,复制数据后立即返回
+     */
+    public void dispatch(BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value) {
+        NotifyBuffer buffer = buffers.get(device.getAddress());
+        if (buffer == null) {
+            buffer = new NotifyBuffer(device, capacity);
+            NotifyBuffer existing = buffers.putIfAbsent(device.getAddress(), buffer);
+            if (existing != null) {
+                buffer = existing;
+            }
+        }
+        if (buffer.offer(characteristic, value)) {
+            final NotifyBuffer pending = buffer;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        pending.drain(receiver);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //已经shutdown,与release并发时丢弃
+                pending.cancelDrain();
+            }
+        }
+    }
+
+    /**
+     * @return 设备的通知缓冲区(丢弃数、延迟等统计),还没有收到过通知时为null
+     */
+    public NotifyBuffer getBuffer(String address) {
+        return buffers.get(address);
+    }
+
+    /**
+     * 设备断开后丢弃其缓冲区,已取出的数据仍会回调
+     */
+    public void remove(String address) {
+        buffers.remove(address);
+    }
+
+    public void shutdown() {
+        buffers.clear();
+        executor.shutdown();
+    }
+}
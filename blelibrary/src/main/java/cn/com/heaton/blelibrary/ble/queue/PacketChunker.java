@@ -0,0 +1,96 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import java.util.Arrays;
+
+/**
+ * 分包发送时的数据包切分器
+ * 整包从固定数量的缓冲区中轮流复用,不再为每一包分配新的数组。
+ * 缓冲区数量与{@link WriteWindow}的窗口大小一致:拿到写入信用时,
+ * 同设备GATT队列按顺序完成,轮到复用的缓冲区所在的数据包一定已经提交给协议栈;
+ * 也可以用{@link #next(byte[])}切分到调用方的缓冲区(如{@link WriteOperation#buffer(int)})
+ * created by jerry on 2019/9/4.
+ */
+public final class PacketChunker {
+
+    private final byte[] data;
+    private final int packLength;
+    private final boolean lastPackComplete;
+    private final byte[][] buffers;
+    private int index;
+    private int bufferIndex;
+
+    /**
+     * @param data 需要发送的总数据
+     * @param packLength 每包长度
+     * @param lastPackComplete 最后一包不足时是否补零到完整包长
+     * @param poolSize 复用的缓冲区数量,为0时每包都返回新的数组
+     */
+    public PacketChunker(byte[] data, int packLength, boolean lastPackComplete, int poolSize) {
+        if (packLength <= 0) {
+            throw new IllegalArgumentException("packLength must be greater than 0");
+        }
+        this.data = data;
+        this.packLength = packLength;
+        this.lastPackComplete = lastPackComplete;
+        this.buffers = new byte[poolSize][];
+    }
+
+    public boolean hasNext() {
+        return index < data.length;
+    }
+
+    /**
+     * 下一包数据,返回的数组在窗口内的下一次复用前不会被修改
+     */
+    public byte[] next() {
+        byte[] buffer;
+        if (buffers.length == 0) {
+            buffer = new byte[packLength];
+        } else {
+            buffer = buffers[bufferIndex];
+            if (buffer == null) {
+                buffer = new byte[packLength];
+                buffers[bufferIndex] = buffer;
+            }
+            bufferIndex = (bufferIndex + 1) % buffers.length;
+        }
+        return next(buffer);
+    }
+
+    /**
+     * 下一包数据切分到调用方的缓冲区,由调用方保证该缓冲区中的上一包已经提交给协议栈
+     * @param buffer 长度为packLength的缓冲区
+     * @return buffer,最后一包不足且不补零时为新的数组
+     */
+    public byte[] next(byte[] buffer) {
+        if (buffer.length != packLength) {
+            throw new IllegalArgumentException("buffer length " + buffer.length + " is not packLength " + packLength);
+        }
+        int available = data.length - index;
+        int length = available >= packLength ? packLength : available;
+        byte[] packet;
+        if (length < packLength && !lastPackComplete) {
+            //最后一包不足且不补零,只会出现一次
+            packet = Arrays.copyOfRange(data, index, index + length);
+        } else {
+            packet = buffer;
+            System.arraycopy(data, index, packet, 0, length);
+            if (length < packLength) {
+                Arrays.fill(packet, length, packLength, (byte) 0);
+            }
+        }
+        index += length;
+        return packet;
+    }
+
+    /**
+     * @return 已切分的字节数
+     */
+    public int position() {
+        return index;
+    }
+
+    public int length() {
+        return data.length;
+    }
+}
@@ -1,66 +1,157 @@
 package cn.com.heaton.blelibrary.ble.queue;
 
-import java.util.concurrent.DelayQueue;
+import android.os.SystemClock;
 
-import cn.com.heaton.blelibrary.ble.BleLog;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
 
 abstract class Queue {
 
-    protected DelayQueue<Task> delayQueue = new DelayQueue<>();
-    //当前剩余总时长
-    private long lastTime = 0L;
+    //每个设备独立排队,互不等待
+    private final Map<String, Lane> lanes = new HashMap<>();
 
-    protected Queue() {
-        Runnable daemonTask = new DaemonThread();
-        Thread daemonThread = new Thread(daemonTask);
-        daemonThread.setName("Connect Daemon");
-        daemonThread.start();
+    protected Queue() {}
+
+    /**
+     * 添加任务,同一设备的任务按添加顺序依次间隔time执行
+     * 带合并键的任务如果已有相同key的任务在等待,直接替换其数据,不再重新排队
+     * @param time 与上一个任务的间隔,单位毫秒
+     */
+    public synchronized void put(long time, RequestTask requestTask){
+        String address = requestTask.getAddress();
+        Lane lane = lanes.get(address);
+        if (lane == null) {
+            lane = new Lane();
+            lanes.put(address, lane);
+        }
+        String key = requestTask.getKey();
+        if (key != null) {
+            Entry pending = lane.keyed.get(key);
+            if (pending != null) {
+                pending.requestTask = requestTask;
+                return;
+            }
+        }
+        long now = SystemClock.elapsedRealtime();
+        lane.lastTime = Math.max(lane.lastTime, now) + time;
+        Entry entry = new Entry(address, requestTask, lane.lastTime);
+        lane.entries.add(entry);
+        if (key != null) {
+            lane.keyed.put(key, entry);
+        }
+        //将任务放在共享时间轮中
+        entry.timeout = TimerWheel.getInstance().schedule(entry, lane.lastTime - now, null);
     }
 
-    //执行线程
-    class DaemonThread implements Runnable{
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    //从延迟队列中取值,使用take()函数，如果队列中没有数据，则线程wait释放CPU，而poll()则不会等待，直接返回null；
-                    // 同样，空间耗尽时offer()函数不会等待，直接返回false，而put()则会wait，因此如果你使用while(true)来获得队列元素，
-                    // 注意千万不能用poll()，CPU会100%的。
-                    Task task = delayQueue.take();
-                    if (task != null) {
-                        //修改问题的状态
-                        RequestTask requestTask = task.getRequestTask();
-                        if (requestTask != null){
-                            execute(requestTask);
-                            //减去当前任务时间
-                            lastTime-=task.getRealTime();
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    break;
-                }
+    /**
+     * 取消该设备所有未执行的任务(如设备已断开)
+     */
+    public synchronized void remove(String address){
+        Lane lane = lanes.remove(address);
+        if (lane != null) {
+            for (Entry entry : lane.entries) {
+                entry.timeout.cancel();
             }
         }
     }
 
-    public void put(long time, RequestTask requestTask){
-        lastTime+=time;
-        //创建一个任务
-        Task k = new Task(time, lastTime, requestTask);
-        //将任务放在延迟的队列中
-        delayQueue.put(k);
+    /**
+     * 取消所有tag相同的未执行任务
+     */
+    public synchronized void removeTag(Object tag){
+        if (tag == null) return;
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Lane> laneIterator = lanes.values().iterator();
+        while (laneIterator.hasNext()) {
+            Lane lane = laneIterator.next();
+            boolean removed = false;
+            Iterator<Entry> iterator = lane.entries.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (tag.equals(entry.requestTask.getTag())) {
+                    entry.timeout.cancel();
+                    iterator.remove();
+                    lane.removeKey(entry);
+                    removed = true;
+                }
+            }
+            if (!removed) continue;
+            //新任务排在剩余任务(或最后执行的任务)之后,不再等待已取消的任务
+            lane.lastTime = lane.entries.isEmpty() ? lane.lastRunTime : lane.entries.getLast().dueTime;
+            if (lane.entries.isEmpty() && lane.lastTime <= now) {
+                laneIterator.remove();
+            }
+        }
     }
 
-    public void remove(Task task){
-        delayQueue.remove(task);
+    /**
+     * @return 该设备新加入的任务在自身间隔之前还需等待的时间(毫秒)
+     */
+    synchronized long getWaitTime(String address) {
+        Lane lane = lanes.get(address);
+        return lane == null ? 0 : Math.max(0, lane.lastTime - SystemClock.elapsedRealtime());
     }
 
     public abstract void execute(RequestTask requestTask);
 
-    public void clear(){
-        delayQueue.clear();
-        lastTime = 0L;
+    public synchronized void clear(){
+        for (Lane lane : lanes.values()) {
+            for (Entry entry : lane.entries) {
+                entry.timeout.cancel();
+            }
+        }
+        lanes.clear();
+    }
+
+    private void onDue(Entry entry) {
+        RequestTask requestTask;
+        synchronized (this) {
+            Lane lane = lanes.get(entry.address);
+            if (lane == null || !lane.entries.remove(entry)) return;
+            lane.removeKey(entry);
+            lane.lastRunTime = entry.dueTime;
+            if (lane.entries.isEmpty() && lane.lastTime <= SystemClock.elapsedRealtime()) {
+                lanes.remove(entry.address);
+            }
+            requestTask = entry.requestTask;
+        }
+        execute(requestTask);
+    }
+
+    private static final class Lane {
+        //最后一个任务的执行时间,新任务排在其后
+        long lastTime;
+        //最近一个已执行任务的执行时间
+        long lastRunTime;
+        final LinkedList<Entry> entries = new LinkedList<>();
+        final Map<String, Entry> keyed = new HashMap<>();
+
+        void removeKey(Entry entry) {
+            String key = entry.requestTask.getKey();
+            if (key != null && keyed.get(key) == entry) {
+                keyed.remove(key);
+            }
+        }
     }
 
+    private final class Entry implements Runnable {
+        final String address;
+        //计划执行时间
+        final long dueTime;
+        RequestTask requestTask;
+        TimerWheel.Timeout timeout;
+
+        Entry(String address, RequestTask requestTask, long dueTime) {
+            this.address = address;
+            this.requestTask = requestTask;
+            this.dueTime = dueTime;
+        }
+
+        @Override
+        public void run() {
+            onDue(this);
+        }
+    }
 }
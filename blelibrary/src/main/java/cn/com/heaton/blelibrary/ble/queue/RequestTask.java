@@ -3,6 +3,11 @@ package cn.com.heaton.blelibrary.ble.queue;
 public class RequestTask {
     private String address;
     private byte[] data;
+    //合并键:同一设备上相同key且尚未执行的任务会被新任务替换
+    private String key;
+    //用于批量取消
+    private Object tag;
+    private int priority = GattOperation.PRIORITY_INTERACTIVE;
 
     private RequestTask(String address, byte[] data) {
         this.address = address;
@@ -13,6 +18,17 @@ public class RequestTask {
         return new RequestTask(address, data);
     }
 
+    /**
+     * 可合并的写入任务,适用于周期性的控制指令,只需要发送最新的一帧,默认按控制优先级执行
+     * @param key 合并键
+     */
+    public static RequestTask newWriteTask(String address, byte[] data, String key){
+        RequestTask task = new RequestTask(address, data);
+        task.key = key;
+        task.priority = GattOperation.PRIORITY_CONTROL;
+        return task;
+    }
+
     public static RequestTask newConnectTask(String address){
         return new RequestTask(address, null);
     }
@@ -25,4 +41,29 @@ public class RequestTask {
         return data;
     }
 
+    public String getKey() {
+        return key;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public RequestTask setTag(Object tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @param priority 执行时的GATT操作优先级,如{@link GattOperation#PRIORITY_CONTROL}
+     */
+    public RequestTask setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
 }
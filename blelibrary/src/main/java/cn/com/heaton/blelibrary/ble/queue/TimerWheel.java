@@ -0,0 +1,263 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.heaton.blelibrary.ble.BleHandler;
+import cn.com.heaton.blelibrary.ble.BleLog;
+
+/**
+ * 全局共享的哈希时间轮,所有延迟任务(写入队列、重连、连接超时、扫描定时、GATT操作超时)共用一个线程计时
+ * 使用单调时钟(System.nanoTime),插入和取消为O(1),可以按token(如设备地址)批量取消;
+ * 记录最早的到期tick,只有新任务比它更早到期时才唤醒工作线程,到期或取消最早的任务后才重新扫描一次;
+ * 到期的任务投递到BleHandler执行,与原来postDelayed的执行线程一致
+ * created by jerry on 2019/9/9.
+ */
+public final class TimerWheel {
+
+    private static final String TAG = "TimerWheel";
+    private static final long TICK_MS = 10L;
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private static volatile TimerWheel sInstance;
+
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+    private final Map<Object, Set<Timeout>> tokens = new HashMap<>();
+    private final Handler handler = BleHandler.of();
+    private final long startTime = System.nanoTime();
+    //已处理到的tick
+    private long currentTick;
+    private int size;
+    //最早的到期tick;earliestStale为true时它不大于实际最早的tick,需要重新扫描
+    private long earliest = Long.MAX_VALUE;
+    private boolean earliestStale;
+    //到期的任务,只在工作线程中使用,每轮投递后清空复用
+    private final List<Timeout> expired = new ArrayList<>();
+
+    private TimerWheel() {
+        Thread worker = new Thread(new Worker());
+        worker.setName("Ble Timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @NonNull
+    public static TimerWheel getInstance() {
+        if (sInstance != null) {
+            return sInstance;
+        }
+        synchronized (TimerWheel.class) {
+            if (sInstance == null) {
+                sInstance = new TimerWheel();
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 延迟执行任务
+     * @param task 任务
+     * @param delay 延迟时间(ms)
+     * @param token 用于批量取消的标记,可为null
+     * @return 可单独取消的句柄
+     */
+    public Timeout schedule(Runnable task, long delay, Object token) {
+        Timeout timeout = new Timeout(task, token);
+        synchronized (this) {
+            long ticks = Math.max(1L, (Math.max(0L, delay) + TICK_MS - 1) / TICK_MS);
+            //空闲时currentTick不再推进,以当前时间为基准
+            timeout.deadline = Math.max(nowTick(), currentTick) + ticks;
+            add(timeout);
+            if (token != null) {
+                Set<Timeout> set = tokens.get(token);
+                if (set == null) {
+                    set = new HashSet<>();
+                    tokens.put(token, set);
+                }
+                set.add(timeout);
+            }
+            size++;
+            //比当前最早的任务更早到期时才需要唤醒工作线程重新计算等待时间
+            if (timeout.deadline < earliest) {
+                earliest = timeout.deadline;
+                notifyAll();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * 取消token对应的所有任务
+     */
+    public synchronized void cancel(Object token) {
+        if (token == null) return;
+        Set<Timeout> set = tokens.remove(token);
+        if (set == null) return;
+        for (Timeout timeout : set) {
+            timeout.cancelled = true;
+            if (timeout.bucket >= 0) {
+                unlink(timeout);
+            }
+        }
+    }
+
+    private synchronized void cancelTimeout(Timeout timeout) {
+        if (timeout.cancelled) return;
+        timeout.cancelled = true;
+        if (timeout.bucket >= 0) {
+            unlink(timeout);
+        }
+        removeToken(timeout);
+    }
+
+    private void add(Timeout timeout) {
+        int bucket = (int) (timeout.deadline & MASK);
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = wheel[bucket];
+        if (wheel[bucket] != null) {
+            wheel[bucket].prev = timeout;
+        }
+        wheel[bucket] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+        if (size == 0) {
+            earliest = Long.MAX_VALUE;
+            earliestStale = false;
+        } else if (timeout.deadline == earliest) {
+            earliestStale = true;
+        }
+    }
+
+    private void removeToken(Timeout timeout) {
+        if (timeout.token == null) return;
+        Set<Timeout> set = tokens.get(timeout.token);
+        if (set != null && set.remove(timeout) && set.isEmpty()) {
+            tokens.remove(timeout.token);
+        }
+    }
+
+    private long nowTick() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) / TICK_MS;
+    }
+
+    // 处理到now为止到期的任务(放入expired),跨度超过一圈时每个桶只需要遍历一次
+    private synchronized void expire(long now) {
+        long from = currentTick + 1;
+        long to = Math.min(now, currentTick + WHEEL_SIZE);
+        for (long tick = from; tick <= to; tick++) {
+            Timeout timeout = wheel[(int) (tick & MASK)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadline <= now) {
+                    unlink(timeout);
+                    removeToken(timeout);
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = Math.max(currentTick, now);
+    }
+
+    // 最近的到期tick,只在最早的任务到期或被取消后重新扫描
+    private long nextDeadline() {
+        if (earliestStale) {
+            long next = Long.MAX_VALUE;
+            for (Timeout head : wheel) {
+                for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+                    next = Math.min(next, timeout.deadline);
+                }
+            }
+            earliest = next;
+            earliestStale = false;
+        }
+        return earliest;
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    synchronized (TimerWheel.this) {
+                        //没有任务时不再唤醒,新任务加入时重新计算等待时间
+                        while (size == 0) {
+                            TimerWheel.this.wait();
+                        }
+                        long now = nowTick();
+                        long next = nextDeadline();
+                        if (next > now) {
+                            TimerWheel.this.wait((next - now) * TICK_MS);
+                            continue;
+                        }
+                        expire(now);
+                    }
+                    for (int i = 0; i < expired.size(); i++) {
+                        handler.post(expired.get(i));
+                    }
+                    expired.clear();
+                } catch (InterruptedException e) {
+                    BleLog.e(TAG, "timer worker interrupted");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 延迟任务句柄
+     */
+    public final class Timeout implements Runnable {
+        private final Runnable task;
+        private final Object token;
+        private long deadline;
+        private int bucket = -1;
+        private Timeout prev;
+        private Timeout next;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, Object token) {
+            this.task = task;
+            this.token = token;
+        }
+
+        public void cancel() {
+            cancelTimeout(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            //到期后、执行前被取消的任务不再执行
+            if (!cancelled) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import cn.com.heaton.blelibrary.ble.BleRequestImpl;
+import cn.com.heaton.blelibrary.ble.GattEventLog;
+
+/**
+ * 特征写入操作,执行时才设置特征值,避免排队中的数据被后续写入覆盖
+ * 大数据分包时每个发送位置复用同一个操作和整包缓冲区(见{@link #obtain(WriteOperation[], int, int)}),
+ * 稳定发送时每包不再分配对象
+ * created by jerry on 2019/9/4.
+ */
+public class WriteOperation extends GattOperation {
+
+    private BluetoothGattCharacteristic characteristic;
+    private byte[] value;
+    private byte[] buffer;
+    private int writeType;
+    private WriteWindow window;
+    //已交给设备GATT队列且回调还未到达,此时不能复用
+    private volatile boolean pending;
+
+    public WriteOperation(int priority) {
+        super(priority);
+    }
+
+    /**
+     * 取出ring中index位置的写入操作,为空或上一包仍在排队、等待回调时换一个新的
+     */
+    public static WriteOperation obtain(WriteOperation[] ring, int index, int priority) {
+        WriteOperation operation = ring[index];
+        if (operation == null || operation.pending) {
+            operation = new WriteOperation(priority);
+            ring[index] = operation;
+        }
+        return operation;
+    }
+
+    /**
+     * @return 本操作复用的整包缓冲区
+     */
+    public byte[] buffer(int length) {
+        if (buffer == null || buffer.length != length) {
+            buffer = new byte[length];
+        }
+        return buffer;
+    }
+
+    /**
+     * 设置本次写入的内容,之后到回调到达前不能再复用
+     * @param writeType 写入类型,{@link BleRequestImpl#WRITE_TYPE_UNCHANGED}表示使用特征当前的写入类型
+     * @param window    写入窗口,该包被确认或失败后归还信用,可为null
+     */
+    public WriteOperation set(BluetoothGattCharacteristic characteristic, byte[] value, int writeType, WriteWindow window) {
+        this.characteristic = characteristic;
+        this.value = value;
+        this.writeType = writeType;
+        this.window = window;
+        this.pending = true;
+        expect(GattEventLog.CHARACTERISTIC_WRITE, characteristic.getUuid());
+        return this;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    @Override
+    public boolean execute(BluetoothGatt gatt) {
+        characteristic.setValue(value);
+        if (writeType == BleRequestImpl.WRITE_TYPE_UNCHANGED) {
+            return gatt.writeCharacteristic(characteristic);
+        }
+        //写入类型在调用时即被协议栈读取,写入后立即恢复,不影响其他写入
+        int originalType = characteristic.getWriteType();
+        characteristic.setWriteType(writeType);
+        boolean result = gatt.writeCharacteristic(characteristic);
+        characteristic.setWriteType(originalType);
+        return result;
+    }
+
+    //先标记可复用再归还信用,拿到信用的一方一定能复用该操作
+    @Override
+    public void onCompleted() {
+        WriteWindow window = this.window;
+        pending = false;
+        if (window != null) {
+            window.release();
+        }
+    }
+
+    @Override
+    public void onFailed() {
+        WriteWindow window = this.window;
+        pending = false;
+        if (window != null) {
+            window.fail();
+        }
+    }
+}
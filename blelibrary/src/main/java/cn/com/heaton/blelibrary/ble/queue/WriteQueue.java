@@ -45,7 +45,7 @@ public final class WriteQueue extends Queue{
 
     @Override
     public void execute(RequestTask requestTask) {
-        bleRequest.wirteCharacteristic(requestTask.getAddress(), requestTask.getData());
+        bleRequest.wirteCharacteristic(requestTask.getAddress(), requestTask.getData(), requestTask.getPriority());
     }
 
     /*@Override
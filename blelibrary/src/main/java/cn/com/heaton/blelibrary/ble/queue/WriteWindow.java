@@ -0,0 +1,98 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入流控窗口(信用)
+ * 每发出一包占用一个信用,该包的onCharacteristicWrite回调到达(或失败)后归还,失败的包会被记录,
+ * 窗口内的数据包会提前进入设备的GATT队列,回调到达时下一包立即提交,不再依赖定时延迟
+ * 使用对象锁等待,窗口已满时每包的等待不分配对象
+ * created by jerry on 2019/9/4.
+ */
+public final class WriteWindow {
+
+    private final int size;
+    //已占用的信用
+    private int inFlight;
+    //写入失败(提交失败、超时或回调状态不是成功)的数据包数
+    private int failures;
+
+    public WriteWindow(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("write window size must be greater than 0");
+        }
+        this.size = size;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * 获取一个信用,窗口已满时等待
+     * @param timeout 最长等待时间(毫秒)
+     * @return 是否获取成功
+     */
+    public synchronized boolean acquire(long timeout) throws InterruptedException {
+        if (!await(size - 1, timeout)) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * 归还一个信用(写入回调到达或写入失败)
+     */
+    public synchronized void release() {
+        if (inFlight > 0) {
+            inFlight--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 数据包写入失败,记录失败并归还信用
+     */
+    public synchronized void fail() {
+        failures++;
+        release();
+    }
+
+    /**
+     * @return 写入失败的数据包数,大于0时本次传输应视为失败
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * 等待窗口内所有数据包都被确认
+     * @param timeout 最长等待时间(毫秒)
+     * @return 是否全部确认
+     */
+    public synchronized boolean awaitIdle(long timeout) throws InterruptedException {
+        return await(0, timeout);
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    // 等待占用的信用不超过limit
+    private boolean await(int limit, long timeout) throws InterruptedException {
+        if (inFlight <= limit) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long remaining = timeout;
+        while (inFlight > limit) {
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        return true;
+    }
+}
@@ -1,55 +1,111 @@
 package cn.com.heaton.blelibrary.ble.request;
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+
 import cn.com.heaton.blelibrary.ble.BleHandler;
+import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.queue.ConnectLimiter;
 
-public class BleConnectTask<T> implements Runnable {
+/**
+ * 多设备连接调度:与自动重连共用连接名额,同时最多maxConnectingCount个设备处于连接中,
+ * 一个设备连接完成(发现服务)或失败后立即开始下一个设备的连接
+ */
+public class BleConnectTask<T extends BleDevice> {
 
     interface NextCallback<T> {
-        void onNext(T device);
+        /**
+         * @return 是否成功发起连接(失败时直接开始下一个)
+         */
+        boolean onNext(T device);
     }
 
-    private static final long DEFALUT_DELAY = 2000L;
-    private List<T> connectDevices = new ArrayList<>();
-    private NextCallback<T> callback;
+    //等待连接的设备,每个设备保留发起连接时的回调,多次connects()互不覆盖
+    private LinkedList<Pending<T>> connectDevices = new LinkedList<>();
+    //名额与自动重连共用
+    private final ConnectLimiter limiter = ConnectLimiter.getInstance();
+    private final Runnable scheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BleConnectTask.this) {
+                schedule();
+            }
+        }
+    };
 
-    void excute(List<T> devices, NextCallback<T> callback){
-        this.callback = callback;
-        connectDevices.addAll(devices);
-        BleHandler.of().post(this);
+    BleConnectTask() {
+        limiter.addListener(scheduleRunnable);
+    }
+
+    synchronized void excute(List<T> devices, NextCallback<T> callback){
+        for (T device : devices) {
+            connectDevices.add(new Pending<>(device, callback));
+        }
+        schedule();
     }
 
     /**
      * 获取暂未连接的设备数
      */
-    int getLastSize(){
+    synchronized int getLastSize(){
         return connectDevices.size();
     }
 
     //队列中是否包含该设备
-    boolean isContains(T device){
-        return connectDevices.contains(device);
+    synchronized boolean isContains(T device){
+        for (Pending<T> pending : connectDevices) {
+            if (pending.device.equals(device)) return true;
+        }
+        return false;
     }
 
-    void cancelAll(){
+    synchronized void cancelAll(){
         connectDevices.clear();
     }
 
-    void cancelOne(T device){
-        connectDevices.remove(device);
+    synchronized void cancelOne(T device){
+        Iterator<Pending<T>> iterator = connectDevices.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().device.equals(device)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 设备连接完成或失败(包括超时、断开、取消),空出的名额交给下一个设备
+     * @param address 设备地址
+     */
+    void onFinished(String address){
+        //释放后由limiter通知等待中的一方(本队列或自动重连)
+        limiter.release(address);
     }
 
-    @Override
-    public void run() {
-        if (null != connectDevices && !connectDevices.isEmpty()){
-            if (null != callback){
-                callback.onNext(connectDevices.get(0));
-                connectDevices.remove(0);
-                if (connectDevices.isEmpty())return;
-                BleHandler.of().postDelayed(BleConnectTask.this, DEFALUT_DELAY);
-            }
-        }else {
-            callback = null;
+    private void schedule(){
+        Iterator<Pending<T>> iterator = connectDevices.iterator();
+        while (iterator.hasNext() && !limiter.isFull()) {
+            final Pending<T> pending = iterator.next();
+            //该设备正在重连中,留在队列中等它释放名额,后面的设备继续
+            if (!limiter.tryAcquire(pending.device.getBleAddress())) continue;
+            iterator.remove();
+            BleHandler.of().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.callback == null || !pending.callback.onNext(pending.device)) {
+                        onFinished(pending.device.getBleAddress());
+                    }
+                }
+            });
+        }
+    }
+
+    private static final class Pending<T> {
+        final T device;
+        final NextCallback<T> callback;
+
+        Pending(T device, NextCallback<T> callback) {
+            this.device = device;
+            this.callback = callback;
         }
     }
 }
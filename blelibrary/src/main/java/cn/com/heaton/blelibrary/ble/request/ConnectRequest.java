@@ -6,8 +6,9 @@ import android.os.SystemClock;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.BleFactory;
@@ -18,8 +19,8 @@ import cn.com.heaton.blelibrary.ble.annotation.Implement;
 import cn.com.heaton.blelibrary.ble.callback.BleConnectCallback;
 import cn.com.heaton.blelibrary.ble.callback.wrapper.ConnectWrapperCallback;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.model.DeviceRegistry;
 import cn.com.heaton.blelibrary.ble.queue.ConnectQueue;
-import cn.com.heaton.blelibrary.ble.queue.RequestTask;
 import cn.com.heaton.blelibrary.ble.utils.TaskExecutor;
 
 /**
@@ -30,27 +31,27 @@ import cn.com.heaton.blelibrary.ble.utils.TaskExecutor;
 public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallback {
 
     private static final String TAG = "ConnectRequest";
-    private static final long DEFALUT_CONNECT_DELAY = 2000L;
-    private BleConnectCallback<T> connectCallback;
-    private ArrayList<T> devices = new ArrayList<>();
+    //每个设备使用发起连接(或断开)时传入的回调,多个设备的回调互不覆盖
+    private final Map<String, BleConnectCallback<T>> connectCallbacks = new ConcurrentHashMap<>();
+    private DeviceRegistry<T> devices = new DeviceRegistry<>();
     private ArrayList<T> connetedDevices = new ArrayList<>();
-    private ArrayList<T> autoDevices = new ArrayList<>();
+    //等待自动重连的设备
+    private DeviceRegistry<T> autoDevices = new DeviceRegistry<>();
     private BleConnectTask<T> task = new BleConnectTask<>();
 
     protected ConnectRequest() {}
 
     public boolean reconnect(String address){
-        for (T device : autoDevices) {
-            if (TextUtils.equals(address, device.getBleAddress())){
-                return connect(device, connectCallback);
-            }
+        T device = autoDevices.get(address);
+        if (device != null){
+            return connect(device, connectCallbacks.get(address));
         }
         return false;
     }
 
     public boolean connect(T device, BleConnectCallback<T> callback) {
         addBleDevice(device);
-        connectCallback = callback;
+        putCallback(device.getBleAddress(), callback);
         boolean result = false;
         BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
         if (bleRequest != null) {
@@ -71,7 +72,7 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
     }
 
     /**
-     * 连接多个设备
+     * 连接多个设备,同时连接的设备数由Options.maxConnectingCount限制
      * @param devices
      * @param callback
      */
@@ -80,8 +81,10 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
         if (bleRequest != null) {
             task.excute(devices, new BleConnectTask.NextCallback<T>() {
                 @Override
-                public void onNext(T device) {
-                    connect(device, callback);
+                public boolean onNext(T device) {
+                    //已连接的设备不会再有连接回调,直接让出名额
+                    if (device.isConnected()) return false;
+                    return connect(device, callback);
                 }
             });
         }
@@ -95,6 +98,7 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
         boolean connectting = device.isConnectting();
         boolean ready_connect = task.isContains(device);
         if (connectting || ready_connect){
+            BleConnectCallback<T> connectCallback = connectCallbacks.get(device.getBleAddress());
             if (null != connectCallback){
                 connectCallback.onConnectCancel(device);
             }
@@ -103,7 +107,10 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
                 final BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
                 bleRequest.cancelTimeout(device.getBleAddress());
                 device.setConnectionState(BleStates.BleStatus.DISCONNECT);
-                connectCallback.onConnectionChanged(device);
+                if (null != connectCallback){
+                    connectCallback.onConnectionChanged(device);
+                }
+                task.onFinished(device.getBleAddress());
             }
             if (ready_connect){
                 task.cancelOne(device);
@@ -151,8 +158,8 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
      */
     public void disconnect(BleDevice device, BleConnectCallback<T> callback) {
         if (device != null){
+            putCallback(device.getBleAddress(), callback);
             disconnect(device.getBleAddress());
-            connectCallback = callback;
         }
     }
 
@@ -160,6 +167,7 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
     public void onConnectionChanged(BluetoothDevice device, int status) {
         final T bleDevice = getBleDevice(device);
         if (bleDevice == null)return;
+        final BleConnectCallback<T> connectCallback = connectCallbacks.get(bleDevice.getBleAddress());
         bleDevice.setConnectionState(status);
         if (status == BleStates.BleStatus.CONNECTED){
             connetedDevices.add(bleDevice);
@@ -169,9 +177,15 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
             removeAutoPool(bleDevice);
         }else if(status == BleStates.BleStatus.DISCONNECT) {
             connetedDevices.remove(bleDevice);
-            devices.remove(bleDevice);
+            devices.remove(bleDevice.getBleAddress());
+            //连接失败、超时或断开,开始下一个设备的连接
+            task.onFinished(bleDevice.getBleAddress());
             BleLog.e(TAG, "DISCONNECT>>>> "+bleDevice.getBleName());
             addAutoPool(bleDevice);
+            if (!bleDevice.isAutoConnect()){
+                //不再重连的设备不会再有回调
+                connectCallbacks.remove(bleDevice.getBleAddress());
+            }
         }
         TaskExecutor.mainThread(new Runnable() {
             @Override
@@ -196,6 +210,7 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
             errorCode = BleStates.BleStatus.ConnectError;
         }
         BleLog.e(TAG, "ConnectException>>>> "+bleDevice.getBleName()+"\n异常码:"+errorCode);
+        final BleConnectCallback<T> connectCallback = connectCallbacks.get(bleDevice.getBleAddress());
         TaskExecutor.mainThread(new Runnable() {
             @Override
             public void run() {
@@ -211,6 +226,7 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
         final T bleDevice = getBleDevice(device);
         if (bleDevice == null)return;
         BleLog.e(TAG, "ConnectTimeOut>>>> "+bleDevice.getBleName());
+        final BleConnectCallback<T> connectCallback = connectCallbacks.get(bleDevice.getBleAddress());
         TaskExecutor.mainThread(new Runnable() {
             @Override
             public void run() {
@@ -227,6 +243,7 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
         final T bleDevice = getBleDevice(device);
         if (bleDevice == null)return;
         BleLog.e(TAG, "onReady>>>> "+bleDevice.getBleName());
+        final BleConnectCallback<T> connectCallback = connectCallbacks.get(bleDevice.getBleAddress());
         TaskExecutor.mainThread(new Runnable() {
             @Override
             public void run() {
@@ -240,22 +257,28 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
     @Override
     public void onServicesDiscovered(final BluetoothDevice device) {
         BleLog.e(TAG, "onServicesDiscovered>>>> "+device.getName());
+        //连接完成,开始下一个设备的连接
+        task.onFinished(device.getAddress());
+        final BleConnectCallback<T> connectCallback = connectCallbacks.get(device.getAddress());
         if (null != connectCallback){
             TaskExecutor.mainThread(new Runnable() {
                 @Override
                 public void run() {
-                    if (null != connectCallback){
-                        connectCallback.onServicesDiscovered(getBleDevice(device));
-                    }
+                    connectCallback.onServicesDiscovered(getBleDevice(device));
                 }
             });
         }
     }
 
+    private void putCallback(String address, BleConnectCallback<T> callback) {
+        if (callback != null) {
+            connectCallbacks.put(address, callback);
+        }
+    }
+
     private void addBleDevice(T device) {
         if (device == null)throw new IllegalArgumentException("device is not null");
-        if (getBleDevice(device.getBleAddress()) == null) {
-            devices.add(device);
+        if (devices.putIfAbsent(device) == null) {
             BleLog.i(TAG, "addBleDevice>>>> Added a device to the device pool");
         }
     }
@@ -269,18 +292,11 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
             BleLog.w(TAG,"By address to get BleDevice but address is null");
             return null;
         }
-        synchronized (devices){
-            if(devices.size() > 0){
-                for (T bleDevice : devices){
-                    if(bleDevice.getBleAddress().equals(address)){
-                        return bleDevice;
-                    }
-                }
-            }
+        T bleDevice = devices.get(address);
+        if (bleDevice == null){
             BleLog.w(TAG,"By address to get BleDevice and BleDevice isn't exist");
-            return null;
         }
-
+        return bleDevice;
     }
 
     /**
@@ -313,13 +329,8 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
      */
     private void removeAutoPool(BleDevice device) {
         if (device == null) return;
-        Iterator<T> iterator = autoDevices.iterator();
-        while (iterator.hasNext()) {
-            BleDevice item = iterator.next();
-            if (device.getBleAddress().equals(item.getBleAddress())) {
-                iterator.remove();
-            }
-        }
+        autoDevices.remove(device.getBleAddress());
+        ConnectQueue.getInstance().remove(device.getBleAddress());
     }
 
     /**
@@ -331,8 +342,8 @@ public class ConnectRequest<T extends BleDevice> implements ConnectWrapperCallba
         if (device == null) return;
         if (device.isAutoConnect()) {
             BleLog.w(TAG, "addAutoPool: "+"Add automatic connection device to the connection pool");
-            autoDevices.add(device);
-            ConnectQueue.getInstance().put(DEFALUT_CONNECT_DELAY, RequestTask.newConnectTask(device.getBleAddress()));
+            autoDevices.putIfAbsent(device);
+            ConnectQueue.getInstance().put(device.getBleAddress());
         }
     }
 
@@ -1,40 +1,60 @@
 package cn.com.heaton.blelibrary.ble.request;
 
-import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
 
 import cn.com.heaton.blelibrary.ble.Ble;
-import cn.com.heaton.blelibrary.ble.callback.wrapper.MtuWrapperCallback;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
 import cn.com.heaton.blelibrary.ble.BleRequestImpl;
 import cn.com.heaton.blelibrary.ble.annotation.Implement;
+import cn.com.heaton.blelibrary.ble.callback.BleFutureCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleMtuCallback;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
 
 /**
  *
  * Created by LiuLei on 2017/10/23.
  */
 @Implement(MtuRequest.class)
-public class MtuRequest<T extends BleDevice> implements MtuWrapperCallback {
-
-    private BleMtuCallback<T> bleMtuCallback;
+public class MtuRequest<T extends BleDevice> {
 
     protected MtuRequest() {}
 
-    public boolean setMtu(String address, int mtu, BleMtuCallback<T> callback){
-        this.bleMtuCallback = callback;
-        boolean result = false;
-        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
-        if (Ble.getInstance() != null && bleRequest != null) {
-            result = bleRequest.setMtu(address, mtu);
+    /**
+     * 回调绑定在本次请求上,同时设置多个设备时回调互不覆盖
+     */
+    public boolean setMtu(final String address, int mtu, final BleMtuCallback<T> callback){
+        final BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        if (Ble.getInstance() == null || bleRequest == null) return false;
+        BleFuture<Integer> future = new BleFuture<>();
+        if (!bleRequest.setMtu(address, mtu, future)) {
+            return false;
         }
-        return result;
+        if (callback != null) {
+            future.addCallback(new BleFutureCallback<Integer>() {
+                @Override
+                public void onSuccess(Integer mtu) {
+                    callback.onMtuChanged(Ble.<T>getInstance().getBleDevice(address), mtu, BluetoothGatt.GATT_SUCCESS);
+                }
+
+                @Override
+                public void onFailure(String message) {
+                    callback.onMtuChanged(Ble.<T>getInstance().getBleDevice(address), bleRequest.getMtu(address), BluetoothGatt.GATT_FAILURE);
+                }
+            });
+        }
+        return true;
     }
 
-    @Override
-    public void onMtuChanged(BluetoothDevice device, int mtu, int status) {
-        if(null != bleMtuCallback){
-            T bleDevice = Ble.<T>getInstance().getBleDevice(device);
-            bleMtuCallback.onMtuChanged(bleDevice, mtu, status);
+    /**
+     * 异步设置MTU
+     * @return 结果为协商后的mtu
+     */
+    public BleFuture<Integer> setMtuAsync(String address, int mtu){
+        BleFuture<Integer> future = new BleFuture<>();
+        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        if (bleRequest != null && bleRequest.setMtu(address, mtu, future)) {
+            return future;
         }
+        return future.isDone() ? future : BleFuture.<Integer>failed("set mtu failed");
     }
 }
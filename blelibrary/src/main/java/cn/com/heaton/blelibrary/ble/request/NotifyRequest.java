@@ -3,6 +3,11 @@ package cn.com.heaton.blelibrary.ble.request;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.BleRequestImpl;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
@@ -18,46 +23,93 @@ import cn.com.heaton.blelibrary.ble.callback.wrapper.NotifyWrapperCallback;
 public class NotifyRequest<T extends BleDevice> implements NotifyWrapperCallback {
 
     private static final String TAG = "NotifyRequest";
-    private BleNotiftCallback<T> notiftCallback;
+    //按设备保存通知回调,多个设备的通知互不覆盖
+    private final Map<String, BleNotiftCallback<T>> notiftCallbacks = new ConcurrentHashMap<>();
+    //按设备、特征保存的通知回调,优先于设备的回调
+    private final ConcurrentMap<String, Map<UUID, BleNotiftCallback<T>>> characteristicCallbacks = new ConcurrentHashMap<>();
     private Ble<T> ble = Ble.getInstance();
 
     protected NotifyRequest() {}
 
     public void notify(T device, BleNotiftCallback<T> callback) {
-        notiftCallback = callback;
+        putCallback(device.getBleAddress(), callback);
         BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
         bleRequest.setCharacteristicNotification(device.getBleAddress(), true);
     }
 
+    /**
+     * 开启指定特征的通知,该特征的通知只回调给这里传入的callback
+     * @return 是否找到该特征
+     */
+    public boolean notify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback) {
+        putCallback(device.getBleAddress(), characteristicUuid, callback);
+        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        return bleRequest.setCharacteristicNotification(device.getBleAddress(), serviceUuid, characteristicUuid, true);
+    }
+
+    /**
+     * 关闭指定特征的通知
+     * @return 是否找到该特征
+     */
+    public boolean cancelNotify(T device, UUID serviceUuid, UUID characteristicUuid, BleNotiftCallback<T> callback) {
+        putCallback(device.getBleAddress(), characteristicUuid, callback);
+        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        return bleRequest.setCharacteristicNotification(device.getBleAddress(), serviceUuid, characteristicUuid, false);
+    }
+
     public void cancelNotify(T device, BleNotiftCallback<T> callback) {
-        notiftCallback = callback;
+        putCallback(device.getBleAddress(), callback);
         BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
         bleRequest.setCharacteristicNotification(device.getBleAddress(), false);
     }
 
     @Override
-    public void onChanged(final BluetoothDevice device, final BluetoothGattCharacteristic characteristic) {
+    public void onChanged(final BluetoothDevice device, final BluetoothGattCharacteristic characteristic, byte[] value) {
+        BleNotiftCallback<T> notiftCallback = getCallback(device.getAddress(), characteristic.getUuid());
         if (null != notiftCallback){
             T bleDevice = ble.getBleDevice(device);
-            notiftCallback.onChanged(bleDevice, characteristic);
+            notiftCallback.onChanged(bleDevice, characteristic, value);
         }
     }
 
     @Override
-    public void onNotifySuccess(final BluetoothDevice device) {
+    public void onNotifySuccess(final BluetoothDevice device, UUID characteristicUuid, final long elapsed) {
+        final BleNotiftCallback<T> notiftCallback = getCallback(device.getAddress(), characteristicUuid);
+        TaskExecutor.mainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (null != notiftCallback){
+                    T bleDevice = ble.getBleDevice(device);
+                    notiftCallback.onNotifySuccess(bleDevice, elapsed);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onNotifyFailed(final BluetoothDevice device, UUID characteristicUuid, final String message) {
+        final BleNotiftCallback<T> notiftCallback = getCallback(device.getAddress(), characteristicUuid);
         TaskExecutor.mainThread(new Runnable() {
             @Override
             public void run() {
                 if (null != notiftCallback){
                     T bleDevice = ble.getBleDevice(device);
-                    notiftCallback.onNotifySuccess(bleDevice);
+                    notiftCallback.onNotifyFailed(bleDevice, message);
                 }
             }
         });
     }
 
     @Override
-    public void onNotifyCanceled(final BluetoothDevice device) {
+    public void onNotifyCanceled(final BluetoothDevice device, UUID characteristicUuid) {
+        final BleNotiftCallback<T> notiftCallback = getCallback(device.getAddress(), characteristicUuid);
+        //通知已关闭,该特征不再单独路由
+        if (characteristicUuid != null) {
+            Map<UUID, BleNotiftCallback<T>> callbacks = characteristicCallbacks.get(device.getAddress());
+            if (callbacks != null) {
+                callbacks.remove(characteristicUuid);
+            }
+        }
         TaskExecutor.mainThread(new Runnable() {
             @Override
             public void run() {
@@ -68,4 +120,41 @@ public class NotifyRequest<T extends BleDevice> implements NotifyWrapperCallback
             }
         });
     }
+
+    /**
+     * 先按特征查找,没有单独注册时使用设备的回调
+     */
+    private BleNotiftCallback<T> getCallback(String address, UUID characteristicUuid) {
+        if (characteristicUuid != null) {
+            Map<UUID, BleNotiftCallback<T>> callbacks = characteristicCallbacks.get(address);
+            BleNotiftCallback<T> callback = callbacks != null ? callbacks.get(characteristicUuid) : null;
+            if (callback != null) {
+                return callback;
+            }
+        }
+        return notiftCallbacks.get(address);
+    }
+
+    private void putCallback(String address, BleNotiftCallback<T> callback) {
+        if (callback != null) {
+            notiftCallbacks.put(address, callback);
+        }
+    }
+
+    private void putCallback(String address, UUID characteristicUuid, BleNotiftCallback<T> callback) {
+        if (callback == null) return;
+        if (characteristicUuid == null) {
+            putCallback(address, callback);
+            return;
+        }
+        Map<UUID, BleNotiftCallback<T>> callbacks = characteristicCallbacks.get(address);
+        if (callbacks == null) {
+            callbacks = new ConcurrentHashMap<>();
+            Map<UUID, BleNotiftCallback<T>> existing = characteristicCallbacks.putIfAbsent(address, callbacks);
+            if (existing != null) {
+                callbacks = existing;
+            }
+        }
+        callbacks.put(characteristicUuid, callback);
+    }
 }
@@ -1,48 +1,81 @@
 package cn.com.heaton.blelibrary.ble.request;
 
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 
-import cn.com.heaton.blelibrary.ble.callback.wrapper.ReadWrapperCallback;
+import java.util.UUID;
+
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.BleRequestImpl;
 import cn.com.heaton.blelibrary.ble.annotation.Implement;
+import cn.com.heaton.blelibrary.ble.callback.BleFutureCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleReadCallback;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
 
 /**
  *
  * Created by LiuLei on 2017/10/23.
  */
 @Implement(ReadRequest.class)
-public class ReadRequest<T extends BleDevice> implements ReadWrapperCallback {
-
-    private BleReadCallback<T> bleReadCallback;
-    private Ble<T> ble = Ble.getInstance();
+public class ReadRequest<T extends BleDevice> {
 
     protected ReadRequest() {}
 
-    public boolean read(T device, BleReadCallback<T> callback){
-        this.bleReadCallback = callback;
-        boolean result = false;
+    /**
+     * 回调绑定在本次读取操作上,同时读取多个设备时回调互不覆盖
+     */
+    public boolean read(final T device, final BleReadCallback<T> callback){
+        return read(device, null, null, callback);
+    }
+
+    /**
+     * 读取指定特征
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID,为null时使用Options中配置的读取特征
+     */
+    public boolean read(final T device, UUID serviceUuid, UUID characteristicUuid, final BleReadCallback<T> callback){
         BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
-        if (Ble.getInstance() != null && bleRequest != null) {
-            result = bleRequest.readCharacteristic(device.getBleAddress());
+        if (Ble.getInstance() == null || bleRequest == null) return false;
+        BleFuture<byte[]> future = new BleFuture<>();
+        if (!bleRequest.readCharacteristic(device.getBleAddress(), serviceUuid, characteristicUuid, future)) {
+            return false;
         }
-        return result;
-    }
+        if (callback != null) {
+            final BluetoothGattCharacteristic characteristic = characteristicUuid == null
+                    ? bleRequest.getReadCharacteristic(device.getBleAddress())
+                    : bleRequest.getCharacteristic(device.getBleAddress(), serviceUuid, characteristicUuid);
+            future.addCallback(new BleFutureCallback<byte[]>() {
+                @Override
+                public void onSuccess(byte[] value) {
+                    callback.onReadSuccess(device, characteristic);
+                }
 
-    @Override
-    public void onReadSuccess(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
-        if(bleReadCallback != null){
-            bleReadCallback.onReadSuccess(ble.getBleDevice(device), characteristic);
+                @Override
+                public void onFailure(String message) {
+                    callback.onReadFailed(device, "读取失败," + message);
+                }
+            });
         }
+        return true;
+    }
+
+    /**
+     * 异步读取,每次读取持有独立的结果句柄,并发读取不同设备时回调互不覆盖
+     * @return 结果为读取到的数据
+     */
+    public BleFuture<byte[]> readAsync(T device){
+        return readAsync(device, null, null);
     }
 
-    @Override
-    public void onReadFailed(BluetoothDevice device, String message) {
-        if(bleReadCallback != null){
-            bleReadCallback.onReadFailed(ble.getBleDevice(device), message);
+    /**
+     * 异步读取指定特征
+     */
+    public BleFuture<byte[]> readAsync(T device, UUID serviceUuid, UUID characteristicUuid){
+        BleFuture<byte[]> future = new BleFuture<>();
+        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        if (bleRequest != null && bleRequest.readCharacteristic(device.getBleAddress(), serviceUuid, characteristicUuid, future)) {
+            return future;
         }
+        return future.isDone() ? future : BleFuture.<byte[]>failed("read failed");
     }
 }
@@ -1,41 +1,54 @@
 package cn.com.heaton.blelibrary.ble.request;
 
-import android.bluetooth.BluetoothDevice;
-
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.BleRequestImpl;
 import cn.com.heaton.blelibrary.ble.annotation.Implement;
+import cn.com.heaton.blelibrary.ble.callback.BleFutureCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleReadRssiCallback;
-import cn.com.heaton.blelibrary.ble.callback.wrapper.ReadRssiWrapperCallback;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
 
 /**
  *
  * Created by LiuLei on 2017/10/23.
  */
 @Implement(ReadRssiRequest.class)
-public class ReadRssiRequest<T extends BleDevice> implements ReadRssiWrapperCallback {
-
-    private BleReadRssiCallback<T> readRssiCallback;
-    private Ble<T> ble = Ble.getInstance();
+public class ReadRssiRequest<T extends BleDevice> {
 
     protected ReadRssiRequest() {
     }
 
-    public boolean readRssi(T device, BleReadRssiCallback<T> callback){
-        this.readRssiCallback = callback;
-        boolean result = false;
+    /**
+     * 回调绑定在本次读取操作上,同时读取多个设备时回调互不覆盖
+     */
+    public boolean readRssi(final T device, final BleReadRssiCallback<T> callback){
         BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
-        if (Ble.getInstance() != null && bleRequest != null) {
-            result = bleRequest.readRssi(device.getBleAddress());
+        if (Ble.getInstance() == null || bleRequest == null) return false;
+        BleFuture<Integer> future = new BleFuture<>();
+        if (!bleRequest.readRssi(device.getBleAddress(), future)) {
+            return false;
         }
-        return result;
+        if (callback != null) {
+            future.addCallback(new BleFutureCallback<Integer>() {
+                @Override
+                public void onSuccess(Integer rssi) {
+                    callback.onReadRssiSuccess(device, rssi);
+                }
+            });
+        }
+        return true;
     }
 
-    @Override
-    public void onReadRssiSuccess(BluetoothDevice device, int rssi) {
-        if(readRssiCallback != null){
-            readRssiCallback.onReadRssiSuccess(ble.getBleDevice(device), rssi);
+    /**
+     * 异步读取RSSI
+     * @return 结果为rssi
+     */
+    public BleFuture<Integer> readRssiAsync(T device){
+        BleFuture<Integer> future = new BleFuture<>();
+        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        if (bleRequest != null && bleRequest.readRssi(device.getBleAddress(), future)) {
+            return future;
         }
+        return future.isDone() ? future : BleFuture.<Integer>failed("read rssi failed");
     }
 }
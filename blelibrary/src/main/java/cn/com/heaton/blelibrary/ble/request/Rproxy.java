@@ -1,78 +1,156 @@
 package cn.com.heaton.blelibrary.ble.request;
 
-import android.content.Context;
-
-import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import cn.com.heaton.blelibrary.ble.BleLog;
-import cn.com.heaton.blelibrary.ble.annotation.Implement;
-import dalvik.system.DexFile;
+import cn.com.heaton.blelibrary.ble.model.BleDevice;
 
 /**
- *
+ * 请求对象的直接持有者,每种请求在第一次使用时才创建(不再扫描注解、反射实例化)
  * Created by LiuLei on 2018/1/22.
  */
 
+@SuppressWarnings("unchecked")
 public class Rproxy {
 
-    private static Map<Class, Object> requestObjs;
+    private static volatile AdvertiserRequest advertiserRequest;
+    private static volatile ConnectRequest connectRequest;
+    private static volatile MtuRequest mtuRequest;
+    private static volatile NotifyRequest notifyRequest;
+    private static volatile ReadRequest readRequest;
+    private static volatile ReadRssiRequest readRssiRequest;
+    private static volatile ScanRequest scanRequest;
+    private static volatile WriteRequest writeRequest;
+
+    /**
+     * 兼容原有的按类型获取,新代码请直接使用对应的getXxxRequest()
+     */
+    public static <T>T getRequest(Class cls){
+        if (cls == ConnectRequest.class) return (T) getConnectRequest();
+        if (cls == WriteRequest.class) return (T) getWriteRequest();
+        if (cls == NotifyRequest.class) return (T) getNotifyRequest();
+        if (cls == ReadRequest.class) return (T) getReadRequest();
+        if (cls == ScanRequest.class) return (T) getScanRequest();
+        if (cls == MtuRequest.class) return (T) getMtuRequest();
+        if (cls == ReadRssiRequest.class) return (T) getReadRssiRequest();
+        if (cls == AdvertiserRequest.class) return (T) getAdvertiserRequest();
+        return null;
+    }
 
-    public static void init(Class... clss){
-        requestObjs = new HashMap<>();
-//        List<Class> requestsClass = getRequestsClass(context, getClass().getPackage().getName());
-        for(Class cls : clss){
-            if(cls.isAnnotationPresent(Implement.class)){
-                for(Annotation ann : cls.getDeclaredAnnotations()){
-                    if(ann instanceof Implement){
-                        try {
-                            requestObjs.put(cls, ((Implement) ann).value().newInstance());
-                        } catch (InstantiationException e) {
-                            e.printStackTrace();
-                        } catch (IllegalAccessException e) {
-                            e.printStackTrace();
-                        }
-                    }
+    public static <T extends BleDevice> ConnectRequest<T> getConnectRequest() {
+        ConnectRequest request = connectRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (connectRequest == null) {
+                    connectRequest = new ConnectRequest();
                 }
+                request = connectRequest;
             }
         }
+        return request;
     }
 
-    public static <T>T getRequest(Class cls){
-        return (T) requestObjs.get(cls);
+    public static <T extends BleDevice> WriteRequest<T> getWriteRequest() {
+        WriteRequest request = writeRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (writeRequest == null) {
+                    writeRequest = new WriteRequest();
+                }
+                request = writeRequest;
+            }
+        }
+        return request;
     }
 
-    public static void release(){
-        requestObjs.clear();
-        BleLog.e("Rproxy", "Request proxy cache is released");
+    public static <T extends BleDevice> NotifyRequest<T> getNotifyRequest() {
+        NotifyRequest request = notifyRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (notifyRequest == null) {
+                    notifyRequest = new NotifyRequest();
+                }
+                request = notifyRequest;
+            }
+        }
+        return request;
+    }
+
+    public static <T extends BleDevice> ReadRequest<T> getReadRequest() {
+        ReadRequest request = readRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (readRequest == null) {
+                    readRequest = new ReadRequest();
+                }
+                request = readRequest;
+            }
+        }
+        return request;
     }
 
-    private List<Class> getRequestsClass(Context context, String packageName){
-        List<Class> classRequestsList = new ArrayList<>();
-        try {
-            DexFile df = new DexFile(context.getPackageCodePath());//通过DexFile查找当前的APK中可执行文件
-            Enumeration<String> enumeration = df.entries();//获取df中的元素  这里包含了所有可执行的类名 该类名包含了包名+类名的方式
-            while (enumeration.hasMoreElements()) {//遍历
-                String className = (String) enumeration.nextElement();
-                if (className.contains(packageName) && !className.contains("$")) {//在当前所有可执行的类里面查找包含有该包名的所有类
-                    try {
-                        Class requestCls = Class.forName(className);
-                        classRequestsList.add(requestCls);
-                    } catch (ClassNotFoundException e) {
-                        e.printStackTrace();
-                    }
+    public static <T extends BleDevice> ScanRequest<T> getScanRequest() {
+        ScanRequest request = scanRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (scanRequest == null) {
+                    scanRequest = new ScanRequest();
                 }
+                request = scanRequest;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return  classRequestsList;
+        return request;
     }
 
+    public static <T extends BleDevice> MtuRequest<T> getMtuRequest() {
+        MtuRequest request = mtuRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (mtuRequest == null) {
+                    mtuRequest = new MtuRequest();
+                }
+                request = mtuRequest;
+            }
+        }
+        return request;
+    }
 
+    public static <T extends BleDevice> ReadRssiRequest<T> getReadRssiRequest() {
+        ReadRssiRequest request = readRssiRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (readRssiRequest == null) {
+                    readRssiRequest = new ReadRssiRequest();
+                }
+                request = readRssiRequest;
+            }
+        }
+        return request;
+    }
+
+    public static <T extends BleDevice> AdvertiserRequest<T> getAdvertiserRequest() {
+        AdvertiserRequest request = advertiserRequest;
+        if (request == null) {
+            synchronized (Rproxy.class) {
+                if (advertiserRequest == null) {
+                    advertiserRequest = new AdvertiserRequest();
+                }
+                request = advertiserRequest;
+            }
+        }
+        return request;
+    }
+
+    /**
+     * 释放所有请求对象,再次使用时重新创建
+     */
+    public static synchronized void release(){
+        advertiserRequest = null;
+        connectRequest = null;
+        mtuRequest = null;
+        notifyRequest = null;
+        readRequest = null;
+        readRssiRequest = null;
+        scanRequest = null;
+        writeRequest = null;
+        BleLog.e("Rproxy", "Request proxy cache is released");
+    }
 }
@@ -8,10 +8,9 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.os.Build;
-import android.os.Handler;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.support.annotation.RequiresApi;
-import android.support.v4.os.HandlerCompat;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,13 +18,17 @@ import java.util.UUID;
 
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.BleFactory;
-import cn.com.heaton.blelibrary.ble.BleHandler;
 import cn.com.heaton.blelibrary.ble.BleLog;
+import cn.com.heaton.blelibrary.ble.BleRequestImpl;
 import cn.com.heaton.blelibrary.ble.annotation.Implement;
 import cn.com.heaton.blelibrary.ble.callback.BleScanCallback;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.model.BleScanFilter;
+import cn.com.heaton.blelibrary.ble.model.DeviceRegistry;
 import cn.com.heaton.blelibrary.ble.model.ScanRecord;
+import cn.com.heaton.blelibrary.ble.queue.TimerWheel;
 import cn.com.heaton.blelibrary.ble.utils.BleUtils;
+import cn.com.heaton.blelibrary.ble.utils.TaskExecutor;
 
 /**
  * Created by LiuLei on 2017/10/21.
@@ -41,8 +44,16 @@ public class ScanRequest<T extends BleDevice> {
     private ScanSettings scanSettings;
     private BleScanCallback<T> bleScanCallback;
     private List<ScanFilter> filters;
-    private ArrayList<T> scanDevices = new ArrayList<>();
-    private Handler handler = BleHandler.of();
+    //已扫描到的设备,按地址索引去重
+    private DeviceRegistry<T> scanDevices = new DeviceRegistry<>(Ble.options().maxScanDevices);
+    //批量模式下当前周期内扫描到的设备
+    private DeviceRegistry<T> batchDevices = new DeviceRegistry<>();
+    private long batchInterval;
+    //是否需要在回调中软件过滤(存在芯片无法完成的过滤条件)
+    private boolean softwareFilter;
+    //自适应扫描:按窗口间歇扫描,直到stopScan
+    private boolean adaptive;
+    private ScanScheduler scheduler = new ScanScheduler();
 
     protected ScanRequest() {
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -61,15 +72,74 @@ public class ScanRequest<T extends BleDevice> {
         if (scanning) return;
         bleScanCallback = callback;
         scanning = true;
-        // Stops scanning after a pre-defined scan period.
-        HandlerCompat.postDelayed(handler, new Runnable() {
-            @Override
-            public void run() {
-                if (scanning) {
-                    stopScan();
+        batchInterval = Ble.options().scanBatchInterval;
+        batchDevices.clear();
+        if (batchInterval > 0) {
+            TimerWheel.getInstance().schedule(batchRunnable, batchInterval, HANDLER_TOKEN);
+        }
+        adaptive = Ble.options().adaptiveScan;
+        if (adaptive) {
+            scheduler.reset();
+        } else {
+            // Stops scanning after a pre-defined scan period.
+            TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (scanning) {
+                        stopScan();
+                    }
                 }
+            }, scanPeriod, HANDLER_TOKEN);
+        }
+        softwareFilter = !Ble.options().scanFilters.isEmpty();
+        startWindow();
+        if (bleScanCallback != null) {
+            bleScanCallback.onStart();
+        }
+    }
+
+    /**
+     * 启动一个扫描窗口,30s内启动超过5次时系统会静默丢弃扫描,此时延后启动
+     */
+    private void startWindow() {
+        long now = SystemClock.elapsedRealtime();
+        long delay = scheduler.delayBeforeStart(now);
+        if (delay > 0) {
+            BleLog.w(TAG, "scan start throttled by system, start after " + delay + "ms");
+            TimerWheel.getInstance().schedule(startWindowRunnable, delay, HANDLER_TOKEN);
+            return;
+        }
+        scheduler.onStarted(now);
+        startPlatformScan();
+        if (adaptive) {
+            TimerWheel.getInstance().schedule(windowEndRunnable, scheduler.getWindow(), HANDLER_TOKEN);
+        }
+    }
+
+    private Runnable startWindowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (scanning) {
+                startWindow();
             }
-        }, HANDLER_TOKEN, scanPeriod);
+        }
+    };
+
+    private Runnable windowEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!scanning) return;
+            stopPlatformScan();
+            BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+            boolean connected = bleRequest != null && bleRequest.hasConnectedDevice();
+            boolean lowPower = BleUtils.isLowPower(Ble.getInstance().getContext());
+            scheduler.onWindowFinished(connected, lowPower);
+            BleLog.i(TAG, "adaptive scan level:" + scheduler.getLevel() + ", next window after " + scheduler.getInterval() + "ms");
+            TimerWheel.getInstance().schedule(startWindowRunnable, scheduler.getInterval(), HANDLER_TOKEN);
+        }
+    };
+
+    private void startPlatformScan() {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             bluetoothAdapter.startLeScan(leScanCallback);
         } else {
@@ -86,8 +156,26 @@ public class ScanRequest<T extends BleDevice> {
                 scanner.startScan(filters, scanSettings, scannerCallback);
             }
         }
-        if (bleScanCallback != null) {
-            bleScanCallback.onStart();
+    }
+
+    private void stopPlatformScan() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            bluetoothAdapter.stopLeScan(leScanCallback);
+        } else {
+            if (bluetoothAdapter.isEnabled()) {
+                if (scanner == null) {
+                    scanner = bluetoothAdapter.getBluetoothLeScanner();
+                }
+                //芯片批量缓存的结果在stopScan时会被丢弃,先取回
+                if (batchInterval > 0) {
+                    scanner.flushPendingScanResults(scannerCallback);
+                }
+                scanner.stopScan(scannerCallback);
+            }
+        }
+        //每个扫描窗口结束时上报当前周期已收集的设备
+        if (batchInterval > 0) {
+            dispatchBatch();
         }
     }
 
@@ -95,36 +183,45 @@ public class ScanRequest<T extends BleDevice> {
     private void setScanSettings() {
         boolean background = BleUtils.isBackground(Ble.getInstance().getContext());
         BleLog.i(TAG, "currently in the background:>>>>>"+background);
+        List<BleScanFilter> scanFilters = Ble.options().scanFilters;
+        filters = BleScanFilter.toScanFilters(scanFilters);
+        //所有条件都已交给芯片时不再软件过滤
+        softwareFilter = filters.isEmpty() && !scanFilters.isEmpty();
+        for (BleScanFilter scanFilter : scanFilters) {
+            if (!scanFilter.isHardwareOnly()) {
+                softwareFilter = true;
+            }
+        }
         if (background){
-            UUID uuidService = Ble.options().getUuidService();
-            filters.add(new ScanFilter.Builder()
-                    .setServiceUuid(ParcelUuid.fromString(uuidService.toString()))  //8.0以上手机后台扫描，必须开启
-                    .build());
-            scanSettings = new ScanSettings.Builder()
-                    .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
-                    .build();
+            //只有完全没有配置过滤条件时才用服务UUID兜底,否则芯片只会上报该服务,用户的软件过滤条件永远匹配不到
+            if (scanFilters.isEmpty()) {
+                UUID uuidService = Ble.options().getUuidService();
+                filters.add(new ScanFilter.Builder()
+                        .setServiceUuid(ParcelUuid.fromString(uuidService.toString()))  //8.0以上手机后台扫描，必须开启
+                        .build());
+            }
+            scanSettings = buildScanSettings(ScanSettings.SCAN_MODE_LOW_POWER);
         }else {
-            filters = new ArrayList<>();
-            scanSettings = new ScanSettings.Builder()
-                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                    .build();
+            scanSettings = buildScanSettings(adaptive ? scheduler.getScanMode() : ScanSettings.SCAN_MODE_LOW_LATENCY);
         }
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private ScanSettings buildScanSettings(int scanMode) {
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(scanMode);
+        //批量模式下由蓝牙芯片缓存扫描结果,按间隔批量上报(onBatchScanResults)
+        if (batchInterval > 0 && bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            builder.setReportDelay(batchInterval);
+        }
+        return builder.build();
+    }
+
     public void stopScan() {
         if (!scanning) return;
         scanning = false;
-        handler.removeCallbacksAndMessages(HANDLER_TOKEN);
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            bluetoothAdapter.stopLeScan(leScanCallback);
-        } else {
-            if (bluetoothAdapter.isEnabled()) {
-                if (scanner == null) {
-                    scanner = bluetoothAdapter.getBluetoothLeScanner();
-                }
-                scanner.stopScan(scannerCallback);
-            }
-        }
+        TimerWheel.getInstance().cancel(HANDLER_TOKEN);
+        stopPlatformScan();
         scanDevices.clear();
         if (bleScanCallback != null) {
             bleScanCallback.onStop();
@@ -143,9 +240,10 @@ public class ScanRequest<T extends BleDevice> {
             BluetoothDevice device = result.getDevice();
             byte[] scanRecord = result.getScanRecord().getBytes();
             T bleDevice = dispatcherScanResult(device, result.getRssi(), scanRecord);
-            if (Ble.options().isParseScanData){
+            if (bleDevice != null && Ble.options().isParseScanData && bleScanCallback != null){
+                //只包装原始数据,字段在回调中首次访问时才解析
                 ScanRecord parseRecord = ScanRecord.parseFromBytes(scanRecord);
-                if (parseRecord != null && bleScanCallback != null) {
+                if (parseRecord != null) {
                     bleScanCallback.onParsedData(bleDevice, parseRecord);
                 }
             }
@@ -154,7 +252,7 @@ public class ScanRequest<T extends BleDevice> {
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
             for (ScanResult sr : results) {
-                BleLog.i("ScanResult - Results", sr.toString());
+                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, sr);
             }
         }
 
@@ -177,31 +275,57 @@ public class ScanRequest<T extends BleDevice> {
 
     private T dispatcherScanResult(BluetoothDevice device, int rssi, byte[] scanRecord) {
         if (device == null) return null;
-        T bleDevice = getDevice(device.getAddress());
-        if (bleDevice == null) {
+        T bleDevice = scanDevices.get(device.getAddress());
+        boolean isNew = bleDevice == null;
+        if (isNew && softwareFilter && !BleScanFilter.matchesAny(Ble.options().scanFilters, device, scanRecord)) {
+            return null;
+        }
+        if (isNew) {
             bleDevice = BleFactory.create(device);
+            scanDevices.putIfAbsent(bleDevice);
+            scheduler.onDeviceFound();
+        }
+        bleDevice.setRssi(rssi);
+        if (batchInterval > 0) {
+            //批量模式:同一周期内按地址去重,保留最新的rssi
+            if (isNew || !Ble.options().isFilterScan) {
+                batchDevices.putIfAbsent(bleDevice);
+            }
+        } else if (isNew || !Ble.options().isFilterScan) {//无需过滤
             if (bleScanCallback != null) {
                 bleScanCallback.onLeScan(bleDevice, rssi, scanRecord);
             }
-            scanDevices.add(bleDevice);
-        } else {
-            if (!Ble.options().isFilterScan) {//无需过滤
-                if (bleScanCallback != null) {
-                    bleScanCallback.onLeScan(bleDevice, rssi, scanRecord);
-                }
-            }
         }
         return bleDevice;
     }
 
-    //获取已扫描到的设备（重复设备）
-    private T getDevice(String address) {
-        for (T device : scanDevices) {
-            if (device.getBleAddress().equals(address)) {
-                return device;
+    private Runnable batchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchBatch();
+            if (scanning) {
+                TimerWheel.getInstance().schedule(this, batchInterval, HANDLER_TOKEN);
             }
         }
-        return null;
+    };
+
+    private void dispatchBatch() {
+        if (batchDevices.size() == 0) return;
+        final List<T> devices = batchDevices.drain();
+        final BleScanCallback<T> callback = bleScanCallback;
+        if (callback != null) {
+            TaskExecutor.mainThread(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onBatchScanned(devices);
+                }
+            });
+        }
+    }
+
+    //获取已扫描到的设备（重复设备）
+    public T getDevice(String address) {
+        return scanDevices.get(address);
     }
 
 }
@@ -0,0 +1,126 @@
+package cn.com.heaton.blelibrary.ble.request;
+
+import android.bluetooth.le.ScanSettings;
+
+/**
+ * 自适应扫描调度:根据最近扫描窗口发现的新设备数、是否有连接中的设备以及电量状态,
+ * 调整扫描窗口、间隔和扫描模式;同时保证30s内启动扫描不超过5次(超过时系统会静默丢弃扫描)
+ * created by jerry on 2019/9/7.
+ */
+final class ScanScheduler {
+
+    //发现新设备,快速扫描
+    static final int LEVEL_FAST = 0;
+    //有连接或刚安静下来
+    static final int LEVEL_BALANCED = 1;
+    //环境稳定或低电量
+    static final int LEVEL_LOW_POWER = 2;
+
+    //系统限制:START_LIMIT_WINDOW内最多启动MAX_STARTS次扫描
+    private static final int MAX_STARTS = 5;
+    private static final long START_LIMIT_WINDOW = 30 * 1000L;
+    private static final long START_LIMIT_MARGIN = 500L;
+
+    private static final long[] WINDOWS = {10 * 1000L, 5 * 1000L, 3 * 1000L};
+    private static final long[] INTERVALS = {2 * 1000L, 10 * 1000L, 20 * 1000L};
+    private static final long MAX_INTERVAL = 120 * 1000L;
+    //连续多少个窗口没有新设备后降为低功耗
+    private static final int QUIET_WINDOWS_LOW_POWER = 3;
+
+    private final long[] startTimes = new long[MAX_STARTS];
+    private int startIndex;
+    private int level = LEVEL_FAST;
+    private int quietWindows;
+    private int newDevices;
+    private long interval = INTERVALS[LEVEL_FAST];
+
+    /**
+     * 新的扫描周期开始,回到快速扫描
+     */
+    void reset() {
+        level = LEVEL_FAST;
+        quietWindows = 0;
+        newDevices = 0;
+        interval = INTERVALS[LEVEL_FAST];
+    }
+
+    void onDeviceFound() {
+        newDevices++;
+    }
+
+    /**
+     * 一个扫描窗口结束,计算下一个窗口的参数
+     * @param connected 是否有已连接的设备
+     * @param lowPower 是否处于省电模式或低电量
+     */
+    void onWindowFinished(boolean connected, boolean lowPower) {
+        if (newDevices > 0) {
+            quietWindows = 0;
+            level = LEVEL_FAST;
+        } else {
+            quietWindows++;
+            level = quietWindows >= QUIET_WINDOWS_LOW_POWER ? LEVEL_LOW_POWER : LEVEL_BALANCED;
+        }
+        newDevices = 0;
+        //连接中的设备与扫描共用射频,不再使用低延迟扫描
+        if (connected && level == LEVEL_FAST) {
+            level = LEVEL_BALANCED;
+        }
+        if (lowPower) {
+            level = LEVEL_LOW_POWER;
+        }
+        interval = INTERVALS[level];
+        if (level == LEVEL_LOW_POWER) {
+            //环境持续稳定时间隔成倍增加
+            int extra = Math.max(0, quietWindows - QUIET_WINDOWS_LOW_POWER);
+            for (int i = 0; i < extra && interval < MAX_INTERVAL; i++) {
+                interval <<= 1;
+            }
+            if (lowPower) {
+                interval <<= 1;
+            }
+            interval = Math.min(interval, MAX_INTERVAL);
+        }
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    long getWindow() {
+        return WINDOWS[level];
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    int getScanMode() {
+        switch (level) {
+            case LEVEL_FAST:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+            case LEVEL_BALANCED:
+                return ScanSettings.SCAN_MODE_BALANCED;
+            default:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+        }
+    }
+
+    /**
+     * @param now 当前时间(SystemClock.elapsedRealtime)
+     * @return 距离允许再次启动扫描还需等待的时间,0表示可以立即启动
+     */
+    long delayBeforeStart(long now) {
+        long oldest = startTimes[startIndex];
+        if (oldest == 0) {
+            return 0;
+        }
+        long allowed = oldest + START_LIMIT_WINDOW + START_LIMIT_MARGIN;
+        return allowed > now ? allowed - now : 0;
+    }
+
+    void onStarted(long now) {
+        startTimes[startIndex] = now;
+        startIndex = (startIndex + 1) % MAX_STARTS;
+    }
+}
@@ -1,18 +1,23 @@
 package cn.com.heaton.blelibrary.ble.request;
 
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 
-import java.math.BigDecimal;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 
-import cn.com.heaton.blelibrary.ble.callback.wrapper.WriteWrapperCallback;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
 import cn.com.heaton.blelibrary.ble.Ble;
+import cn.com.heaton.blelibrary.ble.BleLog;
 import cn.com.heaton.blelibrary.ble.BleRequestImpl;
 import cn.com.heaton.blelibrary.ble.model.EntityData;
+import cn.com.heaton.blelibrary.ble.queue.GattOperation;
+import cn.com.heaton.blelibrary.ble.queue.BleFuture;
+import cn.com.heaton.blelibrary.ble.queue.PacketChunker;
+import cn.com.heaton.blelibrary.ble.queue.WriteOperation;
+import cn.com.heaton.blelibrary.ble.queue.WriteWindow;
 import cn.com.heaton.blelibrary.ble.utils.TaskExecutor;
 import cn.com.heaton.blelibrary.ble.annotation.Implement;
+import cn.com.heaton.blelibrary.ble.callback.BleFutureCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleWriteCallback;
 import cn.com.heaton.blelibrary.ble.callback.BleWriteEntityCallback;
 import cn.com.heaton.blelibrary.ble.exception.BleException;
@@ -23,25 +28,83 @@ import cn.com.heaton.blelibrary.ble.exception.BleWriteException;
  * Created by LiuLei on 2017/10/23.
  */
 @Implement(WriteRequest.class)
-public class WriteRequest<T extends BleDevice> implements WriteWrapperCallback {
+public class WriteRequest<T extends BleDevice> {
 
-    private BleWriteCallback<T> bleWriteCallback;
+    private static final String TAG = "WriteRequest";
+    //自动模式下等待写入窗口信用的最长时间
+    private static final long WRITE_ACK_TIMEOUT = 6000L;
+    //定时模式下轮流复用的写入操作数,上一包回调未到达时换新的
+    private static final int DELAY_WRITE_OPERATIONS = 2;
     private BleWriteEntityCallback<T> bleWriteEntityCallback;
     private boolean isWritingEntity;
     private boolean isAutoWriteMode = false;//当前是否为自动写入模式
-    private final Object lock = new Object();
     private Ble<T> ble = Ble.getInstance();
 
     protected WriteRequest() {}
 
     public boolean write(T device,byte[]data, BleWriteCallback<T> lisenter){
-        this.bleWriteCallback = lisenter;
-        boolean result = false;
+        return write(device, data, GattOperation.PRIORITY_INTERACTIVE, lisenter);
+    }
+
+    /**
+     * 回调绑定在本次写入操作上,同时发起的多个写入各自回调,不会互相覆盖
+     */
+    public boolean write(final T device,byte[]data, int priority, final BleWriteCallback<T> lisenter){
+        return write(device, null, null, data, priority, lisenter);
+    }
+
+    /**
+     * 写入指定特征
+     * @param serviceUuid 服务UUID,为null时只按特征UUID查找
+     * @param characteristicUuid 特征UUID,为null时使用Options中配置的写入特征
+     */
+    public boolean write(final T device, UUID serviceUuid, UUID characteristicUuid, byte[]data, int priority,
+                         final BleWriteCallback<T> lisenter){
+        BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        if (bleRequest == null) return false;
+        BleFuture<Void> future = new BleFuture<>();
+        if (!bleRequest.wirteCharacteristic(device.getBleAddress(), serviceUuid, characteristicUuid, data,
+                BleRequestImpl.WRITE_TYPE_UNCHANGED, null, priority, future)) {
+            return false;
+        }
+        if (lisenter != null) {
+            final BluetoothGattCharacteristic characteristic = characteristicUuid == null
+                    ? bleRequest.getWriteCharacteristic(device.getBleAddress())
+                    : bleRequest.getCharacteristic(device.getBleAddress(), serviceUuid, characteristicUuid);
+            future.addCallback(new BleFutureCallback<Void>() {
+                @Override
+                public void onSuccess(Void value) {
+                    lisenter.onWriteSuccess(device, characteristic);
+                }
+
+                @Override
+                public void onFailure(String message) {
+                    lisenter.onWiteFailed(device, "写入失败," + message);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * 异步写入,每次写入持有独立的结果句柄
+     * @param priority 优先级,如{@link GattOperation#PRIORITY_CONTROL}
+     */
+    public BleFuture<Void> writeAsync(T device, byte[]data, int priority){
+        return writeAsync(device, null, null, data, priority);
+    }
+
+    /**
+     * 异步写入指定特征
+     */
+    public BleFuture<Void> writeAsync(T device, UUID serviceUuid, UUID characteristicUuid, byte[]data, int priority){
+        BleFuture<Void> future = new BleFuture<>();
         BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
-        if (bleRequest != null) {
-            result = bleRequest.wirteCharacteristic(device.getBleAddress(),data);
+        if (bleRequest != null && bleRequest.wirteCharacteristic(device.getBleAddress(), serviceUuid, characteristicUuid,
+                data, BleRequestImpl.WRITE_TYPE_UNCHANGED, null, priority, future)) {
+            return future;
         }
-        return result;
+        return future.isDone() ? future : BleFuture.<Void>failed("write failed");
     }
 
     /*public void writeAsyn(final T device, final byte[]data, BleWriteCallback<T> lisenter){
@@ -85,20 +148,30 @@ public class WriteRequest<T extends BleDevice> implements WriteWrapperCallback {
     private void executeEntity(EntityData entityData) {
         final boolean autoWriteMode = entityData.isAutoWriteMode();
         final byte[] data = entityData.getData();
-        final int packLength = entityData.getPackLength();
         final String address = entityData.getAddress();
+        final UUID serviceUuid = entityData.getServiceUuid();
+        final UUID characteristicUuid = entityData.getCharacteristicUuid();
+        final BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        final int packLength = getPackLength(bleRequest, entityData);
         final long delay = entityData.getDelay();
         final boolean lastPackComplete = entityData.isLastPackComplete();
-        final BleRequestImpl bleRequest = BleRequestImpl.getBleRequest();
+        //自动模式:按写入回调归还信用进行流控,窗口内的数据包提前进入设备GATT队列
+        final WriteWindow window = autoWriteMode ? new WriteWindow(entityData.getWindowSize()) : null;
+        final int progressGranularity = Ble.options().progressGranularity;
+        final int writeType = entityData.isNoResponse() ?
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE : BleRequestImpl.WRITE_TYPE_UNCHANGED;
         Callable<Boolean> callable = new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
                 isWritingEntity = true;
                 isAutoWriteMode = autoWriteMode;
-                int index = 0;
-                int length = data.length;
-                int availableLength = length;
-                while (index < length){
+                //每个发送位置轮流复用写入操作及其整包缓冲区,自动模式下按窗口大小
+                PacketChunker chunker = new PacketChunker(data, packLength, lastPackComplete, 0);
+                WriteOperation[] operations = new WriteOperation[autoWriteMode ? window.getSize() : DELAY_WRITE_OPERATIONS];
+                int slot = 0;
+                int length = chunker.length();
+                int reportedPercent = 0;
+                while (chunker.hasNext()){
                     if (!isWritingEntity){
                         if (bleWriteEntityCallback != null){
                             bleWriteEntityCallback.onWriteCancel();
@@ -106,19 +179,26 @@ public class WriteRequest<T extends BleDevice> implements WriteWrapperCallback {
                         }
                         return false;
                     }
-                    int onePackLength = packLength;
-                    if (!lastPackComplete){//最后一包不足数据字节不会自动补零
-                        onePackLength = (availableLength >= packLength ? packLength : availableLength);
-                    }
-                    byte[] txBuffer = new byte[onePackLength];
-                    for (int i=0; i<onePackLength; i++){
-                        if(index < length){
-                            txBuffer[i] = data[index++];
+                    //先拿到写入信用,保证即将复用的操作和缓冲区已经提交给协议栈
+                    if (autoWriteMode && (!window.acquire(WRITE_ACK_TIMEOUT) || window.getFailures() > 0)){
+                        BleLog.e(TAG, address + " -- write window timeout or packet failed, in flight:"
+                                + window.inFlight() + ", failures:" + window.getFailures());
+                        if(bleWriteEntityCallback != null){
+                            bleWriteEntityCallback.onWriteFailed();
                         }
+                        isWritingEntity = false;
+                        isAutoWriteMode = false;
+                        return false;
                     }
-                    availableLength-=onePackLength;
-                    boolean result = bleRequest.wirteCharacteristic(address, txBuffer);
+                    WriteOperation operation = WriteOperation.obtain(operations, slot, GattOperation.PRIORITY_BULK);
+                    slot = (slot + 1) % operations.length;
+                    byte[] txBuffer = chunker.next(operation.buffer(packLength));
+                    boolean result = bleRequest.wirteCharacteristic(address, serviceUuid, characteristicUuid, operation,
+                            txBuffer, writeType, window, null);
                     if(!result){
+                        if (autoWriteMode){
+                            window.release();
+                        }
                         if(bleWriteEntityCallback != null){
                             bleWriteEntityCallback.onWriteFailed();
                             isWritingEntity = false;
@@ -127,15 +207,14 @@ public class WriteRequest<T extends BleDevice> implements WriteWrapperCallback {
                         }
                     }else {
                         if (bleWriteEntityCallback != null){
-                            double progress = new BigDecimal((float)index / length).setScale(2, BigDecimal.ROUND_HALF_UP).doubleValue();
-                            bleWriteEntityCallback.onWriteProgress(progress);
+                            int percent = (int) ((long) chunker.position() * 100 / length);
+                            if (percent - reportedPercent >= progressGranularity || !chunker.hasNext()){
+                                reportedPercent = percent;
+                                bleWriteEntityCallback.onWriteProgress(percent / 100.0);
+                            }
                         }
                     }
-                    if (autoWriteMode){
-                        synchronized (lock){
-                            lock.wait(500);
-                        }
-                    }else {
+                    if (!autoWriteMode){
                         try {
                             Thread.sleep(delay);
                         } catch (InterruptedException e) {
@@ -143,6 +222,17 @@ public class WriteRequest<T extends BleDevice> implements WriteWrapperCallback {
                         }
                     }
                 }
+                //等待窗口内剩余的数据包全部被确认,有未确认或失败的数据包时整次传输失败
+                if (autoWriteMode && (!window.awaitIdle(WRITE_ACK_TIMEOUT) || window.getFailures() > 0)){
+                    BleLog.e(TAG, address + " -- write window not drained, in flight:"
+                            + window.inFlight() + ", failures:" + window.getFailures());
+                    if(bleWriteEntityCallback != null){
+                        bleWriteEntityCallback.onWriteFailed();
+                    }
+                    isWritingEntity = false;
+                    isAutoWriteMode = false;
+                    return false;
+                }
                 if(bleWriteEntityCallback != null){
                     bleWriteEntityCallback.onWriteSuccess();
                     isWritingEntity = false;
@@ -154,23 +244,19 @@ public class WriteRequest<T extends BleDevice> implements WriteWrapperCallback {
         TaskExecutor.submit(callable);
     }
 
-    @Override
-    public void onWriteSuccess(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
-        if(bleWriteCallback != null){
-            bleWriteCallback.onWriteSuccess(ble.getBleDevice(device), characteristic);
-        }
-        if (isAutoWriteMode){
-            synchronized (lock){
-                lock.notify();
+    /**
+     * 开启自动分包且已协商MTU时,每包按MTU-3(最大512)发送,否则严格按packLength分包
+     */
+    private int getPackLength(BleRequestImpl bleRequest, EntityData entityData) {
+        int packLength = entityData.getPackLength();
+        if (entityData.isAutoPackLength()) {
+            int mtu = bleRequest.getMtu(entityData.getAddress());
+            if (mtu > BleRequestImpl.DEFAULT_MTU) {
+                packLength = bleRequest.getMaxWriteLength(entityData.getAddress());
+                BleLog.i(TAG, entityData.getAddress() + " -- pack length by mtu:" + packLength);
             }
         }
-    }
-
-    @Override
-    public void onWiteFailed(BluetoothDevice device, String message) {
-        if(bleWriteCallback != null){
-            bleWriteCallback.onWiteFailed(ble.getBleDevice(device), message);
-        }
+        return packLength;
     }
 
 }
@@ -2,6 +2,11 @@ package cn.com.heaton.blelibrary.ble.utils;
 
 import android.app.ActivityManager;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
 
 import java.util.List;
 
@@ -10,6 +15,9 @@ import java.util.List;
  * created by jerry on 2019/8/14.
  */
 public class BleUtils {
+    //低于该电量(百分比)且未充电时视为低电量
+    private static final int LOW_BATTERY_PERCENT = 15;
+
     public static boolean isBackground(Context context) {
         ActivityManager activityManager = (ActivityManager) context
                 .getSystemService(Context.ACTIVITY_SERVICE);
@@ -27,4 +35,25 @@ public class BleUtils {
         return false;
     }
 
+    /**
+     * 是否处于省电模式,或低电量且未充电
+     */
+    public static boolean isLowPower(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null && powerManager.isPowerSaveMode()) {
+                return true;
+            }
+        }
+        //粘性广播,不需要真正注册接收者
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        int plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return plugged == 0 && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+    }
+
 }
@@ -0,0 +1,244 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+
+/**
+ * 协议帧读写,类似ByteBuffer,直接读写调用方持有的数组,不分配新的数组
+ * 同一个对象可通过{@link #wrap(byte[])}反复用于不同的帧;非线程安全
+ * created by jerry on 2019/9/19.
+ */
+public final class ByteFrame {
+
+    private byte[] array;
+    private int offset;
+    private int limit;
+    private int position;
+    private boolean bigEndian = true;
+
+    public ByteFrame() {}
+
+    public ByteFrame(byte[] array) {
+        wrap(array);
+    }
+
+    public ByteFrame wrap(byte[] array) {
+        return wrap(array, 0, array.length);
+    }
+
+    /**
+     * 读写array中[offset, offset + length)的区域,位置归零
+     */
+    public ByteFrame wrap(byte[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("offset:" + offset + ", length:" + length + ", size:" + array.length);
+        }
+        this.array = array;
+        this.offset = offset;
+        this.limit = offset + length;
+        this.position = offset;
+        return this;
+    }
+
+    /**
+     * 多字节数值的字节序,默认大端
+     */
+    public ByteFrame order(ByteOrder order) {
+        this.bigEndian = order == ByteOrder.BIG_ENDIAN;
+        return this;
+    }
+
+    public ByteOrder order() {
+        return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * @return 相对于帧起始位置的读写位置
+     */
+    public int position() {
+        return position - offset;
+    }
+
+    public ByteFrame position(int position) {
+        if (position < 0 || offset + position > limit) {
+            throw new IndexOutOfBoundsException("position:" + position);
+        }
+        this.position = offset + position;
+        return this;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+
+    public ByteFrame put(int value) {
+        array[next(1)] = (byte) value;
+        return this;
+    }
+
+    public ByteFrame put(byte[] src, int srcOffset, int length) {
+        System.arraycopy(src, srcOffset, array, next(length), length);
+        return this;
+    }
+
+    public ByteFrame putShort(int value) {
+        writeShort(next(2), value);
+        return this;
+    }
+
+    /**
+     * 在帧内指定位置写入,不改变当前位置(如回填长度或校验和)
+     */
+    public ByteFrame putShort(int index, int value) {
+        writeShort(at(index, 2), value);
+        return this;
+    }
+
+    public ByteFrame putInt(int value) {
+        writeInt(next(4), value);
+        return this;
+    }
+
+    public ByteFrame putInt(int index, int value) {
+        writeInt(at(index, 4), value);
+        return this;
+    }
+
+    /**
+     * 无符号变长整数(LEB128,每字节低7位为数据,最高位表示后面还有字节),最多5个字节
+     */
+    public ByteFrame putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            put((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        return put(value);
+    }
+
+    /**
+     * 写入位字段,只修改帧内index处字节的[bitOffset, bitOffset + bitCount)位(bit0为最低位)
+     */
+    public ByteFrame putBits(int index, int bitOffset, int bitCount, int value) {
+        int i = at(index, 1);
+        int mask = bitMask(bitOffset, bitCount) << bitOffset;
+        array[i] = (byte) ((array[i] & ~mask) | ((value << bitOffset) & mask));
+        return this;
+    }
+
+    public byte get() {
+        return array[next(1, true)];
+    }
+
+    public int getUnsigned() {
+        return array[next(1, true)] & 0xFF;
+    }
+
+    public ByteFrame get(byte[] dst, int dstOffset, int length) {
+        System.arraycopy(array, next(length, true), dst, dstOffset, length);
+        return this;
+    }
+
+    public short getShort() {
+        return (short) readShort(next(2, true));
+    }
+
+    public int getUnsignedShort() {
+        return readShort(next(2, true));
+    }
+
+    public short getShort(int index) {
+        return (short) readShort(at(index, 2));
+    }
+
+    public int getInt() {
+        return readInt(next(4, true));
+    }
+
+    public int getInt(int index) {
+        return readInt(at(index, 4));
+    }
+
+    public int getVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = getUnsigned();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("varint is longer than 5 bytes");
+    }
+
+    public int getBits(int index, int bitOffset, int bitCount) {
+        return ((array[at(index, 1)] & 0xFF) >>> bitOffset) & bitMask(bitOffset, bitCount);
+    }
+
+    private int next(int length) {
+        return next(length, false);
+    }
+
+    private int next(int length, boolean read) {
+        if (limit - position < length) {
+            throw read ? new BufferUnderflowException() : new BufferOverflowException();
+        }
+        int index = position;
+        position += length;
+        return index;
+    }
+
+    private int at(int index, int length) {
+        if (index < 0 || offset + index + length > limit) {
+            throw new IndexOutOfBoundsException("index:" + index);
+        }
+        return offset + index;
+    }
+
+    private static int bitMask(int bitOffset, int bitCount) {
+        if (bitOffset < 0 || bitCount <= 0 || bitOffset + bitCount > 8) {
+            throw new IllegalArgumentException("bitOffset:" + bitOffset + ", bitCount:" + bitCount);
+        }
+        return (1 << bitCount) - 1;
+    }
+
+    private void writeShort(int i, int value) {
+        if (bigEndian) {
+            array[i] = (byte) (value >> 8);
+            array[i + 1] = (byte) value;
+        } else {
+            array[i] = (byte) value;
+            array[i + 1] = (byte) (value >> 8);
+        }
+    }
+
+    private int readShort(int i) {
+        return bigEndian
+                ? ((array[i] & 0xFF) << 8) | (array[i + 1] & 0xFF)
+                : (array[i] & 0xFF) | ((array[i + 1] & 0xFF) << 8);
+    }
+
+    private void writeInt(int i, int value) {
+        if (bigEndian) {
+            array[i] = (byte) (value >> 24);
+            array[i + 1] = (byte) (value >> 16);
+            array[i + 2] = (byte) (value >> 8);
+            array[i + 3] = (byte) value;
+        } else {
+            array[i] = (byte) value;
+            array[i + 1] = (byte) (value >> 8);
+            array[i + 2] = (byte) (value >> 16);
+            array[i + 3] = (byte) (value >> 24);
+        }
+    }
+
+    private int readInt(int i) {
+        return bigEndian
+                ? ((array[i] & 0xFF) << 24) | ((array[i + 1] & 0xFF) << 16) | ((array[i + 2] & 0xFF) << 8) | (array[i + 3] & 0xFF)
+                : (array[i] & 0xFF) | ((array[i + 1] & 0xFF) << 8) | ((array[i + 2] & 0xFF) << 16) | ((array[i + 3] & 0xFF) << 24);
+    }
+}
@@ -33,25 +33,24 @@ public class ByteUtils {
     }
     //将字节数组转换为16进制字符串
     public static String BinaryToHexString(byte[] bytes) {
-        String hexStr = "0123456789ABCDEF";
-        StringBuilder result = new StringBuilder();
-        String hex = "";
-        for (byte b : bytes) {
-            hex = String.valueOf(hexStr.charAt((b & 0xF0) >> 4));
-            hex += String.valueOf(hexStr.charAt(b & 0x0F));
-            result.append(hex).append(" ");
-        }
-        return result.toString();
+        return HexCodec.encode(bytes, ' ');
     }
 
     //3.short转换为byte数组
     public static byte[] short2Bytes(short value) {
         byte[] data = new byte[2];
-        data[0] = (byte) (value >> 8 & 0xff);
-        data[1] = (byte) (value & 0xFF);
+        short2Bytes(value, data, 0);
         return data;
     }
 
+    /**
+     * short按大端写入dst的offset处,不分配数组
+     */
+    public static void short2Bytes(short value, byte[] dst, int offset) {
+        dst[offset] = (byte) (value >> 8 & 0xff);
+        dst[offset + 1] = (byte) (value & 0xFF);
+    }
+
     /**
      * 将int转化成byte[]
      *
@@ -60,51 +59,43 @@ public class ByteUtils {
      */
     public static byte[] int2byte(int res) {
         byte[] targets = new byte[4];
-        targets[0] = (byte) (res & 0xff);// 最低位
-        targets[1] = (byte) ((res >> 8) & 0xff);// 次低位
-        targets[2] = (byte) ((res >> 16) & 0xff);// 次高位
-        targets[3] = (byte) (res >>> 24);// 最高位,无符号右移。
+        int2byte(res, targets, 0);
         return targets;
     }
 
+    /**
+     * int按小端写入dst的offset处,不分配数组
+     */
+    public static void int2byte(int res, byte[] dst, int offset) {
+        dst[offset] = (byte) (res & 0xff);// 最低位
+        dst[offset + 1] = (byte) ((res >> 8) & 0xff);// 次低位
+        dst[offset + 2] = (byte) ((res >> 16) & 0xff);// 次高位
+        dst[offset + 3] = (byte) (res >>> 24);// 最高位,无符号右移。
+    }
+
     /**
      * 将byte[]转化成int
      * @param res 要转化的byte[]
      * @return 对应的整数
      */
     public static int byte2int(byte[] res) {
-        int targets = (res[0] & 0xff) | ((res[1] << 8) & 0xff00) | ((res[2] << 24) >>> 8) | (res[3] << 24);
-        return targets;
+        return byte2int(res, 0);
+    }
+
+    /**
+     * 从res的offset处按小端读取int
+     */
+    public static int byte2int(byte[] res, int offset) {
+        return (res[offset] & 0xff) | ((res[offset + 1] << 8) & 0xff00) | ((res[offset + 2] << 24) >>> 8) | (res[offset + 3] << 24);
     }
 
 
     public static String byteArrayToHexStr(byte[] byteArray) {
-        if (byteArray == null){
-            return null;
-        }
-        char[] hexArray = "0123456789ABCDEF".toCharArray();
-        char[] hexChars = new char[byteArray.length * 2];
-        for (int j = 0; j < byteArray.length; j++) {
-            int v = byteArray[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
-        return new String(hexChars);
+        return HexCodec.encode(byteArray);
     }
 
     public static byte[] hexStrToByteArray(String str)
     {
-        if (str == null) {
-            return null;
-        }
-        if (str.length() == 0) {
-            return new byte[0];
-        }
-        byte[] byteArray = new byte[str.length() / 2];
-        for (int i = 0; i < byteArray.length; i++){
-            String subStr = str.substring(2 * i, 2 * i + 2);
-            byteArray[i] = ((byte) Integer.parseInt(subStr, 16));
-        }
-        return byteArray;
+        return HexCodec.decode(str);
     }
 }
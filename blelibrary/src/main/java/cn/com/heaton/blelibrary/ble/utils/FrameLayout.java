@@ -0,0 +1,279 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 声明式的定长协议帧:字段的偏移、宽度、字节序、位字段、常量和校验和在建立时一次性声明并检查,
+ * 编码/解码时按声明直接读写调用方的数组,不使用反射,不分配数组。布局建立后不可修改,可在多线程中共用
+ * <pre>
+ * FrameLayout&lt;CommandBean&gt; layout = new FrameLayout.Builder&lt;CommandBean&gt;(16)
+ *         .field(0, 1, new FrameLayout.Field&lt;CommandBean&gt;() {
+ *             public int get(CommandBean bean) { return bean.getRandom_roll(); }
+ *         })
+ *         .checksum(15, 1, FrameLayout.CHECKSUM_SUM, 0, 15)
+ *         .build();
+ * </pre>
+ * created by jerry on 2019/9/20.
+ */
+public final class FrameLayout<T> {
+
+    //校验和:各字节累加,取低位
+    public static final int CHECKSUM_SUM = 0;
+    //校验和:各字节异或
+    public static final int CHECKSUM_XOR = 1;
+
+    /**
+     * 字段与对象之间的取值/赋值,只需解码时才重写set
+     */
+    public abstract static class Field<T> {
+        public abstract int get(T value);
+
+        public void set(T value, int field) {}
+    }
+
+    private final int size;
+    private final boolean bigEndian;
+    private final Slot<T>[] slots;
+    private final int checksumOffset;
+    private final int checksumWidth;
+    private final int checksumType;
+    private final int checksumFrom;
+    private final int checksumTo;
+
+    private FrameLayout(Builder<T> builder) {
+        this.size = builder.size;
+        this.bigEndian = builder.bigEndian;
+        @SuppressWarnings("unchecked")
+        Slot<T>[] slots = builder.slots.toArray((Slot<T>[]) new Slot<?>[builder.slots.size()]);
+        this.slots = slots;
+        this.checksumOffset = builder.checksumOffset;
+        this.checksumWidth = builder.checksumWidth;
+        this.checksumType = builder.checksumType;
+        this.checksumFrom = builder.checksumFrom;
+        this.checksumTo = builder.checksumTo;
+    }
+
+    /**
+     * @return 帧长度
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 新建数组并编码,高频发送时使用{@link #encode(Object, byte[], int)}配合{@link FramePool}
+     */
+    public byte[] encode(T value) {
+        byte[] frame = new byte[size];
+        encode(value, frame, 0);
+        return frame;
+    }
+
+    /**
+     * 编码到dst的offset处,未声明的字节置0
+     * @return 写入的字节数
+     */
+    public int encode(T value, byte[] dst, int offset) {
+        if (offset < 0 || offset + size > dst.length) {
+            throw new IndexOutOfBoundsException("offset:" + offset + ", frame size:" + size + ", array size:" + dst.length);
+        }
+        for (int i = offset; i < offset + size; i++) {
+            dst[i] = 0;
+        }
+        for (Slot<T> slot : slots) {
+            int field = slot.field != null ? slot.field.get(value) : slot.constant;
+            int index = offset + slot.offset;
+            if (slot.bitCount > 0) {
+                int mask = ((1 << slot.bitCount) - 1) << slot.bitOffset;
+                dst[index] = (byte) ((dst[index] & ~mask) | ((field << slot.bitOffset) & mask));
+            } else {
+                write(dst, index, slot.width, field);
+            }
+        }
+        if (checksumWidth > 0) {
+            write(dst, offset + checksumOffset, checksumWidth, checksum(dst, offset));
+        }
+        return size;
+    }
+
+    /**
+     * 从src的offset处解码到value(调用各字段的set)
+     * @return 校验和是否正确,未声明校验和时始终为true
+     */
+    public boolean decode(byte[] src, int offset, T value) {
+        if (offset < 0 || offset + size > src.length) {
+            throw new IndexOutOfBoundsException("offset:" + offset + ", frame size:" + size + ", array size:" + src.length);
+        }
+        if (checksumWidth > 0 && read(src, offset + checksumOffset, checksumWidth) != checksum(src, offset)) {
+            return false;
+        }
+        for (Slot<T> slot : slots) {
+            if (slot.field == null) continue;
+            int index = offset + slot.offset;
+            int field = slot.bitCount > 0
+                    ? ((src[index] & 0xFF) >>> slot.bitOffset) & ((1 << slot.bitCount) - 1)
+                    : read(src, index, slot.width);
+            slot.field.set(value, field);
+        }
+        return true;
+    }
+
+    private int checksum(byte[] frame, int offset) {
+        int result = 0;
+        for (int i = offset + checksumFrom; i < offset + checksumTo; i++) {
+            result = checksumType == CHECKSUM_XOR ? result ^ (frame[i] & 0xFF) : result + (frame[i] & 0xFF);
+        }
+        return checksumWidth == 1 ? result & 0xFF : result & 0xFFFF;
+    }
+
+    private void write(byte[] dst, int index, int width, int field) {
+        for (int i = 0; i < width; i++) {
+            int shift = bigEndian ? (width - 1 - i) * 8 : i * 8;
+            dst[index + i] = (byte) (field >> shift);
+        }
+    }
+
+    //1、2字节按无符号读取,4字节为int
+    private int read(byte[] src, int index, int width) {
+        int field = 0;
+        for (int i = 0; i < width; i++) {
+            int shift = bigEndian ? (width - 1 - i) * 8 : i * 8;
+            field |= (src[index + i] & 0xFF) << shift;
+        }
+        return field;
+    }
+
+    private static final class Slot<T> {
+        final int offset;
+        final int width;
+        final int bitOffset;
+        final int bitCount;
+        final Field<T> field;
+        final int constant;
+
+        Slot(int offset, int width, int bitOffset, int bitCount, Field<T> field, int constant) {
+            this.offset = offset;
+            this.width = width;
+            this.bitOffset = bitOffset;
+            this.bitCount = bitCount;
+            this.field = field;
+            this.constant = constant;
+        }
+    }
+
+    public static final class Builder<T> {
+        private final int size;
+        private boolean bigEndian = true;
+        private final List<Slot<T>> slots = new ArrayList<>();
+        //每个字节已被占用的位,用于检查字段重叠
+        private final int[] used;
+        private int checksumOffset;
+        private int checksumWidth;
+        private int checksumType;
+        private int checksumFrom;
+        private int checksumTo;
+
+        /**
+         * @param size 帧长度
+         */
+        public Builder(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("frame size must be greater than 0");
+            }
+            this.size = size;
+            this.used = new int[size];
+        }
+
+        /**
+         * 多字节字段和校验和的字节序,默认大端
+         */
+        public Builder<T> order(ByteOrder order) {
+            this.bigEndian = order == ByteOrder.BIG_ENDIAN;
+            return this;
+        }
+
+        /**
+         * @param width 字段宽度,1、2或4字节
+         */
+        public Builder<T> field(int offset, int width, Field<T> field) {
+            checkWidth(width);
+            occupy(offset, width, 0xFF);
+            slots.add(new Slot<>(offset, width, 0, 0, field, 0));
+            return this;
+        }
+
+        /**
+         * 位字段,只占用offset处字节的[bitOffset, bitOffset + bitCount)位(bit0为最低位)
+         */
+        public Builder<T> bits(int offset, int bitOffset, int bitCount, Field<T> field) {
+            if (bitOffset < 0 || bitCount <= 0 || bitOffset + bitCount > 8) {
+                throw new IllegalArgumentException("bitOffset:" + bitOffset + ", bitCount:" + bitCount);
+            }
+            occupy(offset, 1, ((1 << bitCount) - 1) << bitOffset);
+            slots.add(new Slot<>(offset, 1, bitOffset, bitCount, field, 0));
+            return this;
+        }
+
+        /**
+         * 固定值字段(如帧头、命令字),解码时忽略
+         */
+        public Builder<T> constant(int offset, int width, int value) {
+            checkWidth(width);
+            occupy(offset, width, 0xFF);
+            slots.add(new Slot<T>(offset, width, 0, 0, null, value));
+            return this;
+        }
+
+        /**
+         * 校验和,在所有字段写入后计算,每个布局只能声明一次
+         * @param type {@link #CHECKSUM_SUM}或{@link #CHECKSUM_XOR}
+         * @param from 参与计算的起始字节(包含)
+         * @param to   参与计算的结束字节(不包含),不能覆盖校验和本身
+         */
+        public Builder<T> checksum(int offset, int width, int type, int from, int to) {
+            if (checksumWidth > 0) {
+                throw new IllegalArgumentException("checksum is already declared at " + checksumOffset);
+            }
+            if (width != 1 && width != 2) {
+                throw new IllegalArgumentException("checksum width must be 1 or 2");
+            }
+            if (type != CHECKSUM_SUM && type != CHECKSUM_XOR) {
+                throw new IllegalArgumentException("unknown checksum type:" + type);
+            }
+            if (from < 0 || to > size || from > to || (from < offset + width && offset < to)) {
+                throw new IllegalArgumentException("invalid checksum range [" + from + ", " + to + ")");
+            }
+            occupy(offset, width, 0xFF);
+            this.checksumOffset = offset;
+            this.checksumWidth = width;
+            this.checksumType = type;
+            this.checksumFrom = from;
+            this.checksumTo = to;
+            return this;
+        }
+
+        public FrameLayout<T> build() {
+            return new FrameLayout<>(this);
+        }
+
+        private void checkWidth(int width) {
+            if (width != 1 && width != 2 && width != 4) {
+                throw new IllegalArgumentException("field width must be 1, 2 or 4, but was " + width);
+            }
+        }
+
+        private void occupy(int offset, int width, int mask) {
+            if (offset < 0 || offset + width > size) {
+                throw new IllegalArgumentException("field [" + offset + ", " + (offset + width) + ") is out of frame size " + size);
+            }
+            for (int i = offset; i < offset + width; i++) {
+                if ((used[i] & mask) != 0) {
+                    throw new IllegalArgumentException("field overlaps at byte " + i);
+                }
+                used[i] |= mask;
+            }
+        }
+    }
+}
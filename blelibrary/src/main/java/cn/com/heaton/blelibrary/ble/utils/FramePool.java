@@ -0,0 +1,42 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import java.util.ArrayDeque;
+
+/**
+ * 定长帧缓冲区池,高频发送时复用帧数组
+ * 写入的数组在GATT操作执行前不能修改,应在写入完成(如writeAsync的回调)后再归还
+ * created by jerry on 2019/9/20.
+ */
+public final class FramePool {
+
+    private final int frameSize;
+    private final int maxPooled;
+    private final ArrayDeque<byte[]> frames = new ArrayDeque<>();
+
+    /**
+     * @param frameSize 帧长度
+     * @param maxPooled 池中最多保留的空闲数组
+     */
+    public FramePool(int frameSize, int maxPooled) {
+        this.frameSize = frameSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return 空闲的数组,池为空时新建
+     */
+    public synchronized byte[] acquire() {
+        byte[] frame = frames.poll();
+        return frame != null ? frame : new byte[frameSize];
+    }
+
+    public synchronized void release(byte[] frame) {
+        if (frame != null && frame.length == frameSize && frames.size() < maxPooled) {
+            frames.push(frame);
+        }
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+}
@@ -0,0 +1,128 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import java.io.IOException;
+
+/**
+ * 十六进制编解码,查表转换,可编码到复用的char[]、StringBuilder或任意Appendable
+ * created by jerry on 2019/9/18.
+ */
+public final class HexCodec {
+
+    //每个字节对应的两个字符,HEX[b * 2]为高位,HEX[b * 2 + 1]为低位
+    private static final char[] HEX = new char[512];
+    //字符对应的数值,非十六进制字符为-1
+    private static final int[] DIGITS = new int[128];
+
+    static {
+        char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX[i * 2] = digits[i >>> 4];
+            HEX[i * 2 + 1] = digits[i & 0x0F];
+        }
+        for (int i = 0; i < DIGITS.length; i++) {
+            DIGITS[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            DIGITS['0' + i] = i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DIGITS['A' + i] = 10 + i;
+            DIGITS['a' + i] = 10 + i;
+        }
+    }
+
+    private HexCodec() {}
+
+    /**
+     * @return 连续的十六进制字符串,如"0AFF"
+     */
+    public static String encode(byte[] bytes) {
+        if (bytes == null) return null;
+        char[] out = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * 每个字节后面跟一个分隔符,如"0A FF "
+     */
+    public static String encode(byte[] bytes, char separator) {
+        if (bytes == null) return null;
+        char[] out = new char[bytes.length * 3];
+        for (int i = 0, position = 0; i < bytes.length; i++) {
+            int v = (bytes[i] & 0xFF) << 1;
+            out[position++] = HEX[v];
+            out[position++] = HEX[v + 1];
+            out[position++] = separator;
+        }
+        return new String(out);
+    }
+
+    /**
+     * 编码到调用方复用的char数组
+     * @return 写入的字符数(length * 2)
+     */
+    public static int encode(byte[] bytes, int offset, int length, char[] out, int outOffset) {
+        int position = outOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int v = (bytes[i] & 0xFF) << 1;
+            out[position++] = HEX[v];
+            out[position++] = HEX[v + 1];
+        }
+        return position - outOffset;
+    }
+
+    public static StringBuilder encode(byte[] bytes, int offset, int length, StringBuilder builder) {
+        builder.ensureCapacity(builder.length() + length * 2);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int v = (bytes[i] & 0xFF) << 1;
+            builder.append(HEX[v]).append(HEX[v + 1]);
+        }
+        return builder;
+    }
+
+    public static StringBuilder encode(byte[] bytes, int offset, int length, StringBuilder builder, char separator) {
+        builder.ensureCapacity(builder.length() + length * 3);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int v = (bytes[i] & 0xFF) << 1;
+            builder.append(HEX[v]).append(HEX[v + 1]).append(separator);
+        }
+        return builder;
+    }
+
+    /**
+     * 流式编码到Appendable(如Writer),不生成中间字符串
+     */
+    public static void encode(byte[] bytes, int offset, int length, Appendable out) throws IOException {
+        if (out instanceof StringBuilder) {
+            encode(bytes, offset, length, (StringBuilder) out);
+            return;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int v = (bytes[i] & 0xFF) << 1;
+            out.append(HEX[v]).append(HEX[v + 1]);
+        }
+    }
+
+    /**
+     * 解码连续的十六进制字符串(大小写均可),长度为奇数时忽略最后一个字符
+     * @throws NumberFormatException 包含非十六进制字符(包括正负号和全角数字)
+     */
+    public static byte[] decode(CharSequence hex) {
+        if (hex == null) return null;
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((digit(hex, i * 2) << 4) | digit(hex, i * 2 + 1));
+        }
+        return bytes;
+    }
+
+    private static int digit(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        int value = c < DIGITS.length ? DIGITS[c] : -1;
+        if (value < 0) {
+            throw new NumberFormatException("invalid hex char '" + c + "' at " + index);
+        }
+        return value;
+    }
+}
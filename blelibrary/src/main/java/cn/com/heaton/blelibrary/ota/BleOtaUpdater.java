@@ -5,12 +5,14 @@ import android.util.Log;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.concurrent.Semaphore;
 
 import cn.com.heaton.blelibrary.ble.Ble;
 import cn.com.heaton.blelibrary.ble.model.BleDevice;
+import cn.com.heaton.blelibrary.ble.utils.ByteFrame;
 import cn.com.heaton.blelibrary.BuildConfig;
 
 /**
@@ -25,6 +27,11 @@ public class BleOtaUpdater implements OtaListener {
 	private       int       mPercent     = 0;//File read percentage
 	private final int       mTimeout     = 12;//Write timeout (seconds)
 	private final int       mPacketSize  = 256;//Packet size
+	private static final int OTA_HEAD_LENGTH = 3;//length(2) + cmd(1)
+	private static final int OTA_CHECKSUM_LENGTH = 2;
+	private final ByteFrame mFrame = new ByteFrame().order(ByteOrder.LITTLE_ENDIAN);//Builds packets in place
+	private byte[] mPacket;//Reused packet buffer
+	private byte[] mChunk;//Reused full-size chunk
 	private       boolean   mShouldStop  = false;//Whether to stop
 	private Handler mHandler;//Main thread object
 	private String mFilePath    = null;//file path
@@ -155,34 +162,25 @@ public class BleOtaUpdater implements OtaListener {
 	private boolean otaSendPacket(OtaStatus.OtaCmd cmd, short checksum, byte[] data, int dataLength) {
 		// Get the command byte
 		byte cmdVal = this.cmdToValue(cmd);
-		// Conversion check length is byte (high and low)
-		byte[] checksumBytes = new byte[]{(byte) checksum, (byte) (checksum >> 8)};
-		// Initialize the send header
-		byte[] head = new byte[3];
+		// Package to send data: length(2) + cmd(1) + [data] + checksum(2), little endian
 		int packetLength;// Send packet size
-		byte[] dataPacket; // Sent data
-		// Package to send data
 		switch (cmd) {
 			case OTA_CMD_META_DATA:
 			case OTA_CMD_BRICK_DATA:
-				head[0] = (byte) (dataLength + 1);
-				head[1] = (byte) (dataLength + 1 >> 8);
-				head[2] = cmdVal;
-				packetLength = head.length + dataLength + checksumBytes.length;
-				dataPacket = new byte[packetLength];
-				System.arraycopy(head, 0, dataPacket, 0, head.length);
-				System.arraycopy(data, 0, dataPacket, head.length, dataLength);
-				System.arraycopy(checksumBytes, 0, dataPacket, head.length + dataLength, checksumBytes.length);
+				packetLength = OTA_HEAD_LENGTH + dataLength + OTA_CHECKSUM_LENGTH;
+				mFrame.wrap(packetBuffer(packetLength), 0, packetLength)
+						.putShort(dataLength + 1)
+						.put(cmdVal)
+						.put(data, 0, dataLength)
+						.putShort(checksum);
 				break;
 			case OTA_CMD_DATA_VERIFY:
 			case OTA_CMD_EXECUTION_NEW_CODE:
-				packetLength = head.length + checksumBytes.length;
-				dataPacket = new byte[packetLength];
-				dataPacket[0] = 1;
-				dataPacket[1] = 0;
-				dataPacket[2] = cmdVal;
-				dataPacket[3] = checksumBytes[0];
-				dataPacket[4] = checksumBytes[1];
+				packetLength = OTA_HEAD_LENGTH + OTA_CHECKSUM_LENGTH;
+				mFrame.wrap(packetBuffer(packetLength), 0, packetLength)
+						.putShort(1)
+						.put(cmdVal)
+						.putShort(checksum);
 				break;
 			default:
 				if(BuildConfig.DEBUG) {
@@ -190,19 +188,25 @@ public class BleOtaUpdater implements OtaListener {
 				}
 				return false;
 		}
+		byte[] dataPacket = mFrame.array();
 
 		int left = packetLength;
 
 		int tempLen;
-		// Traverse and send packets at a maximum of 20 bytes each time
-		for (byte BytesEachTime = 20; left > 0; left -= tempLen) {
+		// Traverse and send packets at a maximum of (mtu - 3) bytes each time, capped at 512
+		for (int BytesEachTime = this.mBleManager.getBleRequest().getMaxWriteLength(mBleDevice.getBleAddress()); left > 0; left -= tempLen) {
+			byte[] tempPacket;
 			if (left > BytesEachTime) {
 				tempLen = BytesEachTime;
+				// otaWrite waits for the write callback, so one full-size chunk buffer can be reused
+				if (mChunk == null || mChunk.length != BytesEachTime) {
+					mChunk = new byte[BytesEachTime];
+				}
+				tempPacket = mChunk;
 			} else {
 				tempLen = left;
+				tempPacket = new byte[tempLen];
 			}
-
-			byte[] tempPacket = new byte[tempLen];
 			System.arraycopy(dataPacket, packetLength - left, tempPacket, 0, tempLen);
 
 			try {
@@ -218,6 +222,14 @@ public class BleOtaUpdater implements OtaListener {
 		return true;
 	}
 
+	//Packet buffer, only grows when a larger packet is needed
+	private byte[] packetBuffer(int length) {
+		if (mPacket == null || mPacket.length < length) {
+			mPacket = new byte[length];
+		}
+		return mPacket;
+	}
+
 	/**
 	 * Send meta information data
 	 * @param fin Data read in stream
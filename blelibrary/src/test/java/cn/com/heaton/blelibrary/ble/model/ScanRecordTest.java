@@ -0,0 +1,321 @@
+package cn.com.heaton.blelibrary.ble.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 懒解析的ScanRecord与原来一次性解析结果的对比
+ * 参照实现是原parseFromBytes的解析循环,uuid宽度按字节(2/4/16)计算,与平台ScanRecord一致
+ * (原实现误按位数16/32/128截取,uuid列表和service data都无法正确解析)
+ */
+public class ScanRecordTest {
+
+    private static final UUID HEART_RATE = uuid16(0x180D);
+    private static final UUID BATTERY = uuid16(0x180F);
+    private static final UUID CUSTOM_128 = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    @Test
+    public void flags() throws Exception {
+        assertSameAsReference(record(ad(0x01, 0x06)));
+        assertEquals(0x06, ScanRecord.parseFromBytes(record(ad(0x01, 0x06))).getAdvertiseFlags());
+    }
+
+    @Test
+    public void serviceUuids16() throws Exception {
+        byte[] bytes = record(ad(0x01, 0x06), ad(0x02, 0x0D, 0x18), ad(0x03, 0x0F, 0x18, 0x0A, 0x18));
+        assertSameAsReference(bytes);
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        assertEquals(Arrays.asList(HEART_RATE, BATTERY, uuid16(0x180A)), scanRecord.parseServiceUuids());
+        assertTrue(scanRecord.hasServiceUuid(BATTERY));
+        assertFalse(scanRecord.hasServiceUuid(uuid16(0x1810)));
+    }
+
+    @Test
+    public void serviceUuids32() throws Exception {
+        byte[] bytes = record(ad(0x04, 0x0D, 0x18, 0x00, 0x00), ad(0x05, 0x78, 0x56, 0x34, 0x12));
+        assertSameAsReference(bytes);
+        List<UUID> uuids = ScanRecord.parseFromBytes(bytes).parseServiceUuids();
+        assertEquals(HEART_RATE, uuids.get(0));
+        assertEquals(UUID.fromString("12345678-0000-1000-8000-00805f9b34fb"), uuids.get(1));
+    }
+
+    @Test
+    public void serviceUuids128() throws Exception {
+        byte[] partial = concat(new byte[]{17, 0x06}, uuid128Bytes(CUSTOM_128));
+        byte[] complete = concat(new byte[]{17, 0x07}, uuid128Bytes(BATTERY));
+        byte[] bytes = concat(partial, complete);
+        assertSameAsReference(bytes);
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        assertEquals(Arrays.asList(CUSTOM_128, BATTERY), scanRecord.parseServiceUuids());
+        assertTrue(scanRecord.hasServiceUuid(CUSTOM_128));
+    }
+
+    @Test
+    public void serviceUuidsOfMixedWidths() throws Exception {
+        byte[] bytes = concat(record(ad(0x03, 0x0D, 0x18), ad(0x05, 0x0F, 0x18, 0x00, 0x00)),
+                concat(new byte[]{17, 0x07}, uuid128Bytes(CUSTOM_128)));
+        assertSameAsReference(bytes);
+    }
+
+    @Test
+    public void manufacturerData() throws Exception {
+        byte[] bytes = record(ad(0x01, 0x06), ad(0xFF, 0x4C, 0x00, 0x02, 0x15), ad(0xFF, 0x59, 0x00));
+        assertSameAsReference(bytes);
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        assertArrayEquals(new byte[]{0x02, 0x15}, scanRecord.parseManufacturerData().get(0x004C));
+        assertArrayEquals(new byte[0], scanRecord.parseManufacturerData().get(0x0059));
+
+        ByteBuffer out = ByteBuffer.allocate(8);
+        assertEquals(2, scanRecord.manufacturerData(0x004C, out));
+        assertEquals(-1, scanRecord.manufacturerData(0x0006, out));
+        assertTrue(scanRecord.matchManufacturerData(0x004C, new byte[]{0x02, 0x10}, new byte[]{(byte) 0xFF, (byte) 0xF0}));
+        assertFalse(scanRecord.matchManufacturerData(0x004C, new byte[]{0x02, 0x16}, null));
+    }
+
+    @Test
+    public void repeatedManufacturerIdKeepsLast() throws Exception {
+        //广播包和扫描响应中出现同一厂商id时,与SparseArray一样以后一个为准
+        byte[] bytes = record(ad(0xFF, 0x4C, 0x00, 0x01), ad(0xFF, 0x4C, 0x00, 0x02, 0x03));
+        assertSameAsReference(bytes);
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        ByteBuffer out = ByteBuffer.allocate(8);
+        assertEquals(2, scanRecord.manufacturerData(0x004C, out));
+        assertArrayEquals(new byte[]{0x02, 0x03}, Arrays.copyOf(out.array(), out.position()));
+        assertTrue(scanRecord.matchManufacturerData(0x004C, new byte[]{0x02, 0x03}, null));
+    }
+
+    @Test
+    public void serviceData() throws Exception {
+        byte[] bytes = record(ad(0x16, 0x0F, 0x18, 0x64), ad(0x16, 0xAA, 0xFE, 0x10, 0x00, 0x01));
+        assertSameAsReference(bytes);
+        Map<UUID, byte[]> serviceData = ScanRecord.parseFromBytes(bytes).parseServiceData();
+        assertArrayEquals(new byte[]{0x64}, serviceData.get(BATTERY));
+        assertArrayEquals(new byte[]{0x10, 0x00, 0x01}, serviceData.get(uuid16(0xFEAA)));
+    }
+
+    @Test
+    public void nameAndTxPower() throws Exception {
+        byte[] bytes = record(ad(0x0A, 0xF4), ad(0x09, 'B', 'l', 'e'));
+        assertSameAsReference(bytes);
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        assertEquals(-12, scanRecord.getTxPowerLevel());
+        assertEquals("Ble", scanRecord.getDeviceName());
+    }
+
+    @Test
+    public void emptyRecord() throws Exception {
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(new byte[0]);
+        assertSameAsReference(new byte[0]);
+        assertEquals(-1, scanRecord.getAdvertiseFlags());
+        assertEquals(Integer.MIN_VALUE, scanRecord.getTxPowerLevel());
+        assertNull(scanRecord.getDeviceName());
+        assertNull(ScanRecord.parseFromBytes(null));
+    }
+
+    @Test
+    public void trailingPadding() throws Exception {
+        //31字节的广播包未用完的部分以0填充
+        byte[] bytes = Arrays.copyOf(record(ad(0x01, 0x06), ad(0x03, 0x0D, 0x18), ad(0xFF, 0x4C, 0x00, 0x01)), 31);
+        assertSameAsReference(bytes);
+        assertEquals(Arrays.asList(HEART_RATE), ScanRecord.parseFromBytes(bytes).parseServiceUuids());
+    }
+
+    @Test
+    public void zeroLengthStructureStopsParsing() throws Exception {
+        byte[] bytes = concat(record(ad(0x01, 0x06)), concat(new byte[]{0x00}, record(ad(0x03, 0x0D, 0x18))));
+        assertSameAsReference(bytes);
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        assertEquals(0x06, scanRecord.getAdvertiseFlags());
+        assertTrue(scanRecord.parseServiceUuids().isEmpty());
+        assertFalse(scanRecord.hasServiceUuid(HEART_RATE));
+    }
+
+    @Test
+    public void truncatedStructureKeepsPrecedingFields() throws Exception {
+        //最后一个结构声明的长度超出了数据,原实现整包丢弃,懒解析保留它之前的字段
+        byte[] bytes = concat(record(ad(0x01, 0x06), ad(0x09, 'B', 'l', 'e')), new byte[]{0x05, 0x03, 0x0D, 0x18});
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(bytes);
+        assertEquals(0x06, scanRecord.getAdvertiseFlags());
+        assertEquals("Ble", scanRecord.getDeviceName());
+        assertTrue(scanRecord.parseServiceUuids().isEmpty());
+        assertFalse(scanRecord.hasServiceUuid(HEART_RATE));
+    }
+
+    @Test
+    public void structureEndingAtLastByte() throws Exception {
+        byte[] bytes = record(ad(0x01, 0x06), ad(0x16, 0x0F, 0x18));
+        assertSameAsReference(bytes);
+        assertArrayEquals(new byte[0], ScanRecord.parseFromBytes(bytes).parseServiceData().get(BATTERY));
+    }
+
+    private static void assertSameAsReference(byte[] bytes) {
+        Reference expected = Reference.parse(bytes);
+        assertNotNull("reference parser rejected the fixture", expected);
+        ScanRecord actual = ScanRecord.parseFromBytes(bytes);
+        assertEquals(expected.advertiseFlags, actual.getAdvertiseFlags());
+        assertEquals(expected.txPowerLevel, actual.getTxPowerLevel());
+        assertEquals(expected.localName, actual.getDeviceName());
+        //懒解析按列表类型分组返回uuid,这里只比较内容
+        List<UUID> uuids = actual.parseServiceUuids();
+        assertEquals(expected.serviceUuids.size(), uuids.size());
+        assertEquals(new HashSet<UUID>(expected.serviceUuids), new HashSet<UUID>(uuids));
+        for (UUID uuid : expected.serviceUuids) {
+            assertTrue(actual.hasServiceUuid(uuid));
+        }
+        assertBytesMapEquals(expected.manufacturerData, actual.parseManufacturerData());
+        assertBytesMapEquals(expected.serviceData, actual.parseServiceData());
+    }
+
+    private static <K> void assertBytesMapEquals(Map<K, byte[]> expected, Map<K, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<K, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(String.valueOf(entry.getKey()), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static UUID uuid16(int shortUuid) {
+        return new UUID(0x0000000000001000L + ((long) shortUuid << 32), 0x800000805F9B34FBL);
+    }
+
+    private static byte[] uuid128Bytes(UUID uuid) {
+        byte[] bytes = new byte[16];
+        long lsb = uuid.getLeastSignificantBits();
+        long msb = uuid.getMostSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (lsb >>> (8 * i));
+            bytes[8 + i] = (byte) (msb >>> (8 * i));
+        }
+        return bytes;
+    }
+
+    // AD structure: length, type, data
+    private static byte[] ad(int type, int... data) {
+        byte[] bytes = new byte[data.length + 2];
+        bytes[0] = (byte) (data.length + 1);
+        bytes[1] = (byte) type;
+        for (int i = 0; i < data.length; i++) {
+            bytes[i + 2] = (byte) data[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] record(byte[]... structures) {
+        byte[] bytes = new byte[0];
+        for (byte[] structure : structures) {
+            bytes = concat(bytes, structure);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] bytes = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, bytes, a.length, b.length);
+        return bytes;
+    }
+
+    /**
+     * 原parseFromBytes的一次性解析,不依赖android类型,解析出错时返回null
+     */
+    private static final class Reference {
+        int advertiseFlags = -1;
+        int txPowerLevel = Integer.MIN_VALUE;
+        String localName;
+        List<UUID> serviceUuids = new ArrayList<UUID>();
+        Map<Integer, byte[]> manufacturerData = new LinkedHashMap<Integer, byte[]>();
+        Map<UUID, byte[]> serviceData = new LinkedHashMap<UUID, byte[]>();
+
+        static Reference parse(byte[] scanRecord) {
+            Reference result = new Reference();
+            int currentPos = 0;
+            try {
+                while (currentPos < scanRecord.length) {
+                    int length = scanRecord[currentPos++] & 0xFF;
+                    if (length == 0) {
+                        break;
+                    }
+                    int dataLength = length - 1;
+                    int fieldType = scanRecord[currentPos++] & 0xFF;
+                    switch (fieldType) {
+                        case 0x01:
+                            result.advertiseFlags = scanRecord[currentPos] & 0xFF;
+                            break;
+                        case 0x02:
+                        case 0x03:
+                            parseServiceUuid(scanRecord, currentPos, dataLength, 2, result.serviceUuids);
+                            break;
+                        case 0x04:
+                        case 0x05:
+                            parseServiceUuid(scanRecord, currentPos, dataLength, 4, result.serviceUuids);
+                            break;
+                        case 0x06:
+                        case 0x07:
+                            parseServiceUuid(scanRecord, currentPos, dataLength, 16, result.serviceUuids);
+                            break;
+                        case 0x08:
+                        case 0x09:
+                            result.localName = new String(Arrays.copyOfRange(scanRecord, currentPos, currentPos + dataLength));
+                            break;
+                        case 0x0A:
+                            result.txPowerLevel = scanRecord[currentPos];
+                            break;
+                        case 0x16:
+                            UUID serviceDataUuid = parseUuidFrom(Arrays.copyOfRange(scanRecord, currentPos, currentPos + 2));
+                            result.serviceData.put(serviceDataUuid,
+                                    extractBytes(scanRecord, currentPos + 2, dataLength - 2));
+                            break;
+                        case 0xFF:
+                            int manufacturerId = ((scanRecord[currentPos + 1] & 0xFF) << 8) + (scanRecord[currentPos] & 0xFF);
+                            result.manufacturerData.put(manufacturerId,
+                                    extractBytes(scanRecord, currentPos + 2, dataLength - 2));
+                            break;
+                        default:
+                            break;
+                    }
+                    currentPos += dataLength;
+                }
+                return result;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static void parseServiceUuid(byte[] scanRecord, int currentPos, int dataLength,
+                                             int uuidLength, List<UUID> serviceUuids) {
+            while (dataLength > 0) {
+                serviceUuids.add(parseUuidFrom(extractBytes(scanRecord, currentPos, uuidLength)));
+                dataLength -= uuidLength;
+                currentPos += uuidLength;
+            }
+        }
+
+        private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
+            byte[] bytes = new byte[length];
+            System.arraycopy(scanRecord, start, bytes, 0, length);
+            return bytes;
+        }
+
+        private static UUID parseUuidFrom(byte[] uuidBytes) {
+            if (uuidBytes.length == 16) {
+                ByteBuffer buf = ByteBuffer.wrap(uuidBytes).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+                return new UUID(buf.getLong(8), buf.getLong(0));
+            }
+            long shortUuid = uuidBytes[0] & 0xFF;
+            shortUuid += (uuidBytes[1] & 0xFF) << 8;
+            if (uuidBytes.length == 4) {
+                shortUuid += (uuidBytes[2] & 0xFF) << 16;
+                shortUuid += (long) (uuidBytes[3] & 0xFF) << 24;
+            }
+            return new UUID(0x0000000000001000L + (shortUuid << 32), 0x800000805F9B34FBL);
+        }
+    }
+}
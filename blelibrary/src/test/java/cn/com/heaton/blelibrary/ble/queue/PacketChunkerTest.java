@@ -0,0 +1,175 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分包边界与缓冲区轮流复用
+ */
+public class PacketChunkerTest {
+
+    @Test
+    public void exactMultiple() throws Exception {
+        byte[] data = data(40);
+        PacketChunker chunker = new PacketChunker(data, 20, false, 0);
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 20), chunker.next());
+        assertEquals(20, chunker.position());
+        assertArrayEquals(Arrays.copyOfRange(data, 20, 40), chunker.next());
+        assertFalse(chunker.hasNext());
+        assertEquals(40, chunker.position());
+    }
+
+    @Test
+    public void remainderIsShortPacket() throws Exception {
+        byte[] data = data(45);
+        PacketChunker chunker = new PacketChunker(data, 20, false, 3);
+        assertEquals(20, chunker.next().length);
+        assertEquals(20, chunker.next().length);
+        assertArrayEquals(Arrays.copyOfRange(data, 40, 45), chunker.next());
+        assertFalse(chunker.hasNext());
+    }
+
+    @Test
+    public void remainderIsPaddedWhenLastPackComplete() throws Exception {
+        byte[] data = data(45);
+        //1个缓冲区时最后一包复用的数组里还留着上一包的数据,必须补零
+        PacketChunker chunker = new PacketChunker(data, 20, true, 1);
+        chunker.next();
+        chunker.next();
+        byte[] last = chunker.next();
+        byte[] expected = new byte[20];
+        System.arraycopy(data, 40, expected, 0, 5);
+        assertArrayEquals(expected, last);
+        assertFalse(chunker.hasNext());
+        assertEquals(45, chunker.position());
+    }
+
+    @Test
+    public void singlePacket() throws Exception {
+        byte[] data = data(7);
+        PacketChunker chunker = new PacketChunker(data, 20, false, 2);
+        assertTrue(chunker.hasNext());
+        assertArrayEquals(data, chunker.next());
+        assertFalse(chunker.hasNext());
+
+        chunker = new PacketChunker(data, 20, true, 0);
+        byte[] packet = chunker.next();
+        assertEquals(20, packet.length);
+        assertArrayEquals(data, Arrays.copyOf(packet, 7));
+        assertFalse(chunker.hasNext());
+    }
+
+    @Test
+    public void emptyData() throws Exception {
+        PacketChunker chunker = new PacketChunker(new byte[0], 20, true, 2);
+        assertFalse(chunker.hasNext());
+        assertEquals(0, chunker.length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroPackLength() throws Exception {
+        new PacketChunker(data(10), 0, false, 1);
+    }
+
+    @Test
+    public void packetsJoinBackToData() throws Exception {
+        byte[] data = data(1000);
+        for (int packLength = 1; packLength <= 64; packLength++) {
+            PacketChunker chunker = new PacketChunker(data, packLength, false, 4);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int packets = 0;
+            while (chunker.hasNext()) {
+                out.write(chunker.next());
+                packets++;
+            }
+            assertEquals((data.length + packLength - 1) / packLength, packets);
+            assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void buffersAreReusedAfterWindowSize() throws Exception {
+        int windowSize = 3;
+        byte[] data = data(20 * 8);
+        PacketChunker chunker = new PacketChunker(data, 20, false, windowSize);
+        byte[][] packets = new byte[8][];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = chunker.next();
+            //窗口内仍未确认的前windowSize - 1包不会被这次切分覆盖
+            for (int j = Math.max(0, i - windowSize + 1); j < i; j++) {
+                assertNotSame(packets[j], packets[i]);
+                assertArrayEquals(Arrays.copyOfRange(data, j * 20, j * 20 + 20), packets[j]);
+            }
+            if (i >= windowSize) {
+                assertSame(packets[i - windowSize], packets[i]);
+            }
+        }
+    }
+
+    @Test
+    public void windowCreditGuardsBufferReuse() throws Exception {
+        int windowSize = 2;
+        byte[] data = data(60);
+        WriteWindow window = new WriteWindow(windowSize);
+        PacketChunker chunker = new PacketChunker(data, 20, false, windowSize);
+        assertTrue(window.acquire(0));
+        byte[] first = chunker.next();
+        assertTrue(window.acquire(0));
+        chunker.next();
+        //第一包确认前拿不到信用,也就不会切分覆盖它所在缓冲区的第三包
+        assertFalse(window.acquire(0));
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 20), first);
+        window.release();
+        assertTrue(window.acquire(0));
+        assertSame(first, chunker.next());
+        assertArrayEquals(Arrays.copyOfRange(data, 40, 60), first);
+    }
+
+    @Test
+    public void noPoolAllocatesEveryPacket() throws Exception {
+        PacketChunker chunker = new PacketChunker(data(60), 20, false, 0);
+        byte[] first = chunker.next();
+        byte[] second = chunker.next();
+        byte[] third = chunker.next();
+        assertNotSame(first, second);
+        assertNotSame(first, third);
+    }
+
+    @Test
+    public void nextIntoCallerBuffer() throws Exception {
+        byte[] data = data(45);
+        PacketChunker chunker = new PacketChunker(data, 20, false, 0);
+        byte[] buffer = new byte[20];
+        assertSame(buffer, chunker.next(buffer));
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 20), buffer);
+        assertSame(buffer, chunker.next(buffer));
+        assertArrayEquals(Arrays.copyOfRange(data, 20, 40), buffer);
+        //最后一包不足且不补零时不能借用调用方的缓冲区
+        byte[] last = chunker.next(buffer);
+        assertNotSame(buffer, last);
+        assertArrayEquals(Arrays.copyOfRange(data, 40, 45), last);
+
+        chunker = new PacketChunker(data, 20, true, 0);
+        chunker.next(buffer);
+        chunker.next(buffer);
+        assertSame(buffer, chunker.next(buffer));
+        assertArrayEquals(Arrays.copyOf(Arrays.copyOfRange(data, 40, 45), 20), buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBufferOfOtherLength() throws Exception {
+        new PacketChunker(data(40), 20, false, 0).next(new byte[19]);
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + 1);
+        }
+        return data;
+    }
+}
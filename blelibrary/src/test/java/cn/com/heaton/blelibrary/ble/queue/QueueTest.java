@@ -0,0 +1,69 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按tag取消任务后,新任务的排队时间只取决于剩余的任务
+ */
+public class QueueTest {
+
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final long INTERVAL = 100;
+
+    private final Queue queue = new Queue() {
+        @Override
+        public void execute(RequestTask requestTask) {}
+    };
+
+    @After
+    public void tearDown() throws Exception {
+        queue.clear();
+    }
+
+    @Test
+    public void writeAfterCancelAllDoesNotWaitForCancelled() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{(byte) i}).setTag("bulk"));
+        }
+        assertTrue(queue.getWaitTime(ADDRESS) > 50 * INTERVAL);
+        queue.removeTag("bulk");
+        assertEquals(0, queue.getWaitTime(ADDRESS));
+        //取消后新写入只需等待自身的间隔
+        queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{1}));
+        assertTrue(queue.getWaitTime(ADDRESS) <= INTERVAL);
+    }
+
+    @Test
+    public void writeAfterCancelQueuesBehindRemaining() throws Exception {
+        queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{1}).setTag("bulk"));
+        queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{2}));
+        for (int i = 0; i < 10; i++) {
+            queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{3}).setTag("bulk"));
+        }
+        long before = queue.getWaitTime(ADDRESS);
+        queue.removeTag("bulk");
+        long remaining = queue.getWaitTime(ADDRESS);
+        //只剩第二个任务,排在两个间隔处
+        assertTrue(remaining <= 2 * INTERVAL);
+        assertTrue(remaining > INTERVAL);
+        assertEquals(10 * INTERVAL, before - remaining, INTERVAL / 2);
+        queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{4}));
+        assertEquals(remaining + INTERVAL, queue.getWaitTime(ADDRESS), INTERVAL / 2);
+    }
+
+    @Test
+    public void otherTagsAndDevicesAreKept() throws Exception {
+        String other = "66:77:88:99:AA:BB";
+        queue.put(INTERVAL, RequestTask.newWriteTask(ADDRESS, new byte[]{1}).setTag("a"));
+        queue.put(INTERVAL, RequestTask.newWriteTask(other, new byte[]{1}).setTag("b"));
+        queue.put(INTERVAL, RequestTask.newWriteTask(other, new byte[]{2}).setTag("b"));
+        long otherWait = queue.getWaitTime(other);
+        queue.removeTag("a");
+        assertEquals(0, queue.getWaitTime(ADDRESS));
+        assertTrue(queue.getWaitTime(other) <= otherWait);
+        assertTrue(queue.getWaitTime(other) > INTERVAL);
+    }
+}
@@ -0,0 +1,167 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import cn.com.heaton.blelibrary.ble.BleRequestImpl;
+import cn.com.heaton.blelibrary.ble.GattEventLog;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 分包写入稳定阶段(切分、写入信用、写入操作复用、GATT队列排队与回调完成、操作超时)每包不分配对象
+ * 按当前线程分配的字节数统计(HotSpot的com.sun.management.ThreadMXBean),不支持时跳过
+ */
+public class WriteAllocationTest {
+
+    private static final int PACK_LENGTH = 20;
+    private static final int WINDOW_SIZE = 4;
+    private static final int WARM_UP_PACKETS = 2000;
+    private static final int PACKETS = 20000;
+
+    private final BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+            UUID.fromString("0000fee1-0000-1000-8000-00805f9b34fb"), 0, 0);
+
+    @Test
+    public void steadyStatePacketsDoNotAllocate() throws Exception {
+        AllocationCounter counter = AllocationCounter.create();
+        assumeTrue("thread allocation counting is not supported", counter != null);
+        GattPipeline pipeline = new GattPipeline("00:11:22:33:44:55", null);
+        WriteWindow window = new WriteWindow(WINDOW_SIZE);
+        PacketChunker chunker = new PacketChunker(new byte[PACK_LENGTH * (WARM_UP_PACKETS + PACKETS)],
+                PACK_LENGTH, false, 0);
+        WriteOperation[] operations = ring(WINDOW_SIZE);
+        WriteOperation[] reused = operations.clone();
+
+        //预热:分配缓冲区、队列数组,布置超时检查任务
+        send(pipeline, window, chunker, operations, WARM_UP_PACKETS);
+        long allocated = counter.measure();
+        send(pipeline, window, chunker, operations, PACKETS);
+        allocated = counter.measure() - allocated;
+
+        //每包哪怕只分配一个对象也至少16字节
+        assertTrue("allocated " + allocated + " bytes for " + PACKETS + " packets", allocated < PACKETS);
+        assertFalse(chunker.hasNext());
+        assertArrayEquals(reused, operations);
+        drain(pipeline, window);
+        assertEquals(0, window.getFailures());
+    }
+
+    @Test
+    public void pendingOperationIsReplaced() throws Exception {
+        WriteWindow window = new WriteWindow(1);
+        WriteOperation[] operations = new WriteOperation[1];
+        WriteOperation first = WriteOperation.obtain(operations, 0, GattOperation.PRIORITY_BULK);
+        assertSame(first.buffer(PACK_LENGTH), first.buffer(PACK_LENGTH));
+        assertTrue(window.acquire(0));
+        first.set(characteristic, first.buffer(PACK_LENGTH), BleRequestImpl.WRITE_TYPE_UNCHANGED, window);
+        assertTrue(first.isPending());
+        //回调未到达(如定时模式下设备来不及确认)时不能覆盖它的缓冲区
+        WriteOperation second = WriteOperation.obtain(operations, 0, GattOperation.PRIORITY_BULK);
+        assertNotSame(first, second);
+        assertSame(second, operations[0]);
+        assertNotSame(first.buffer(PACK_LENGTH), second.buffer(PACK_LENGTH));
+
+        first.onCompleted();
+        assertFalse(first.isPending());
+        assertEquals(0, window.inFlight());
+        assertSame(second, WriteOperation.obtain(operations, 0, GattOperation.PRIORITY_BULK));
+
+        assertTrue(window.acquire(0));
+        second.set(characteristic, second.buffer(PACK_LENGTH), BleRequestImpl.WRITE_TYPE_UNCHANGED, window);
+        second.onFailed();
+        assertFalse(second.isPending());
+        assertEquals(1, window.getFailures());
+        assertEquals(0, window.inFlight());
+    }
+
+    // 与WriteRequest.executeEntity自动模式的循环一致,窗口满时模拟一次写入回调
+    private void send(GattPipeline pipeline, WriteWindow window, PacketChunker chunker,
+                      WriteOperation[] operations, int packets) throws Exception {
+        int slot = 0;
+        for (int i = 0; i < packets; i++) {
+            while (!window.acquire(0)) {
+                pipeline.complete(GattEventLog.CHARACTERISTIC_WRITE, null, BluetoothGatt.GATT_SUCCESS, null);
+            }
+            WriteOperation operation = WriteOperation.obtain(operations, slot, GattOperation.PRIORITY_BULK);
+            slot = (slot + 1) % operations.length;
+            byte[] packet = chunker.next(operation.buffer(PACK_LENGTH));
+            if (!pipeline.enqueue(operation.set(characteristic, packet, BleRequestImpl.WRITE_TYPE_UNCHANGED, window))) {
+                fail("packet " + i + " was rejected");
+            }
+        }
+    }
+
+    private void drain(GattPipeline pipeline, WriteWindow window) throws Exception {
+        while (pipeline.size() > 0) {
+            pipeline.complete(GattEventLog.CHARACTERISTIC_WRITE, null, BluetoothGatt.GATT_SUCCESS, null);
+        }
+        assertTrue(window.awaitIdle(0));
+    }
+
+    // 提交时不访问协议栈的写入操作
+    private static WriteOperation[] ring(int size) {
+        WriteOperation[] operations = new WriteOperation[size];
+        for (int i = 0; i < size; i++) {
+            operations[i] = new WriteOperation(GattOperation.PRIORITY_BULK) {
+                @Override
+                public boolean execute(BluetoothGatt gatt) {
+                    return true;
+                }
+            };
+        }
+        return operations;
+    }
+
+    /**
+     * 当前线程累计分配的字节数,扣除统计调用本身的分配;android.jar中没有java.lang.management,通过反射调用
+     */
+    private static final class AllocationCounter {
+        private final Object bean;
+        private final Method allocatedBytes;
+        private final Object[] threadId = {Thread.currentThread().getId()};
+        private long overhead;
+
+        private AllocationCounter(Object bean, Method allocatedBytes) {
+            this.bean = bean;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        static AllocationCounter create() {
+            try {
+                Object bean = Class.forName("java.lang.management.ManagementFactory")
+                        .getMethod("getThreadMXBean").invoke(null);
+                Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+                if (!type.isInstance(bean)
+                        || !(Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(bean)) {
+                    return null;
+                }
+                type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(bean, true);
+                AllocationCounter counter = new AllocationCounter(bean, type.getMethod("getThreadAllocatedBytes", long.class));
+                long overhead = Long.MAX_VALUE;
+                for (int i = 0; i < 10; i++) {
+                    long first = counter.read();
+                    overhead = Math.min(overhead, counter.read() - first);
+                }
+                counter.overhead = overhead;
+                return counter;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        long measure() throws Exception {
+            return read() - overhead;
+        }
+
+        private long read() throws Exception {
+            return (Long) allocatedBytes.invoke(bean, threadId);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package cn.com.heaton.blelibrary.ble.queue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 写入信用的获取、归还与失败统计
+ */
+public class WriteWindowTest {
+
+    @Test
+    public void creditsAreBoundedByWindowSize() throws Exception {
+        WriteWindow window = new WriteWindow(2);
+        assertTrue(window.acquire(0));
+        assertTrue(window.acquire(0));
+        assertEquals(2, window.inFlight());
+        assertFalse(window.acquire(10));
+        window.release();
+        assertEquals(1, window.inFlight());
+        assertTrue(window.acquire(0));
+    }
+
+    @Test
+    public void extraReleaseDoesNotGrowWindow() throws Exception {
+        WriteWindow window = new WriteWindow(1);
+        window.release();
+        window.release();
+        assertTrue(window.acquire(0));
+        assertFalse(window.acquire(0));
+    }
+
+    @Test
+    public void failReleasesCreditAndCounts() throws Exception {
+        WriteWindow window = new WriteWindow(2);
+        assertTrue(window.acquire(0));
+        assertTrue(window.acquire(0));
+        window.fail();
+        assertEquals(1, window.getFailures());
+        assertEquals(1, window.inFlight());
+        window.release();
+        assertEquals(0, window.inFlight());
+        assertEquals(1, window.getFailures());
+    }
+
+    @Test
+    public void awaitIdle() throws Exception {
+        WriteWindow window = new WriteWindow(3);
+        assertTrue(window.awaitIdle(0));
+        assertTrue(window.acquire(0));
+        assertFalse(window.awaitIdle(10));
+        //等待超时后不会占用信用
+        assertEquals(1, window.inFlight());
+        window.release();
+        assertTrue(window.awaitIdle(0));
+        assertEquals(0, window.inFlight());
+    }
+
+    @Test
+    public void awaitIdleWakesOnRelease() throws Exception {
+        final WriteWindow window = new WriteWindow(1);
+        assertTrue(window.acquire(0));
+        Thread callback = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                }
+                window.release();
+            }
+        });
+        callback.start();
+        assertTrue(window.awaitIdle(5000));
+        callback.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindow() throws Exception {
+        new WriteWindow(0);
+    }
+}
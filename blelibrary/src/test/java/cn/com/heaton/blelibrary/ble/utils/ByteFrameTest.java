@@ -0,0 +1,267 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * ByteFrame的字节序、变长整数、位字段与越界检查,数值读写与ByteUtils的数组方法对比
+ */
+public class ByteFrameTest {
+
+    private static final int[] INTS = {0, 1, -1, 0x7F, 0x80, 0xFF, 0x100, 0x7FFF, 0x8000, 0xFFFF,
+            0x12345678, Integer.MAX_VALUE, Integer.MIN_VALUE, 0xCAFEBABE};
+
+    @Test
+    public void bigEndianShortMatchesByteUtils() throws Exception {
+        for (int value : INTS) {
+            short s = (short) value;
+            byte[] frame = new byte[2];
+            new ByteFrame(frame).putShort(s);
+            assertArrayEquals(ByteUtils.short2Bytes(s), frame);
+            assertEquals(s, new ByteFrame(frame).getShort());
+            assertEquals(s & 0xFFFF, new ByteFrame(frame).getUnsignedShort());
+        }
+    }
+
+    @Test
+    public void littleEndianShortMatchesByteUtils() throws Exception {
+        for (int value : INTS) {
+            short s = (short) value;
+            byte[] frame = new byte[2];
+            new ByteFrame(frame).order(ByteOrder.LITTLE_ENDIAN).putShort(s);
+            assertEquals(s, ByteUtils.bytes2Short2(frame));
+            assertEquals(s, new ByteFrame(frame).order(ByteOrder.LITTLE_ENDIAN).getShort());
+        }
+    }
+
+    @Test
+    public void littleEndianIntMatchesByteUtils() throws Exception {
+        for (int value : INTS) {
+            byte[] frame = new byte[4];
+            new ByteFrame(frame).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+            assertArrayEquals(ByteUtils.int2byte(value), frame);
+            assertEquals(value, ByteUtils.byte2int(frame));
+            assertEquals(value, new ByteFrame(frame).order(ByteOrder.LITTLE_ENDIAN).getInt());
+        }
+    }
+
+    @Test
+    public void bigEndianInt() throws Exception {
+        byte[] frame = new byte[4];
+        new ByteFrame(frame).putInt(0x12345678);
+        assertArrayEquals(new byte[]{0x12, 0x34, 0x56, 0x78}, frame);
+        for (int value : INTS) {
+            new ByteFrame(frame).putInt(value);
+            assertEquals(value, new ByteFrame(frame).getInt());
+        }
+    }
+
+    @Test
+    public void indexedAccessKeepsPosition() throws Exception {
+        byte[] frame = new byte[8];
+        ByteFrame writer = new ByteFrame(frame).order(ByteOrder.LITTLE_ENDIAN);
+        writer.put(0xAA).putShort(0).putInt(0x01020304);
+        //回填长度,不改变当前位置
+        writer.putShort(1, 7);
+        assertEquals(7, writer.position());
+        assertEquals(1, writer.remaining());
+        ByteFrame reader = new ByteFrame(frame).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(7, reader.getShort(1));
+        assertEquals(0x01020304, reader.getInt(3));
+        assertEquals(0, reader.position());
+        assertEquals(0xAA, reader.getUnsigned());
+    }
+
+    @Test
+    public void wrapWindow() throws Exception {
+        byte[] array = new byte[10];
+        ByteFrame frame = new ByteFrame().wrap(array, 3, 4);
+        frame.putInt(-1);
+        assertEquals(0, frame.remaining());
+        assertArrayEquals(new byte[]{0, 0, 0, -1, -1, -1, -1, 0, 0, 0}, array);
+        assertEquals(-1, frame.position(0).getInt());
+        //同一对象换一帧复用,位置归零
+        frame.wrap(new byte[2]);
+        assertEquals(0, frame.position());
+        assertEquals(2, frame.remaining());
+    }
+
+    @Test
+    public void varintBoundaries() throws Exception {
+        assertVarint(0, 0x00);
+        assertVarint(1, 0x01);
+        assertVarint(0x7F, 0x7F);
+        assertVarint(0x80, 0x80, 0x01);
+        assertVarint(0x3FFF, 0xFF, 0x7F);
+        assertVarint(0x4000, 0x80, 0x80, 0x01);
+        assertVarint(0x1FFFFF, 0xFF, 0xFF, 0x7F);
+        assertVarint(0x0FFFFFFF, 0xFF, 0xFF, 0xFF, 0x7F);
+        assertVarint(0x10000000, 0x80, 0x80, 0x80, 0x80, 0x01);
+        assertVarint(Integer.MAX_VALUE, 0xFF, 0xFF, 0xFF, 0xFF, 0x07);
+        //按无符号编码,负数占满5个字节
+        assertVarint(-1, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        assertVarint(Integer.MIN_VALUE, 0x80, 0x80, 0x80, 0x80, 0x08);
+    }
+
+    @Test
+    public void varintSequence() throws Exception {
+        byte[] frame = new byte[32];
+        ByteFrame writer = new ByteFrame(frame);
+        int[] values = {0, 0x7F, 0x80, 0x3FFF, -1, 300};
+        for (int value : values) {
+            writer.putVarint(value);
+        }
+        ByteFrame reader = new ByteFrame().wrap(frame, 0, writer.position());
+        for (int value : values) {
+            assertEquals(value, reader.getVarint());
+        }
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void varintLongerThanFiveBytes() throws Exception {
+        new ByteFrame(bytes(0x80, 0x80, 0x80, 0x80, 0x80, 0x01)).getVarint();
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void truncatedVarint() throws Exception {
+        new ByteFrame(bytes(0x80, 0x80)).getVarint();
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void varintOverflow() throws Exception {
+        new ByteFrame(new byte[2]).putVarint(0x4000);
+    }
+
+    @Test
+    public void bits() throws Exception {
+        byte[] frame = {(byte) 0xFF, 0x00};
+        ByteFrame bits = new ByteFrame(frame);
+        bits.putBits(0, 2, 3, 0);
+        assertEquals((byte) 0xE3, frame[0]);
+        //超出位宽的部分被屏蔽,不影响相邻的位
+        bits.putBits(1, 0, 3, 0xFF);
+        bits.putBits(1, 4, 4, 0x5A);
+        assertEquals((byte) 0xA7, frame[1]);
+        assertEquals(7, bits.getBits(1, 0, 3));
+        assertEquals(0, bits.getBits(1, 3, 1));
+        assertEquals(0xA, bits.getBits(1, 4, 4));
+        assertEquals(0xA7, bits.getBits(1, 0, 8));
+        assertEquals(0, bits.position());
+    }
+
+    @Test
+    public void invalidBitRange() throws Exception {
+        ByteFrame frame = new ByteFrame(new byte[1]);
+        int[][] invalid = {{-1, 1}, {0, 0}, {4, 5}, {0, 9}};
+        for (int[] range : invalid) {
+            try {
+                frame.putBits(0, range[0], range[1], 1);
+                fail("putBits(" + range[0] + ", " + range[1] + ")");
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                frame.getBits(0, range[0], range[1]);
+                fail("getBits(" + range[0] + ", " + range[1] + ")");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void overflowAndUnderflow() throws Exception {
+        ByteFrame frame = new ByteFrame(new byte[3]);
+        frame.putShort(1);
+        try {
+            frame.putShort(2);
+            fail("putShort past the end");
+        } catch (BufferOverflowException expected) {
+        }
+        //失败的写入不移动位置
+        assertEquals(2, frame.position());
+        frame.put(3);
+        try {
+            frame.put(4);
+            fail("put past the end");
+        } catch (BufferOverflowException expected) {
+        }
+
+        frame.position(1);
+        try {
+            frame.getInt();
+            fail("getInt past the end");
+        } catch (BufferUnderflowException expected) {
+        }
+        assertEquals(1, frame.position());
+        try {
+            frame.get(new byte[3], 0, 3);
+            fail("get past the end");
+        } catch (BufferUnderflowException expected) {
+        }
+        frame.position(3);
+        try {
+            frame.get();
+            fail("get a byte past the end");
+        } catch (BufferUnderflowException expected) {
+        }
+    }
+
+    @Test
+    public void indexOutOfBounds() throws Exception {
+        ByteFrame frame = new ByteFrame().wrap(new byte[8], 2, 4);
+        assertIndexFails(frame, -1);
+        assertIndexFails(frame, 3);
+        try {
+            frame.position(5);
+            fail("position past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            frame.putBits(4, 0, 1, 1);
+            fail("putBits past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            new ByteFrame().wrap(new byte[4], 2, 3);
+            fail("wrap past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static void assertIndexFails(ByteFrame frame, int index) {
+        try {
+            frame.putShort(index, 0);
+            fail("putShort(" + index + ")");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            frame.getInt(index);
+            fail("getInt(" + index + ")");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static void assertVarint(int value, int... encoded) {
+        byte[] frame = new byte[8];
+        ByteFrame writer = new ByteFrame(frame);
+        writer.putVarint(value);
+        assertArrayEquals("putVarint(" + value + ")", bytes(encoded), Arrays.copyOf(frame, writer.position()));
+        ByteFrame reader = new ByteFrame(bytes(encoded));
+        assertEquals(value, reader.getVarint());
+        assertEquals(0, reader.remaining());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
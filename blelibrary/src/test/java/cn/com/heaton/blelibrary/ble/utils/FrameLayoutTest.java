@@ -0,0 +1,297 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 帧布局的编解码、位字段、常量、校验和以及建立时的检查
+ */
+public class FrameLayoutTest {
+
+    private static final class Command {
+        int type;
+        int flags;
+        int channel;
+        int value;
+        int sequence;
+    }
+
+    private static final FrameLayout.Field<Command> TYPE = new FrameLayout.Field<Command>() {
+        public int get(Command command) { return command.type; }
+        public void set(Command command, int field) { command.type = field; }
+    };
+    private static final FrameLayout.Field<Command> FLAGS = new FrameLayout.Field<Command>() {
+        public int get(Command command) { return command.flags; }
+        public void set(Command command, int field) { command.flags = field; }
+    };
+    private static final FrameLayout.Field<Command> CHANNEL = new FrameLayout.Field<Command>() {
+        public int get(Command command) { return command.channel; }
+        public void set(Command command, int field) { command.channel = field; }
+    };
+    private static final FrameLayout.Field<Command> VALUE = new FrameLayout.Field<Command>() {
+        public int get(Command command) { return command.value; }
+        public void set(Command command, int field) { command.value = field; }
+    };
+    private static final FrameLayout.Field<Command> SEQUENCE = new FrameLayout.Field<Command>() {
+        public int get(Command command) { return command.sequence; }
+        public void set(Command command, int field) { command.sequence = field; }
+    };
+
+    // AA | type | flags(bit0-2) channel(bit4-7) | value(4) | sequence(2) | 00 | sum
+    private static FrameLayout<Command> layout(ByteOrder order, int checksumType) {
+        return new FrameLayout.Builder<Command>(11)
+                .order(order)
+                .constant(0, 1, 0xAA)
+                .field(1, 1, TYPE)
+                .bits(2, 0, 3, FLAGS)
+                .bits(2, 4, 4, CHANNEL)
+                .field(3, 4, VALUE)
+                .field(7, 2, SEQUENCE)
+                .checksum(10, 1, checksumType, 0, 10)
+                .build();
+    }
+
+    private static Command command() {
+        Command command = new Command();
+        command.type = 0x81;
+        command.flags = 5;
+        command.channel = 0xC;
+        command.value = 0x12345678;
+        command.sequence = 0xBEEF;
+        return command;
+    }
+
+    @Test
+    public void encodeBigEndian() throws Exception {
+        byte[] frame = layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM).encode(command());
+        byte[] expected = bytes(0xAA, 0x81, 0xC5, 0x12, 0x34, 0x56, 0x78, 0xBE, 0xEF, 0x00, 0);
+        expected[10] = (byte) sum(expected, 0, 10);
+        assertArrayEquals(expected, frame);
+    }
+
+    @Test
+    public void encodeLittleEndian() throws Exception {
+        byte[] frame = layout(ByteOrder.LITTLE_ENDIAN, FrameLayout.CHECKSUM_XOR).encode(command());
+        byte[] expected = bytes(0xAA, 0x81, 0xC5, 0x78, 0x56, 0x34, 0x12, 0xEF, 0xBE, 0x00, 0);
+        int xor = 0;
+        for (int i = 0; i < 10; i++) {
+            xor ^= expected[i] & 0xFF;
+        }
+        expected[10] = (byte) xor;
+        assertArrayEquals(expected, frame);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int type : new int[]{FrameLayout.CHECKSUM_SUM, FrameLayout.CHECKSUM_XOR}) {
+                FrameLayout<Command> layout = layout(order, type);
+                Command source = command();
+                byte[] frame = layout.encode(source);
+                Command decoded = new Command();
+                assertTrue(layout.decode(frame, 0, decoded));
+                assertEquals(source.type, decoded.type);
+                assertEquals(source.flags, decoded.flags);
+                assertEquals(source.channel, decoded.channel);
+                assertEquals(source.value, decoded.value);
+                assertEquals(source.sequence, decoded.sequence);
+            }
+        }
+    }
+
+    @Test
+    public void encodeAtOffsetClearsUndeclaredBytes() throws Exception {
+        FrameLayout<Command> layout = layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM);
+        byte[] dst = new byte[20];
+        Arrays.fill(dst, (byte) 0x55);
+        assertEquals(11, layout.encode(command(), dst, 4));
+        assertEquals(0x55, dst[3]);
+        assertEquals(0x55, dst[15]);
+        assertEquals((byte) 0xAA, dst[4]);
+        //未声明的字节和位字段之间未使用的位都清零
+        assertEquals(0, dst[4 + 9]);
+        assertEquals((byte) 0xC5, dst[4 + 2]);
+        Command decoded = new Command();
+        assertTrue(layout.decode(dst, 4, decoded));
+        assertEquals(0xBEEF, decoded.sequence);
+    }
+
+    @Test
+    public void bitFieldsAreMaskedToTheirWidth() throws Exception {
+        FrameLayout<Command> layout = layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM);
+        Command command = command();
+        command.flags = 0xFF;
+        command.channel = 0x1F;
+        byte[] frame = layout.encode(command);
+        assertEquals((byte) 0xF7, frame[2]);
+        Command decoded = new Command();
+        assertTrue(layout.decode(frame, 0, decoded));
+        assertEquals(7, decoded.flags);
+        assertEquals(0xF, decoded.channel);
+    }
+
+    @Test
+    public void unsignedShortAndSignedInt() throws Exception {
+        FrameLayout<Command> layout = layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM);
+        Command command = command();
+        command.value = -2;
+        command.sequence = 0xFFFF;
+        Command decoded = new Command();
+        assertTrue(layout.decode(layout.encode(command), 0, decoded));
+        assertEquals(-2, decoded.value);
+        assertEquals(0xFFFF, decoded.sequence);
+    }
+
+    @Test
+    public void constantIsWrittenAndIgnoredOnDecode() throws Exception {
+        FrameLayout<Command> layout = layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_XOR);
+        byte[] frame = layout.encode(command());
+        assertEquals((byte) 0xAA, frame[0]);
+        //帧头不同时只要校验和正确仍然解码
+        frame[0] = 0x55;
+        frame[10] = (byte) (frame[10] ^ 0xAA ^ 0x55);
+        assertTrue(layout.decode(frame, 0, new Command()));
+    }
+
+    @Test
+    public void checksumMismatchSkipsDecode() throws Exception {
+        FrameLayout<Command> layout = layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM);
+        byte[] frame = layout.encode(command());
+        frame[4] ^= 0x01;
+        Command decoded = new Command();
+        assertFalse(layout.decode(frame, 0, decoded));
+        assertEquals(0, decoded.value);
+    }
+
+    @Test
+    public void twoByteSumChecksum() throws Exception {
+        FrameLayout<Command> layout = new FrameLayout.Builder<Command>(6)
+                .field(0, 4, VALUE)
+                .checksum(4, 2, FrameLayout.CHECKSUM_SUM, 0, 4)
+                .build();
+        Command command = new Command();
+        command.value = 0xFFFFFFFF;
+        byte[] frame = layout.encode(command);
+        //4 * 0xFF = 0x03FC,大端
+        assertArrayEquals(bytes(0xFF, 0xFF, 0xFF, 0xFF, 0x03, 0xFC), frame);
+        assertTrue(layout.decode(frame, 0, new Command()));
+    }
+
+    @Test
+    public void noChecksumAlwaysDecodes() throws Exception {
+        FrameLayout<Command> layout = new FrameLayout.Builder<Command>(2).field(0, 2, SEQUENCE).build();
+        Command decoded = new Command();
+        assertTrue(layout.decode(bytes(0x12, 0x34), 0, decoded));
+        assertEquals(0x1234, decoded.sequence);
+        assertEquals(2, layout.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void encodeRejectsShortArray() throws Exception {
+        layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM).encode(command(), new byte[12], 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void decodeRejectsNegativeOffset() throws Exception {
+        layout(ByteOrder.BIG_ENDIAN, FrameLayout.CHECKSUM_SUM).decode(new byte[11], -1, new Command());
+    }
+
+    @Test
+    public void buildRejectsOverlapAndRange() throws Exception {
+        assertFieldFails(new FrameLayout.Builder<Command>(4).field(0, 2, TYPE), 1, 1);
+        assertFieldFails(new FrameLayout.Builder<Command>(4), 2, 4);
+        assertFieldFails(new FrameLayout.Builder<Command>(4), -1, 1);
+        assertFieldFails(new FrameLayout.Builder<Command>(4), 0, 3);
+        assertFieldFails(new FrameLayout.Builder<Command>(4).bits(0, 0, 4, FLAGS), 0, 1);
+        assertBitsFails(new FrameLayout.Builder<Command>(4).bits(0, 0, 4, FLAGS), 0, 3, 2);
+        assertBitsFails(new FrameLayout.Builder<Command>(4).field(0, 1, TYPE), 0, 4, 1);
+        assertBitsFails(new FrameLayout.Builder<Command>(4), 0, 6, 3);
+        assertBitsFails(new FrameLayout.Builder<Command>(4), 0, 0, 0);
+        assertBitsFails(new FrameLayout.Builder<Command>(4), 4, 0, 1);
+        assertConstantFails(new FrameLayout.Builder<Command>(4), 3, 2);
+        assertConstantFails(new FrameLayout.Builder<Command>(4).field(0, 4, VALUE), 2, 1);
+        //同一字节中不重叠的位字段可以共存
+        new FrameLayout.Builder<Command>(1).bits(0, 0, 4, FLAGS).bits(0, 4, 4, CHANNEL).build();
+    }
+
+    @Test
+    public void buildRejectsInvalidChecksum() throws Exception {
+        //范围覆盖校验和本身
+        assertChecksumFails(new FrameLayout.Builder<Command>(4), 3, 1, FrameLayout.CHECKSUM_SUM, 0, 4);
+        assertChecksumFails(new FrameLayout.Builder<Command>(4), 3, 1, FrameLayout.CHECKSUM_SUM, 2, 1);
+        assertChecksumFails(new FrameLayout.Builder<Command>(4), 3, 1, FrameLayout.CHECKSUM_SUM, 0, 5);
+        assertChecksumFails(new FrameLayout.Builder<Command>(4), 2, 4, FrameLayout.CHECKSUM_SUM, 0, 2);
+        assertChecksumFails(new FrameLayout.Builder<Command>(4), 3, 1, 2, 0, 3);
+        //校验和与字段重叠
+        assertChecksumFails(new FrameLayout.Builder<Command>(4).field(2, 2, SEQUENCE), 3, 1, FrameLayout.CHECKSUM_SUM, 0, 2);
+    }
+
+    @Test
+    public void checksumCanOnlyBeDeclaredOnce() throws Exception {
+        FrameLayout.Builder<Command> builder = new FrameLayout.Builder<Command>(6)
+                .checksum(5, 1, FrameLayout.CHECKSUM_SUM, 0, 5);
+        assertChecksumFails(builder, 4, 1, FrameLayout.CHECKSUM_XOR, 0, 4);
+        //第一次声明保持不变
+        FrameLayout<Command> layout = builder.field(0, 4, VALUE).build();
+        Command command = new Command();
+        command.value = 0x01020304;
+        assertArrayEquals(bytes(1, 2, 3, 4, 0, 10), layout.encode(command));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builderRejectsEmptyFrame() throws Exception {
+        new FrameLayout.Builder<Command>(0);
+    }
+
+    private static void assertFieldFails(FrameLayout.Builder<Command> builder, int offset, int width) {
+        try {
+            builder.field(offset, width, TYPE);
+            fail("expected IllegalArgumentException for field(" + offset + ", " + width + ")");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertBitsFails(FrameLayout.Builder<Command> builder, int offset, int bitOffset, int bitCount) {
+        try {
+            builder.bits(offset, bitOffset, bitCount, FLAGS);
+            fail("expected IllegalArgumentException for bits(" + offset + ", " + bitOffset + ", " + bitCount + ")");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertConstantFails(FrameLayout.Builder<Command> builder, int offset, int width) {
+        try {
+            builder.constant(offset, width, 0);
+            fail("expected IllegalArgumentException for constant(" + offset + ", " + width + ")");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertChecksumFails(FrameLayout.Builder<Command> builder, int offset, int width, int type, int from, int to) {
+        try {
+            builder.checksum(offset, width, type, from, to);
+            fail("expected IllegalArgumentException for checksum(" + offset + ", " + width + ", " + type + ", " + from + ", " + to + ")");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static int sum(byte[] bytes, int from, int to) {
+        int sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += bytes[i] & 0xFF;
+        }
+        return sum & 0xFF;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,166 @@
+package cn.com.heaton.blelibrary.ble.utils;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * HexCodec与原ByteUtils中逐字节拼接实现的对比
+ */
+public class HexCodecTest {
+
+    @Test
+    public void encodeMatchesLegacy() throws Exception {
+        Random random = new Random(20190918L);
+        for (int length = 0; length <= 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            assertEquals(Legacy.byteArrayToHexStr(bytes), HexCodec.encode(bytes));
+            assertEquals(Legacy.binaryToHexString(bytes), HexCodec.encode(bytes, ' '));
+            assertEquals(Legacy.byteArrayToHexStr(bytes), ByteUtils.byteArrayToHexStr(bytes));
+            assertEquals(Legacy.binaryToHexString(bytes), ByteUtils.BinaryToHexString(bytes));
+        }
+    }
+
+    @Test
+    public void roundTripAllByteValues() throws Exception {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        String hex = HexCodec.encode(bytes);
+        assertEquals(512, hex.length());
+        assertTrue(hex.startsWith("000102"));
+        assertEquals("7F8081", hex.substring(254, 260));
+        assertTrue(hex.endsWith("FDFEFF"));
+        assertArrayEquals(bytes, HexCodec.decode(hex));
+        assertArrayEquals(Legacy.hexStrToByteArray(hex), HexCodec.decode(hex));
+        assertArrayEquals(bytes, HexCodec.decode(hex.toLowerCase()));
+    }
+
+    @Test
+    public void decodeMixedCase() throws Exception {
+        String hex = "0aFf7eC3bD";
+        byte[] expected = {0x0A, (byte) 0xFF, 0x7E, (byte) 0xC3, (byte) 0xBD};
+        assertArrayEquals(expected, HexCodec.decode(hex));
+        assertArrayEquals(Legacy.hexStrToByteArray(hex), ByteUtils.hexStrToByteArray(hex));
+        assertArrayEquals(expected, HexCodec.decode(new StringBuilder(hex)));
+    }
+
+    @Test
+    public void decodeOddLengthIgnoresLastChar() throws Exception {
+        assertArrayEquals(new byte[]{0x12, 0x34}, HexCodec.decode("12345"));
+        assertArrayEquals(Legacy.hexStrToByteArray("12345"), HexCodec.decode("12345"));
+        assertArrayEquals(new byte[0], HexCodec.decode("F"));
+        assertArrayEquals(Legacy.hexStrToByteArray("F"), HexCodec.decode("F"));
+    }
+
+    @Test
+    public void decodeEmpty() throws Exception {
+        assertArrayEquals(new byte[0], HexCodec.decode(""));
+        assertArrayEquals(Legacy.hexStrToByteArray(""), ByteUtils.hexStrToByteArray(""));
+        assertEquals("", HexCodec.encode(new byte[0]));
+        assertEquals("", HexCodec.encode(new byte[0], ' '));
+    }
+
+    @Test
+    public void decodeRejectsInvalidChars() throws Exception {
+        String[] invalid = {"0G", "G0", "1 ", " 1", "0x", "é0", "\u0000A", "００"};
+        for (String hex : invalid) {
+            assertDecodeFails(hex);
+        }
+        //原实现经Integer.parseInt解析,会接受带符号的"-1"、"+F"和全角数字,现在都视为非法字符
+        assertEquals((byte) 0xFF, Legacy.hexStrToByteArray("-1")[0]);
+        assertDecodeFails("-1");
+        assertDecodeFails("+F");
+    }
+
+    @Test
+    public void nullInput() throws Exception {
+        assertNull(HexCodec.encode(null));
+        assertNull(HexCodec.encode(null, ' '));
+        assertNull(HexCodec.decode(null));
+        assertNull(ByteUtils.byteArrayToHexStr(null));
+        assertNull(ByteUtils.BinaryToHexString(null));
+        assertNull(ByteUtils.hexStrToByteArray(null));
+        assertNull(Legacy.hexStrToByteArray(null));
+    }
+
+    @Test
+    public void encodeIntoReusedBuffers() throws Exception {
+        byte[] bytes = {0x01, (byte) 0xAB, 0x7F, (byte) 0x80};
+        char[] out = new char[12];
+        out[0] = '[';
+        assertEquals(4, HexCodec.encode(bytes, 1, 2, out, 1));
+        assertEquals("[AB7F", new String(out, 0, 5));
+
+        StringBuilder builder = new StringBuilder("frame:");
+        HexCodec.encode(bytes, 0, bytes.length, builder);
+        assertEquals("frame:01AB7F80", builder.toString());
+        builder.setLength(0);
+        HexCodec.encode(bytes, 2, 2, builder, ' ');
+        assertEquals("7F 80 ", builder.toString());
+
+        StringWriter writer = new StringWriter();
+        HexCodec.encode(bytes, 0, bytes.length, writer);
+        assertEquals(Legacy.byteArrayToHexStr(bytes), writer.toString());
+    }
+
+    private static void assertDecodeFails(String hex) {
+        try {
+            HexCodec.decode(hex);
+            fail("expected NumberFormatException for \"" + hex + "\"");
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    /**
+     * 原ByteUtils中的实现
+     */
+    private static final class Legacy {
+
+        static String binaryToHexString(byte[] bytes) {
+            String hexStr = "0123456789ABCDEF";
+            StringBuilder result = new StringBuilder();
+            String hex = "";
+            for (byte b : bytes) {
+                hex = String.valueOf(hexStr.charAt((b & 0xF0) >> 4));
+                hex += String.valueOf(hexStr.charAt(b & 0x0F));
+                result.append(hex).append(" ");
+            }
+            return result.toString();
+        }
+
+        static String byteArrayToHexStr(byte[] byteArray) {
+            if (byteArray == null) {
+                return null;
+            }
+            char[] hexArray = "0123456789ABCDEF".toCharArray();
+            char[] hexChars = new char[byteArray.length * 2];
+            for (int j = 0; j < byteArray.length; j++) {
+                int v = byteArray[j] & 0xFF;
+                hexChars[j * 2] = hexArray[v >>> 4];
+                hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+            }
+            return new String(hexChars);
+        }
+
+        static byte[] hexStrToByteArray(String str) {
+            if (str == null) {
+                return null;
+            }
+            if (str.length() == 0) {
+                return new byte[0];
+            }
+            byte[] byteArray = new byte[str.length() / 2];
+            for (int i = 0; i < byteArray.length; i++) {
+                String subStr = str.substring(2 * i, 2 * i + 2);
+                byteArray[i] = ((byte) Integer.parseInt(subStr, 16));
+            }
+            return byteArray;
+        }
+    }
+}